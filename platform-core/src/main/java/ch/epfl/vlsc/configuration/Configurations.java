@@ -153,4 +153,29 @@ public class Configurations {
         return connections;
     }
 
+    /**
+     * Returns the connections of a configuration generated by a profiling run (--generate with --with-bandwidth),
+     * indexed by connectionKey.
+     */
+    public static Map<String, Configuration.Connections.Connection> getConnectionProfiles(Configuration configuration) {
+        Map<String, Configuration.Connections.Connection> profiles = new HashMap<>();
+
+        if (configuration.getConnections() == null) {
+            return profiles;
+        }
+        for (Configuration.Connections.Connection fifoConnection : configuration.getConnections().getConnection()) {
+            if (fifoConnection.getSource() == null || fifoConnection.getSourcePort() == null ||
+                    fifoConnection.getTarget() == null || fifoConnection.getTargetPort() == null) {
+                continue;
+            }
+            profiles.put(connectionKey(fifoConnection.getSource(), fifoConnection.getSourcePort(),
+                    fifoConnection.getTarget(), fifoConnection.getTargetPort()), fifoConnection);
+        }
+        return profiles;
+    }
+
+    public static String connectionKey(String sourceActor, String sourcePort, String targetActor, String targetPort) {
+        return sourceActor + "." + sourcePort + "->" + targetActor + "." + targetPort;
+    }
+
 }
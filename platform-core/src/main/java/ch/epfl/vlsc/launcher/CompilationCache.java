@@ -0,0 +1,235 @@
+package ch.epfl.vlsc.launcher;
+
+import ch.epfl.vlsc.platformutils.Manifest;
+import se.lth.cs.tycho.compiler.Compiler;
+import se.lth.cs.tycho.platform.Platform;
+import se.lth.cs.tycho.settings.Configuration;
+import se.lth.cs.tycho.settings.Setting;
+import se.lth.cs.tycho.settings.SettingsManager;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Remembers the last successful compilation in the target directory, with a hash of the sources, the files given
+ * as settings, the arguments of the compiler and the compiler itself, so that compiling again with nothing changed
+ * does not run the phases. The generated files are taken from the manifest of the code generation and must still
+ * be there, a compilation without a manifest is not remembered.
+ *
+ * The whole compilation is skipped or run, there is no caching per entity. Files read through other means than
+ * the settings, such as files included by the sources, are not seen, so the cache is only used with --cache.
+ */
+class CompilationCache {
+    private static final String FILE_NAME = ".streamblocks-cache";
+
+    private final Path target;
+    private final Path file;
+    private final String key;
+
+    CompilationCache(Platform platform, Configuration config, SettingsManager settings, String version, String... args) {
+        this.target = get(config, Compiler.targetPath).toAbsolutePath().normalize();
+        this.file = target.resolve(FILE_NAME + "-" + platform.name());
+        this.key = key(platform, config, settings, target, version, args);
+    }
+
+    /**
+     * True if the last compilation to the target directory succeeded with the same key, and the files it generated
+     * are still there with the same size
+     */
+    boolean upToDate() {
+        if (key.isEmpty() || !Files.isRegularFile(file)) {
+            return false;
+        }
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals(key)) {
+                return false;
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                int space = line.indexOf(' ');
+                Path generated = target.resolve(line.substring(space + 1)).normalize();
+                if (space < 0 || !Files.isRegularFile(generated) || Files.size(generated) != Long.parseLong(line.substring(0, space))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes the key before compiling, so that a failed or interrupted compilation is not up to date
+     */
+    void invalidate() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // -- the compilation will not be seen as up to date anyway, the key changed
+        }
+    }
+
+    /**
+     * Stores the key with the generated files listed in the manifest of the target directory, and their size
+     */
+    void store() {
+        Path manifest = target.resolve(Manifest.FILE_NAME);
+        if (key.isEmpty() || !Files.isRegularFile(manifest)) {
+            return;
+        }
+        try {
+            List<String> lines = new ArrayList<>();
+            lines.add(key);
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    lines.add(Files.size(target.resolve(line)) + " " + line);
+                }
+            }
+            Files.write(file, lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // -- the next compilation will not be cached
+            invalidate();
+        }
+    }
+
+    private static String key(Platform platform, Configuration config, SettingsManager settings, Path target, String version, String... args) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, version);
+            update(digest, platform.name());
+            for (String arg : args) {
+                update(digest, arg);
+            }
+
+            // -- The compiler and the platform
+            for (Class<?> c : new Class<?>[]{CompilationCache.class, Compiler.class, platform.getClass()}) {
+                for (Path file : files(codeSource(c), target)) {
+                    update(digest, file.toString());
+                    update(digest, Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis());
+                }
+            }
+
+            // -- The sources
+            List<Setting<?>> sources = Stream.<Setting<?>>of(
+                    Compiler.sourcePaths,
+                    Compiler.orccSourcePaths,
+                    Compiler.xdfSourcePaths,
+                    Compiler.xcfPath).collect(Collectors.toList());
+            for (Setting<?> setting : sources) {
+                update(digest, config, setting, target);
+            }
+
+            // -- The files of the other settings, such as a profile to import
+            List<Setting<?>> others = settings.getAllSettings().stream()
+                    .filter(setting -> !sources.contains(setting) && setting != Compiler.targetPath && config.isDefined(setting))
+                    .sorted(Comparator.comparing(Setting::getKey))
+                    .collect(Collectors.toList());
+            for (Setting<?> setting : others) {
+                update(digest, config, setting, target);
+            }
+
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            // -- a key that matches no stored key
+            return "";
+        }
+    }
+
+    /**
+     * Hashes the content of the files under the paths of a setting
+     */
+    private static void update(MessageDigest digest, Configuration config, Setting<?> setting, Path target) throws IOException {
+        List<Path> paths = paths(get(config, setting));
+        if (paths.isEmpty()) {
+            return;
+        }
+        update(digest, setting.getKey());
+        for (Path path : paths) {
+            for (Path file : files(path.toAbsolutePath().normalize(), target)) {
+                update(digest, file.toString());
+                digest.update(Files.readAllBytes(file));
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static <T> T get(Configuration config, Setting<T> setting) {
+        return config.isDefined(setting) ? config.get(setting) : setting.defaultValue(config);
+    }
+
+    /**
+     * The paths of a setting value, that can be a path, a string naming an existing file or directory, such as the
+     * profile to import, or a collection of them
+     */
+    private static List<Path> paths(Object value) {
+        List<Path> paths = new ArrayList<>();
+        if (value instanceof Path) {
+            paths.add((Path) value);
+        } else if (value instanceof String && !((String) value).isEmpty()) {
+            try {
+                Path path = Paths.get((String) value);
+                if (Files.exists(path)) {
+                    paths.add(path);
+                }
+            } catch (InvalidPathException e) {
+                // -- not a file name
+            }
+        } else if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                paths.addAll(paths(element));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * The regular files under a path, in a stable order, leaving out the target directory
+     */
+    private static List<Path> files(Path path, Path target) throws IOException {
+        if (path == null || !Files.exists(path) || path.startsWith(target)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(file -> !file.startsWith(target))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static Path codeSource(Class<?> c) {
+        CodeSource source = c.getProtectionDomain().getCodeSource();
+        if (source == null) {
+            return null;
+        }
+        try {
+            URL location = source.getLocation();
+            return Paths.get(location.toURI()).toAbsolutePath().normalize();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
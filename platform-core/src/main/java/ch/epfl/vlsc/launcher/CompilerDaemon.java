@@ -0,0 +1,157 @@
+package ch.epfl.vlsc.launcher;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the compiler of a launcher for every line read from an input, in the same JVM, so that repeated compilations
+ * do not pay for starting the JVM and loading the compiler again.
+ *
+ * A line holds the arguments of one compilation separated by spaces, with double quotes around arguments containing
+ * spaces, a backslash before a double quote or a backslash for the character itself, and relative paths are relative
+ * to the working directory of the daemon. Each compilation is answered by
+ * one line with a JSON object holding its exit status, its duration in milliseconds and the lines it printed on the
+ * standard output and error. Compilations run one at a time, the daemon stops at the end of its input.
+ */
+class CompilerDaemon {
+    private final SBLauncher launcher;
+
+    CompilerDaemon(SBLauncher launcher) {
+        this.launcher = launcher;
+    }
+
+    void serve(InputStream input, PrintStream output) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        int id = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                output.println(compile(id++, arguments(line)));
+                output.flush();
+            }
+        } catch (IOException e) {
+            output.println("{\"error\": " + string(String.valueOf(e.getMessage())) + "}");
+        }
+    }
+
+    private String compile(int id, String[] args) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream capturedOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream capturedErr = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        int status;
+        try {
+            System.setOut(new PrintStream(capturedOut, true, "UTF-8"));
+            System.setErr(new PrintStream(capturedErr, true, "UTF-8"));
+            status = launcher.execute(args);
+        } catch (Throwable e) {
+            // -- A failed compilation, such as a stack overflow of a phase, does not stop the daemon
+            e.printStackTrace();
+            status = 1;
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(out);
+            System.setErr(err);
+        }
+        long milliseconds = (System.nanoTime() - start) / 1000000;
+
+        return "{\"id\": " + id +
+                ", \"status\": " + status +
+                ", \"milliseconds\": " + milliseconds +
+                ", \"out\": " + lines(capturedOut) +
+                ", \"err\": " + lines(capturedErr) + "}";
+    }
+
+    /**
+     * Splits a line into arguments at spaces outside of double quotes. A backslash followed by a double quote or a
+     * backslash stands for that character, any other backslash is kept, as in a Windows path.
+     */
+    static String[] arguments(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean quoted = false;
+        boolean started = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length() && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+                arg.append(line.charAt(++i));
+                started = true;
+            } else if (c == '"') {
+                quoted = !quoted;
+                started = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (started) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    started = false;
+                }
+            } else {
+                arg.append(c);
+                started = true;
+            }
+        }
+        if (started) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+
+    private static String lines(ByteArrayOutputStream stream) {
+        String text = new String(stream.toByteArray(), StandardCharsets.UTF_8);
+        StringBuilder json = new StringBuilder("[");
+        boolean first = true;
+        for (String line : text.split("\\r?\\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!first) {
+                json.append(", ");
+            }
+            json.append(string(line));
+            first = false;
+        }
+        return json.append("]").toString();
+    }
+
+    private static String string(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append("\"").toString();
+    }
+}
@@ -35,6 +35,23 @@ public class SBLauncher {
     }
 
     public void run(String... args) {
+        if (args.length == 1 && args[0].equals("--daemon")) {
+            new CompilerDaemon(this).serve(System.in, System.out);
+            return;
+        }
+        int status = execute(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs the compiler with the given arguments
+     *
+     * @param args
+     * @return the exit status
+     */
+    int execute(String... args) {
         SettingsManager initialSettings = SettingsManager.initialSettingManager();
         SettingsManager settingsManager = new SettingsManager.Builder()
                 .addAll(initialSettings.getAllSettings())
@@ -42,40 +59,51 @@ public class SBLauncher {
         Configuration.Builder builder = Configuration.builder(settingsManager);
         List<String> promotedSettings = promotedSettings();
         QID qid = null;
+        boolean cache = false;
         int i = 0;
         try {
             while (i < args.length) {
                 switch (args[i]) {
                     case "--help": {
                         printHelp(promotedSettings, settingsManager);
-                        System.exit(0);
+                        return 0;
                     }
                     case "--version": {
                         printVersion();
-                        System.exit(0);
+                        return 0;
                     }
                     case "--print-phases": { // hidden option
                         printPhases(platform);
-                        System.exit(0);
+                        return 0;
                     }
                     case "--platforms": {
                         printPlatforms();
-                        System.exit(0);
+                        return 0;
                     }
                     case "--settings": {
                         printSettings(settingsManager);
-                        System.exit(0);
+                        return 0;
+                    }
+                    case "--cache": {
+                        cache = true;
+                        i += 1;
+                        break;
+                    }
+                    case "--no-cache": {
+                        cache = false;
+                        i += 1;
+                        break;
                     }
                     case "--set": {
                         if (i + 2 >= args.length) {
                             printMissingArguments("--set");
-                            System.exit(1);
+                            return 1;
                         }
                         String keyVal = args[i + 1];
                         int eqIndex = keyVal.indexOf('=');
                         if (eqIndex < 0) {
                             printWrongSettingsFormat(keyVal);
-                            System.exit(1);
+                            return 1;
                         }
                         String key = keyVal.substring(0, eqIndex);
                         String val = keyVal.substring(eqIndex + 1);
@@ -88,43 +116,53 @@ public class SBLauncher {
                             if (promotedSettings.contains(args[i].substring(2))) {
                                 if (i + 2 >= args.length) {
                                     printMissingArguments(args[i]);
-                                    System.exit(1);
+                                    return 1;
                                 }
                                 builder.set(args[i].substring(2), args[i + 1]);
                                 i += 2;
                             } else {
                                 printUnknownArgument(args[i]);
-                                System.exit(1);
+                                return 1;
                             }
                         } else if (i == args.length - 1) {
                             qid = QID.parse(args[i]);
                             i += 1;
                         } else {
                             printUnknownArgument(args[i]);
-                            System.exit(1);
+                            return 1;
                         }
                     }
                 }
             }
         } catch (Configuration.Builder.UnknownKeyException e) {
             System.out.println("Unknown setting \"" + e.getKey() + "\"");
-            System.exit(1);
+            return 1;
         } catch (Configuration.Builder.ReadException e) {
             System.out.println("Could not parse value \"" + e.getValue() + "\" for setting \"" + e.getKey() + "\"");
-            System.exit(1);
+            return 1;
         }
 
         if (qid == null) {
             printMissingEntity();
-            System.exit(1);
+            return 1;
         }
 
 
         Configuration config = builder.build();
+        CompilationCache compilationCache = new CompilationCache(platform, config, settingsManager, toolVersion, args);
+        if (cache && compilationCache.upToDate()) {
+            System.out.println("The target of " + qid + " is up to date.");
+            return 0;
+        }
+        compilationCache.invalidate();
         Compiler compiler = new Compiler(platform, config);
         if (!compiler.compile(qid)) {
-            System.exit(1);
+            return 1;
+        }
+        if (cache) {
+            compilationCache.store();
         }
+        return 0;
     }
 
     private void printPhases(Platform platform) {
@@ -184,6 +222,12 @@ public class SBLauncher {
         System.out.println("\tSets the compiler setting <key> to <value>.");
         System.out.println("--settings");
         System.out.println("\tPrints all available settings and exits.");
+        System.out.println("--daemon");
+        System.out.println("\tReads one compilation per line on the standard input and answers each with a JSON object.");
+        System.out.println("--cache");
+        System.out.println("\tSkips the compilation if the sources, the files named by the options, the options and the compiler did not change since the last compilation.");
+        System.out.println("--no-cache");
+        System.out.println("\tCompiles even if nothing changed since the last compilation, the default.");
         for (String key : promotedSettings) {
             Setting<?> setting = settingsManager.get(key);
             System.out.println("--" + key + " <" + setting.getType() + ">");
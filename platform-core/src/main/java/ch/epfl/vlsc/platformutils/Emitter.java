@@ -4,30 +4,107 @@ import se.lth.cs.tycho.reporting.CompilationException;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 
 public class Emitter {
     private int indentation;
     private PrintWriter writer;
+    private int lines;
+
+    /**
+     * With a manifest, the emitted code is kept in memory and only replaces the file when it differs from its
+     * content, so that the build system only recompiles the files that changed.
+     */
+    private Manifest manifest;
+    private Path file;
+    private StringWriter buffer;
 
     public Emitter() {
     }
 
+    /**
+     * The number of lines emitted in the current file
+     */
+    public int getLineCount() {
+        return lines;
+    }
+
+    public Manifest getManifest() {
+        return manifest;
+    }
+
+    public void setManifest(Manifest manifest) {
+        if (writer != null) throw new IllegalStateException("Must close the current file before changing the manifest.");
+        this.manifest = manifest;
+    }
+
     public void open(Path file) {
         if (writer != null) throw new IllegalStateException("Must close previous file before opening a new.");
-        try {
-            writer = new PrintWriter(Files.newBufferedWriter(file));
-        } catch (IOException e) {
-            throw CompilationException.from(e);
+        if (manifest != null) {
+            this.file = file;
+            buffer = new StringWriter();
+            writer = new PrintWriter(buffer);
+        } else {
+            try {
+                writer = new PrintWriter(Files.newBufferedWriter(file));
+            } catch (IOException e) {
+                throw CompilationException.from(e);
+            }
         }
         indentation = 0;
+        lines = 0;
+    }
+
+    /**
+     * Emits into memory, outside of any file and manifest, until closeBuffer returns the emitted code
+     */
+    public void openBuffer() {
+        if (writer != null) throw new IllegalStateException("Must close previous file before opening a new.");
+        buffer = new StringWriter();
+        writer = new PrintWriter(buffer);
+        indentation = 0;
+        lines = 0;
+    }
+
+    public String closeBuffer() {
+        if (writer == null || file != null || buffer == null) throw new IllegalStateException("No buffer is currently open.");
+        writer.flush();
+        writer.close();
+        writer = null;
+        String code = buffer.toString();
+        buffer = null;
+        return code;
     }
 
     public void close() {
+        if (buffer != null && file == null) throw new IllegalStateException("Must close a buffer with closeBuffer.");
         writer.flush();
         writer.close();
         writer = null;
+        if (buffer != null) {
+            byte[] content = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                boolean changed = !sameContent(file, content);
+                if (changed) {
+                    Files.write(file, content);
+                }
+                manifest.add(file, changed);
+            } catch (IOException e) {
+                throw CompilationException.from(e);
+            } finally {
+                buffer = null;
+                file = null;
+            }
+        }
+    }
+
+    private static boolean sameContent(Path file, byte[] content) throws IOException {
+        return Files.isRegularFile(file) && Files.size(file) == content.length
+                && Arrays.equals(Files.readAllBytes(file), content);
     }
 
     public void increaseIndentation() {
@@ -51,6 +128,7 @@ public class Emitter {
             writer.printf(format, values);
         }
         writer.println();
+        lines++;
     }
 
     public void emitRawLine(CharSequence text) {
@@ -58,6 +136,7 @@ public class Emitter {
             throw new IllegalStateException("No output file is currently open.");
         }
         writer.println(text);
+        lines += text.toString().split("\n", -1).length;
     }
 
     public void emitSharpBlockComment(String text) {
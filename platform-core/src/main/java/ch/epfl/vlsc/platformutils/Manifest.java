@@ -0,0 +1,92 @@
+package ch.epfl.vlsc.platformutils;
+
+import se.lth.cs.tycho.reporting.CompilationException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * The files generated under a target directory by the emitters of one compilation. The list is kept in the target
+ * directory, so that the next compilation removes the files it no longer generates.
+ */
+public class Manifest {
+    public static final String FILE_NAME = ".streamblocks-manifest";
+
+    private final Path root;
+    private final Set<Path> files;
+    private final AtomicInteger written;
+
+    public Manifest(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        this.files = ConcurrentHashMap.newKeySet();
+        this.written = new AtomicInteger();
+    }
+
+    /**
+     * Records a generated file
+     *
+     * @param file
+     * @param changed true if the file was written, false if it already had the generated content
+     */
+    public void add(Path file, boolean changed) {
+        Path path = file.toAbsolutePath().normalize();
+        if (path.startsWith(root)) {
+            files.add(root.relativize(path));
+        }
+        if (changed) {
+            written.incrementAndGet();
+        }
+    }
+
+    /**
+     * Number of generated files
+     */
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Number of generated files whose content changed
+     */
+    public int written() {
+        return written.get();
+    }
+
+    /**
+     * Removes the files of the previous manifest that were not generated again and replaces it by this one
+     *
+     * @return the number of removed files
+     */
+    public int update() {
+        Path manifest = root.resolve(FILE_NAME);
+        int removed = 0;
+        try {
+            if (Files.isRegularFile(manifest)) {
+                for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    Path stale = root.resolve(line).normalize();
+                    if (stale.startsWith(root) && !files.contains(root.relativize(stale)) && Files.deleteIfExists(stale)) {
+                        removed++;
+                    }
+                }
+            }
+            List<String> lines = files.stream()
+                    .map(Path::toString)
+                    .sorted()
+                    .collect(Collectors.toList());
+            Files.write(manifest, lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw CompilationException.from(e);
+        }
+        return removed;
+    }
+}
@@ -3,10 +3,14 @@ package ch.epfl.vlsc.platformutils;
 import se.lth.cs.tycho.compiler.Compiler;
 import se.lth.cs.tycho.compiler.Context;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
@@ -17,6 +21,18 @@ import java.util.Collections;
  * @author Endri Bezati
  */
 public class PathUtils {
+
+    /**
+     * Resource listing the resource files, one path per line relative to the root of the classpath
+     */
+    public static final String RESOURCE_INDEX = "resources.index";
+
+    /**
+     * True when running as a GraalVM native image, without depending on the GraalVM SDK
+     */
+    public static boolean inNativeImage() {
+        return "runtime".equals(System.getProperty("org.graalvm.nativeimage.imagecode"));
+    }
     /**
      * Create a directory (recursively)
      *
@@ -384,5 +400,36 @@ public class PathUtils {
         });
     }
 
-
+    /**
+     * Copy the resources under a path from the resource index, for the runtimes that cannot walk the resources
+     * as a file system, such as native images
+     *
+     * @param c class loading the resources
+     * @param source
+     * @param target
+     * @throws IOException
+     */
+    public static void copyFromIndex(Class<?> c, String source, final Path target) throws IOException {
+        String prefix = source.replaceAll("^/+", "").replaceAll("/*$", "/");
+        InputStream index = c.getResourceAsStream("/" + RESOURCE_INDEX);
+        if (index == null) {
+            throw new IOException("Missing resource " + RESOURCE_INDEX);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(index, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith(prefix)) {
+                    continue;
+                }
+                Path file = target.resolve(line.substring(prefix.length()));
+                Files.createDirectories(file.getParent());
+                try (InputStream resource = c.getResourceAsStream("/" + line)) {
+                    if (resource == null) {
+                        throw new IOException("Missing resource " + line);
+                    }
+                    Files.copy(resource, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
 }
@@ -23,6 +23,128 @@ public class PlatformSettings {
         }
     };
 
+    static public OnOffSetting conditionCaching = new OnOffSetting() {
+        @Override
+        public String getKey() {
+            return "condition-caching";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Caches the result of actor machine guards until a transition changes what they read, off by default.";
+        }
+
+        @Override
+        public Boolean defaultValue(Configuration configuration) {
+            return false;
+        }
+    };
+
+    static public IntegerSetting controllerTableThreshold = new IntegerSetting() {
+        @Override
+        public String getKey() {
+            return "controller-table-threshold";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Actor machine controllers with more states, after merging equivalent states, are emitted as a table " +
+                    "interpreted by a loop instead of one block of code per state, 0 never does.";
+        }
+
+        @Override
+        public Integer defaultValue(Configuration configuration) {
+            return 1024;
+        }
+    };
+
+    static public OnOffSetting algebraicPool = new OnOffSetting() {
+        @Override
+        public String getKey() {
+            return "algebraic-pool";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Allocates the values of algebraic types from per-thread free lists of the runtime, off uses calloc and free.";
+        }
+
+        @Override
+        public Boolean defaultValue(Configuration configuration) {
+            return true;
+        }
+    };
+
+    static public IntegerSetting unboxedTypeSize = new IntegerSetting() {
+        @Override
+        public String getKey() {
+            return "unboxed-type-size";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Product types with scalar fields of at most this many bytes are passed by value instead of " +
+                    "as pointers to heap allocated values, 0 allocates all of them.";
+        }
+
+        @Override
+        public Integer defaultValue(Configuration configuration) {
+            return 32;
+        }
+    };
+
+    static public OnOffSetting shareActorClasses = new OnOffSetting() {
+        @Override
+        public String getKey() {
+            return "share-actor-classes";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Instances whose generated code only differs by their name and parameters share one source file " +
+                    "with the code of their actor class.";
+        }
+
+        @Override
+        public Boolean defaultValue(Configuration configuration) {
+            return false;
+        }
+    };
+
+    static public IntegerSetting codegenThreads = new IntegerSetting() {
+        @Override
+        public String getKey() {
+            return "codegen-threads";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Number of threads generating the code of the instances, the generated code does not depend on it.";
+        }
+
+        @Override
+        public Integer defaultValue(Configuration configuration) {
+            return 1;
+        }
+    };
+
+    static public OnOffSetting incrementalCodegen = new OnOffSetting() {
+        @Override
+        public String getKey() {
+            return "incremental-codegen";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Only rewrites the generated files whose content changed and removes the files that are no longer generated.";
+        }
+
+        @Override
+        public Boolean defaultValue(Configuration configuration) {
+            return true;
+        }
+    };
+
     // -- Node Setting
     static public OnOffSetting runOnNode = new OnOffSetting() {
         @Override
@@ -133,6 +255,41 @@ public class PlatformSettings {
     };
 
 
+    public enum SchedulerKind {
+        RR, WS, DD;
+
+        @Override
+        public String toString() {
+            switch (this) {
+                case RR:
+                    return "round-robin";
+                case WS:
+                    return "work-stealing";
+                case DD:
+                    return "data-driven";
+                default:
+                    return "ERROR";
+            }
+        }
+    };
+
+    static public EnumSetting<SchedulerKind> defaultScheduler = new EnumSetting<SchedulerKind>(SchedulerKind.class) {
+        @Override
+        public String getKey() {
+            return "default-scheduler";
+        }
+
+        @Override
+        public String getDescription() {
+            return "default actor scheduler of the multicore runtime, RR (round-robin), WS (work-stealing) or DD (data-driven), can be overridden with --scheduler at runtime";
+        }
+
+        @Override
+        public SchedulerKind defaultValue(Configuration configuration) {
+            return SchedulerKind.RR;
+        }
+    };
+
     static public OnOffSetting arbitraryPrecisionIntegers = new OnOffSetting() {
         @Override
         public String getKey() {
@@ -218,6 +375,93 @@ public class PlatformSettings {
         }
     };
 
+    static public IntegerSetting threadPartitions = new IntegerSetting() {
+        @Override
+        public String getKey() {
+            return "threads";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Number of thread partitions the network is mapped to, written in the generated configuration.xcf.";
+        }
+
+        @Override
+        public Integer defaultValue(Configuration configuration) {
+            return 1;
+        }
+    };
+
+    static public StringSetting profileImport = new StringSetting() {
+        @Override
+        public String getKey() {
+            return "profile-import";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Configuration generated by a run with --generate and --with-bandwidth, the fifo queues " +
+                    "are sized from the peak occupancy and bandwidth it records.";
+        }
+
+        @Override
+        public String defaultValue(Configuration configuration) {
+            return "";
+        }
+    };
+
+    static public StringSetting hugePages = new StringSetting() {
+        @Override
+        public String getKey() {
+            return "huge-pages";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Allocate the fifo queues of the multicore runtime from an arena of 2M or 1G huge pages, or off, " +
+                    "can be overridden with --huge-pages at runtime";
+        }
+
+        @Override
+        public String defaultValue(Configuration configuration) {
+            return "off";
+        }
+    };
+
+    static public OnOffSetting fusion = new OnOffSetting() {
+        @Override
+        public String getKey() {
+            return "fusion";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Fuses pipelines of actors with static rates into chains that the multicore runtime fires as one actor.";
+        }
+
+        @Override
+        public Boolean defaultValue(Configuration configuration) {
+            return false;
+        }
+    };
+
+    static public OnOffSetting sdfSchedule = new OnOffSetting() {
+        @Override
+        public String getKey() {
+            return "sdf-schedule";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Computes a static schedule and the fifo depths of the connected regions of actors with static rates, implies fusion.";
+        }
+
+        @Override
+        public Boolean defaultValue(Configuration configuration) {
+            return false;
+        }
+    };
+
     static public OnOffSetting enableSystemC =  new OnOffSetting() {
         @Override
         public String getKey() {
@@ -0,0 +1,82 @@
+package ch.epfl.vlsc.sw.backend;
+
+import ch.epfl.vlsc.settings.PlatformSettings;
+import org.multij.Binding;
+import org.multij.BindingKind;
+import org.multij.Module;
+import se.lth.cs.tycho.ir.decl.GlobalEntityDecl;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.network.Instance;
+import se.lth.cs.tycho.reporting.Diagnostic;
+
+import java.util.*;
+
+/**
+ * Shares the generated code of the instances of an actor class.
+ *
+ * Every instance has its own elaborated actor machine, so instances are grouped by the code generated for them
+ * under a common class name: instances of the same actor class with the same connected ports and the same
+ * specialized code share one source file. The state structure, the transitions, the controller and the
+ * constructor are emitted once, followed for every instance by a constructor setting its parameters and its
+ * ART ActorClass, so the network instantiation is unchanged. A class is named after its first instance.
+ */
+@Module
+public interface ActorClasses {
+    @Binding(BindingKind.INJECTED)
+    MulticoreBackend backend();
+
+    /**
+     * The instances of each shared class, by class name, in network order
+     */
+    @Binding(BindingKind.LAZY)
+    default Map<String, List<Instance>> classes() {
+        return new LinkedHashMap<>();
+    }
+
+    /**
+     * Actor modules loaded by a node are compiled one per instance
+     */
+    default boolean enabled() {
+        boolean share = backend().context().getConfiguration().isDefined(PlatformSettings.shareActorClasses) ?
+                backend().context().getConfiguration().get(PlatformSettings.shareActorClasses) :
+                PlatformSettings.shareActorClasses.defaultValue(backend().context().getConfiguration());
+        return share && !backend().context().getConfiguration().get(PlatformSettings.runOnNode);
+    }
+
+    default boolean shareable(Instance instance) {
+        GlobalEntityDecl entityDecl = backend().globalnames().entityDecl(instance.getEntityName(), true);
+        return !entityDecl.getExternal() && entityDecl.getEntity() instanceof ActorMachine;
+    }
+
+    /**
+     * Generates the shared classes of the network
+     */
+    default void generateClasses() {
+        Map<String, String> byCode = new HashMap<>();
+        int instances = 0;
+        for (Instance instance : backend().task().getNetwork().getInstances()) {
+            if (!shareable(instance)) {
+                continue;
+            }
+            String code = backend().instance().sharedCode(instance, "shared");
+            String className = byCode.computeIfAbsent(code, c -> instance.getInstanceName());
+            classes().computeIfAbsent(className, c -> new ArrayList<>()).add(instance);
+            instances++;
+        }
+        for (Map.Entry<String, List<Instance>> entry : classes().entrySet()) {
+            backend().instance().generateSharedClass(entry.getKey(), entry.getValue());
+        }
+        backend().context().getReporter().report(new Diagnostic(Diagnostic.Kind.INFO,
+                String.format("Generated %d actor classes for %d instances.", classes().size(), instances)));
+    }
+
+    /**
+     * True if the code of the instance is generated in a source file of its own or of its class
+     */
+    default boolean hasSource(Instance instance) {
+        if (!shareable(instance)) {
+            return true;
+        }
+        return classes().isEmpty() || classes().containsKey(instance.getInstanceName());
+    }
+}
@@ -1,6 +1,7 @@
 package ch.epfl.vlsc.sw.backend;
 
 import ch.epfl.vlsc.platformutils.Emitter;
+import ch.epfl.vlsc.settings.PlatformSettings;
 import org.multij.Binding;
 import org.multij.BindingKind;
 import org.multij.Module;
@@ -9,9 +10,11 @@ import se.lth.cs.tycho.ir.decl.AlgebraicTypeDecl;
 import se.lth.cs.tycho.type.*;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -161,6 +164,10 @@ public interface Algebraic {
 
     default void declareAlgebraic() {
         backend().emitter().emit("// TYPE DECLARATIONS");
+        Set<String> declared = new HashSet<>();
+        utils().types().filter(utils()::unboxed).forEach(type -> {
+            typedef().unboxed((ProductType) type, declared);
+        });
         utils().types().forEach(type -> {
             prototypes().apply(type);
         });
@@ -188,7 +195,11 @@ public interface Algebraic {
         void apply(AlgebraicType type);
 
         default void apply(ProductType product) {
-            emitter().emit("typedef %s* %s;", utils().internalName(product), utils().name(product));
+            if (utils().unboxed(product)) {
+                emitter().emit("typedef %s %s;", utils().internalName(product), utils().name(product));
+            } else {
+                emitter().emit("typedef %s* %s;", utils().internalName(product), utils().name(product));
+            }
             emitter().emit("");
         }
 
@@ -287,6 +298,9 @@ public interface Algebraic {
         void apply(AlgebraicType type);
 
         default void apply(ProductType product) {
+            if (utils().unboxed(product)) {
+                return;
+            }
             emitter().emit("%s {", utils().internalName(product));
             emitter().increaseIndentation();
             product.getFields().forEach(field -> {
@@ -326,6 +340,35 @@ public interface Algebraic {
             emitter().emit("};");
             emitter().emit("");
         }
+
+        /**
+         * Defines an unboxed product type after the unboxed types of its fields, with the FIFO operations
+         * passing its values by copy
+         */
+        default void unboxed(ProductType product, Set<String> declared) {
+            if (!declared.add(product.getName())) {
+                return;
+            }
+            product.getFields().forEach(field -> {
+                Type type = utils().concrete(field.getType());
+                if (type instanceof ProductType) {
+                    unboxed((ProductType) type, declared);
+                }
+            });
+            emitter().emit("%s {", utils().internalName(product));
+            emitter().increaseIndentation();
+            product.getFields().forEach(field -> {
+                emitter().emit("%s;", backend().declarations().declaration(field.getType(), field.getName()));
+            });
+            emitter().decreaseIndentation();
+            emitter().emit("};");
+            emitter().emit("");
+            emitter().emit("#undef FIFO_NAME");
+            emitter().emit("#define FIFO_TYPE %s", utils().name(product));
+            emitter().emit("#include \"actors-fifo.h\"");
+            emitter().emit("#undef FIFO_TYPE");
+            emitter().emit("");
+        }
     }
 
     @Module
@@ -361,9 +404,13 @@ public interface Algebraic {
             String self = "self";
             emitter().emit("%s init_%s(%s) {", backend().typeseval().type(product), backend().typeseval().type(product), product.getFields().stream().map(field -> backend().declarations().declaration(field.getType(), field.getName())).collect(Collectors.joining(", ")));
             emitter().increaseIndentation();
-            emitter().emit("%s = calloc(1, sizeof(%s));", backend().declarations().declaration(product, self), utils().internalName(product));
-            emitter().emit("if (!%s) return NULL;", self);
-            product.getFields().forEach(field -> backend().statements().copy(field.getType(), String.format("%s->%s", self, field.getName()), field.getType(), field.getName()));
+            if (utils().unboxed(product)) {
+                emitter().emit("%s;", backend().declarations().declaration(product, self));
+            } else {
+                emitter().emit("%s = %s;", backend().declarations().declaration(product, self), utils().allocate(product));
+                emitter().emit("if (!%s) return NULL;", self);
+            }
+            product.getFields().forEach(field -> backend().statements().copy(field.getType(), utils().field(product, self, field.getName()), field.getType(), field.getName()));
             emitter().emit("return %s;", self);
             emitter().decreaseIndentation();
             emitter().emit("}");
@@ -375,7 +422,7 @@ public interface Algebraic {
                 String self = "self";
                 emitter().emit("%s init_%s_%s(%s) {", backend().typeseval().type(sum), backend().typeseval().type(sum), utils().mangle(variant.getName()), variant.getFields().stream().map(field -> backend().declarations().declaration(field.getType(), field.getName())).collect(Collectors.joining(", ")));
                 emitter().increaseIndentation();
-                emitter().emit("%s = calloc(1, sizeof(%s));", backend().declarations().declaration(sum, self), utils().internalName(sum));
+                emitter().emit("%s = %s;", backend().declarations().declaration(sum, self), utils().allocate(sum));
                 emitter().emit("if (!%s) return NULL;", self);
                 emitter().emit("%s->tag = tag_%s_%s;", self, utils().mangle(sum.getName()), utils().mangle(variant.getName()));
                 variant.getFields().forEach(field -> {
@@ -421,12 +468,18 @@ public interface Algebraic {
         default void definition(ProductType product) {
             String self = "self";
             emitter().emit("void free_%s(%s) {", backend().typeseval().type(product), backend().declarations().declaration(product, self));
+            if (utils().unboxed(product)) {
+                // -- Nothing is allocated for the fields of an unboxed value
+                emitter().emit("}");
+                emitter().emit("");
+                return;
+            }
             emitter().increaseIndentation();
             emitter().emit("if (!%s) return;", self);
             product.getFields().forEach(field -> {
                 backend().free().apply(field.getType(), String.format("%s->%s", self, field.getName()));
             });
-            emitter().emit("free(%s);", self);
+            emitter().emit("%s;", utils().release(product, self));
             emitter().decreaseIndentation();
             emitter().emit("}");
             emitter().emit("");
@@ -454,7 +507,7 @@ public interface Algebraic {
             emitter().emit("}");
             emitter().decreaseIndentation();
             emitter().emit("}");
-            emitter().emit("free(%s);", self);
+            emitter().emit("%s;", utils().release(sum, self));
             emitter().decreaseIndentation();
             emitter().emit("}");
             emitter().emit("");
@@ -498,10 +551,10 @@ public interface Algebraic {
             String ptr = "ptr";
             emitter().emit("void write_%s(%s, char *buffer) {", backend().typeseval().type(product), backend().declarations().declaration(product, self));
             emitter().increaseIndentation();
-            emitter().emit("if (!%s || !buffer) return;", self);
+            emitter().emit(utils().unboxed(product) ? "if (!buffer) return;" : "if (!%s || !buffer) return;", self);
             emitter().emit("char *%s = buffer;", ptr);
             product.getFields().forEach(field -> {
-                serialization().write(field.getType(), String.format("%s->%s", self, field.getName()), ptr);
+                serialization().write(field.getType(), utils().field(product, self, field.getName()), ptr);
             });
             emitter().decreaseIndentation();
             emitter().emit("}");
@@ -573,12 +626,18 @@ public interface Algebraic {
             String ptr = "ptr";
             emitter().emit("%s read_%s(char *buffer) {", backend().typeseval().type(product), backend().typeseval().type(product));
             emitter().increaseIndentation();
-            emitter().emit("if (!buffer) return NULL;");
-            emitter().emit("char *%s = buffer;", ptr);
-            emitter().emit("%s = calloc(1, sizeof(%s));", backend().declarations().declaration(product, self), utils().internalName(product));
-            emitter().emit("if (!%s) return NULL;", self);
+            if (utils().unboxed(product)) {
+                emitter().emit("%s = {};", backend().declarations().declaration(product, self));
+                emitter().emit("if (!buffer) return %s;", self);
+                emitter().emit("char *%s = buffer;", ptr);
+            } else {
+                emitter().emit("if (!buffer) return NULL;");
+                emitter().emit("char *%s = buffer;", ptr);
+                emitter().emit("%s = %s;", backend().declarations().declaration(product, self), utils().allocate(product));
+                emitter().emit("if (!%s) return NULL;", self);
+            }
             product.getFields().forEach(field -> {
-                serialization().read(field.getType(), String.format("%s->%s", self, field.getName()), ptr);
+                serialization().read(field.getType(), utils().field(product, self, field.getName()), ptr);
             });
             emitter().emit("return %s;", self);
             emitter().decreaseIndentation();
@@ -593,7 +652,7 @@ public interface Algebraic {
             emitter().increaseIndentation();
             emitter().emit("if (!buffer) return NULL;");
             emitter().emit("char *%s = buffer;", ptr);
-            emitter().emit("%s = calloc(1, sizeof(%s));", backend().declarations().declaration(sum, self), utils().internalName(sum));
+            emitter().emit("%s = %s;", backend().declarations().declaration(sum, self), utils().allocate(sum));
             emitter().emit("if (!%s) return NULL;", self);
             emitter().emit("%s->tag = *(enum %s_tag_t*) %s;", self, utils().mangle(sum.getName()), ptr);
             emitter().emit("%s = (char*)((enum %s_tag_t*) ptr + 1);", ptr, utils().mangle(sum.getName()), ptr);
@@ -654,10 +713,12 @@ public interface Algebraic {
             String size = "size";
             emitter().emit("size_t size_%s(%s) {", backend().typeseval().type(product), backend().declarations().declaration(product, self));
             emitter().increaseIndentation();
-            emitter().emit("if (!%s) return 0;", self);
+            if (!utils().unboxed(product)) {
+                emitter().emit("if (!%s) return 0;", self);
+            }
             emitter().emit("size_t %s = 0;", size);
             product.getFields().forEach(field -> {
-                emitter().emit("%s += %s;", size, sizeof().evaluate(field.getType(), String.format("%s->%s", self, field.getName())));
+                emitter().emit("%s += %s;", size, sizeof().evaluate(field.getType(), utils().field(product, self, field.getName())));
             });
             emitter().emit("return %s;", size);
             emitter().decreaseIndentation();
@@ -728,10 +789,17 @@ public interface Algebraic {
             String to = "to";
             emitter().emit("void copy_%s(%s, %s) {", backend().typeseval().type(product), backend().declarations().declaration(product, "*" + to), backend().declarations().declaration(product, from));
             emitter().increaseIndentation();
+            if (utils().unboxed(product)) {
+                emitter().emit("if (%s) *%s = %s;", to, to, from);
+                emitter().decreaseIndentation();
+                emitter().emit("}");
+                emitter().emit("");
+                return;
+            }
             emitter().emit("if (!%s || !%s) return;", to, from);
             emitter().emit("if (*%s == %s) return;", to, from);
             emitter().emit("if (*%s) { %s(*%s); *%s = NULL; }", to, utils().destructor(product), to, to);
-            emitter().emit("if (!(*%s)) *%s = calloc(1, sizeof(%s));", to, to, utils().internalName(product));
+            emitter().emit("if (!(*%s)) *%s = %s;", to, to, utils().allocate(product));
             emitter().emit("if (!(*%s)) return;", to);
             product.getFields().forEach(field -> {
                 backend().statements().copy(field.getType(), "(*" + to + ")->" + field.getName(), field.getType(), from + "->" + field.getName());
@@ -749,7 +817,7 @@ public interface Algebraic {
             emitter().emit("if (!%s || !%s) return;", to, from);
             emitter().emit("if (*%s == %s) return;", to, from);
             emitter().emit("if (*%s) { %s(*%s); *%s = NULL; }", to, utils().destructor(sum), to, to);
-            emitter().emit("if (!(*%s)) *%s = calloc(1, sizeof(%s));", to, to, utils().internalName(sum));
+            emitter().emit("if (!(*%s)) *%s = %s;", to, to, utils().allocate(sum));
             emitter().emit("if (!(*%s)) return;", to);
             emitter().emit("(*%s)->tag = %s->tag;", to, from);
             emitter().emit("switch (%s->tag) {", from);
@@ -806,10 +874,12 @@ public interface Algebraic {
             String rhs = "rhs";
             emitter().emit("%s compare_%s(%s, %s) {", backend().typeseval().type(BoolType.INSTANCE), backend().typeseval().type(product), backend().declarations().declaration(product, lhs), backend().declarations().declaration(product, rhs));
             emitter().increaseIndentation();
-            emitter().emit("if (!%s || !%s) return false;", lhs, rhs);
-            emitter().emit("if (%s == %s) return true;", lhs, rhs);
+            if (!utils().unboxed(product)) {
+                emitter().emit("if (!%s || !%s) return false;", lhs, rhs);
+                emitter().emit("if (%s == %s) return true;", lhs, rhs);
+            }
             product.getFields().forEach(field -> {
-                emitter().emit("if (!%s) return false;", backend().expressionEval().compare(field.getType(), String.format("%s->%s", lhs, field.getName()), field.getType(), String.format("%s->%s", rhs, field.getName())));
+                emitter().emit("if (!%s) return false;", backend().expressionEval().compare(field.getType(), utils().field(product, lhs, field.getName()), field.getType(), utils().field(product, rhs, field.getName())));
             });
             emitter().emit("return true;");
             emitter().decreaseIndentation();
@@ -890,6 +960,95 @@ public interface Algebraic {
             return String.format("free_%s", name(type));
         }
 
+        /**
+         * Largest size in bytes of the product types passed by value, 0 if all are heap allocated
+         */
+        default int unboxedSize() {
+            return backend().context().getConfiguration().isDefined(PlatformSettings.unboxedTypeSize) ?
+                    backend().context().getConfiguration().get(PlatformSettings.unboxedTypeSize) :
+                    PlatformSettings.unboxedTypeSize.defaultValue(backend().context().getConfiguration());
+        }
+
+        /**
+         * True for a product type passed by value: its fields are scalars or unboxed product types, without
+         * cycles, and it is not larger than the unboxed-type-size setting
+         */
+        default boolean unboxed(Type type) {
+            if (!(concrete(type) instanceof ProductType)) {
+                return false;
+            }
+            int size = fixedSize(concrete(type), new HashSet<>());
+            return size > 0 && size <= unboxedSize();
+        }
+
+        /**
+         * Size in bytes of the fields of a value of fixed size, -1 for other types
+         */
+        default int fixedSize(Type type, Set<String> visiting) {
+            if (type instanceof BoolType || type instanceof CharType) {
+                return 1;
+            } else if (type instanceof RealType) {
+                return ((RealType) type).getSize() / 8;
+            } else if (type instanceof IntType) {
+                int bits = ((IntType) type).getSize().orElse(32);
+                int size = 1;
+                while (size * 8 < bits && size < 8) {
+                    size = size * 2;
+                }
+                return size;
+            } else if (type instanceof ProductType) {
+                ProductType product = (ProductType) type;
+                if (!visiting.add(product.getName())) {
+                    return -1;
+                }
+                int size = 0;
+                for (FieldType field : product.getFields()) {
+                    int fieldSize = fixedSize(concrete(field.getType()), visiting);
+                    if (fieldSize < 0) {
+                        return -1;
+                    }
+                    size += fieldSize;
+                }
+                visiting.remove(product.getName());
+                return size;
+            }
+            return -1;
+        }
+
+        default Type concrete(Type type) {
+            return type instanceof AliasType ? ((AliasType) type).getConcreteType() : type;
+        }
+
+        /**
+         * Access to a field of a product value
+         */
+        default String field(ProductType product, String self, String field) {
+            return String.format(unboxed(product) ? "%s.%s" : "%s->%s", self, field);
+        }
+
+        default boolean pooled() {
+            return backend().context().getConfiguration().isDefined(PlatformSettings.algebraicPool) ?
+                    backend().context().getConfiguration().get(PlatformSettings.algebraicPool) :
+                    PlatformSettings.algebraicPool.defaultValue(backend().context().getConfiguration());
+        }
+
+        /**
+         * Allocates a zeroed value of the type, from the runtime pool unless the algebraic-pool setting is off
+         */
+        default String allocate(AlgebraicType type) {
+            if (pooled()) {
+                return String.format("art_pool_calloc(sizeof(%s))", internalName(type));
+            }
+            return String.format("calloc(1, sizeof(%s))", internalName(type));
+        }
+
+        default String release(AlgebraicType type, String pointer) {
+            if (pooled()) {
+                return String.format("art_pool_free(%s, sizeof(%s))", pointer, internalName(type));
+            }
+            return String.format("free(%s)", pointer);
+        }
+
         default Stream<AlgebraicType> types() {
             return backend().task()
                     .getSourceUnits().stream()
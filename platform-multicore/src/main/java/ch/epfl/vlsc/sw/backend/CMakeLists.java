@@ -145,7 +145,7 @@ public interface CMakeLists {
 
         for (Instance instance : backend().task().getNetwork().getInstances()) {
             GlobalEntityDecl entityDecl = backend().globalnames().entityDecl(instance.getEntityName(), true);
-            if (!entityDecl.getExternal()) {
+            if (!entityDecl.getExternal() && backend().actorClasses().hasSource(instance)) {
                 String filename = instance.getInstanceName() + ".cc";
                 emitter().emit("src/%s", filename);
             }
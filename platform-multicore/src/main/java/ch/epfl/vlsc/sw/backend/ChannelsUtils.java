@@ -1,22 +1,35 @@
 package ch.epfl.vlsc.sw.backend;
 
+import ch.epfl.vlsc.configuration.Configuration;
+import ch.epfl.vlsc.configuration.ConfigurationManager;
+import ch.epfl.vlsc.configuration.Configurations;
 import ch.epfl.vlsc.settings.PlatformSettings;
+import ch.epfl.vlsc.sw.phase.ActorFusionPhase;
+import ch.epfl.vlsc.sw.phase.SdfSchedulePhase;
 import org.multij.Binding;
 import org.multij.BindingKind;
 import org.multij.Module;
 import se.lth.cs.tycho.ir.Port;
 import se.lth.cs.tycho.ir.ToolValueAttribute;
 import se.lth.cs.tycho.ir.entity.Entity;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.entity.am.Transition;
 import se.lth.cs.tycho.reporting.Diagnostic;
 import se.lth.cs.tycho.ir.entity.PortDecl;
 import se.lth.cs.tycho.ir.network.Connection;
+import se.lth.cs.tycho.ir.network.Instance;
 import se.lth.cs.tycho.ir.network.Network;
 import se.lth.cs.tycho.type.AlgebraicType;
 import se.lth.cs.tycho.type.Type;
 
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.stream.Collectors;
 
 @Module
@@ -45,7 +58,7 @@ public interface ChannelsUtils {
 
     default String inputPortTypeSize(Port port) {
         Type type = targetEndType(new Connection.End(Optional.of(backend().instancebox().get().getInstanceName()), port.getName()));
-        if (type instanceof AlgebraicType) {
+        if (type instanceof AlgebraicType && !backend().algebraic().utils().unboxed(type)) {
             return "ref";
         } else {
             return backend().typeseval().type(type);
@@ -55,7 +68,7 @@ public interface ChannelsUtils {
     default String outputPortTypeSize(Port port) {
         Connection.End source = new Connection.End(Optional.of(backend().instancebox().get().getInstanceName()), port.getName());
         Type type = sourceEndType(source);
-        if (type instanceof AlgebraicType) {
+        if (type instanceof AlgebraicType && !backend().algebraic().utils().unboxed(type)) {
             return "ref";
         } else {
             return backend().typeseval().type(type);
@@ -163,11 +176,168 @@ public interface ChannelsUtils {
         }
         if (attribute.isPresent()) {
             return (int) backend().constants().intValue(attribute.get().getValue()).getAsLong();
+        }
+        OptionalInt scheduled = scheduledBufferSize(connection);
+        if (scheduled.isPresent() && fusedConnection(connection)) {
+            return scheduled.getAsInt();
+        }
+        int depth;
+        OptionalInt profiled = profiledBufferSize(connection);
+        if (profiled.isPresent()) {
+            depth = profiled.getAsInt();
         } else if (backend().context().getConfiguration().isDefined(PlatformSettings.defaultBufferDepth)){
-            return backend().context().getConfiguration().get(PlatformSettings.defaultBufferDepth);
+            depth = backend().context().getConfiguration().get(PlatformSettings.defaultBufferDepth);
         } else {
-            return PlatformSettings.defaultBufferDepth.defaultValue(backend().context().getConfiguration());
+            depth = PlatformSettings.defaultBufferDepth.defaultValue(backend().context().getConfiguration());
+        }
+        // -- Other connections of a static schedule hold at least the tokens of one iteration
+        return scheduled.isPresent() ? Math.max(depth, scheduled.getAsInt()) : depth;
+    }
+
+    /**
+     * Smallest fifo depth given to a profiled connection
+     */
+    int PROFILE_MIN_DEPTH = 16;
+
+    @Binding(BindingKind.LAZY)
+    default Map<String, Configuration.Connections.Connection> profiledConnections() {
+        if (!backend().context().getConfiguration().isDefined(PlatformSettings.profileImport)) {
+            return Collections.emptyMap();
+        }
+        String profile = backend().context().getConfiguration().get(PlatformSettings.profileImport);
+        if (profile.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        File file = new File(profile);
+        if (file.isFile() && file.canRead()) {
+            try {
+                ConfigurationManager manager = new ConfigurationManager(file);
+                return Configurations.getConnectionProfiles(manager.getConfiguration());
+            } catch (JAXBException | RuntimeException e) {
+                // -- Malformed profiles are reported below
+            }
+        }
+        backend().context().getReporter().report(new Diagnostic(Diagnostic.Kind.WARNING,
+                String.format("Could not read the profile %s, using the default buffer depth", profile)));
+        return Collections.emptyMap();
+    }
+
+    @Binding(BindingKind.LAZY)
+    default Long profiledMeanBandwidth() {
+        return (long) profiledConnections().values().stream()
+                .filter(c -> c.getBandwidth() != null)
+                .mapToLong(c -> c.getBandwidth().longValue())
+                .average().orElse(0);
+    }
+
+    /**
+     * Sizes a connection from the profile, when it has one. The depth is twice the peak occupancy, rounded up
+     * to a power of two, so cold connections get small fifos. A connection that was full during the profiling
+     * run keeps at least its profiled depth, and gets twice that when it is also hot (above the mean bandwidth),
+     * since the fifo was throttling it. The depth never goes below the largest token rate of the connected ports.
+     */
+    default OptionalInt profiledBufferSize(Connection connection) {
+        if (!connection.getSource().getInstance().isPresent() || !connection.getTarget().getInstance().isPresent()) {
+            return OptionalInt.empty();
+        }
+        Configuration.Connections.Connection profile = profiledConnections().get(Configurations.connectionKey(
+                connection.getSource().getInstance().get(), connection.getSource().getPort(),
+                connection.getTarget().getInstance().get(), connection.getTarget().getPort()));
+        if (profile == null || profile.getPeak() == null) {
+            return OptionalInt.empty();
+        }
+        long peak = profile.getPeak();
+        long size = profile.getSize();
+        long bandwidth = profile.getBandwidth() == null ? 0 : profile.getBandwidth().longValue();
+
+        long depth = Math.max(2 * Math.max(peak, connectionRate(connection)), PROFILE_MIN_DEPTH);
+        if (peak >= size) {
+            depth = Math.max(depth, bandwidth >= profiledMeanBandwidth() ? 2 * size : size);
+        }
+        long rounded = Long.highestOneBit(depth);
+        if (rounded < depth) {
+            rounded = rounded << 1;
         }
+        return OptionalInt.of((int) Math.min(rounded, Integer.MAX_VALUE));
+    }
+
+    /**
+     * The tokens the source of a connection inside a statically scheduled region, see SdfSchedulePhase, produces
+     * in one iteration of the schedule. Inside a fused chain, all of them are consumed before the next iteration
+     * and the connection gets exactly this depth.
+     */
+    default OptionalInt scheduledBufferSize(Connection connection) {
+        Optional<Instance> source = connectedInstance(connection.getSource());
+        Optional<Instance> target = connectedInstance(connection.getTarget());
+        if (!source.isPresent() || !target.isPresent() || SdfSchedulePhase.repetitions(target.get()) == 0) {
+            return OptionalInt.empty();
+        }
+        int repetitions = SdfSchedulePhase.repetitions(source.get());
+        if (repetitions == 0) {
+            return OptionalInt.empty();
+        }
+        Entity entity = backend().globalnames().entityDecl(source.get().getEntityName(), true).getEntity();
+        long produced = ((ActorMachine) entity).getTransitions().stream()
+                .mapToLong(t -> portRate(t.getOutputRates(), connection.getSource().getPort()))
+                .max().orElse(0);
+        if (produced == 0) {
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of((int) Math.min(repetitions * produced, Integer.MAX_VALUE));
+    }
+
+    /**
+     * True for a connection between two instances of the same fused chain, see ActorFusionPhase
+     */
+    default boolean fusedConnection(Connection connection) {
+        Optional<Instance> source = connectedInstance(connection.getSource());
+        Optional<Instance> target = connectedInstance(connection.getTarget());
+        return source.isPresent() && target.isPresent() && ActorFusionPhase.fusion(source.get()) >= 0 &&
+                ActorFusionPhase.fusion(source.get()) == ActorFusionPhase.fusion(target.get());
+    }
+
+    default Optional<Instance> connectedInstance(Connection.End end) {
+        if (!end.getInstance().isPresent()) {
+            return Optional.empty();
+        }
+        return backend().task().getNetwork().getInstances().stream()
+                .filter(i -> i.getInstanceName().equals(end.getInstance().get()))
+                .findAny();
+    }
+
+    /**
+     * Largest number of tokens a transition of the source or of the target consumes or produces at once
+     * on this connection
+     */
+    default long connectionRate(Connection connection) {
+        long rate = 1;
+        Network network = backend().task().getNetwork();
+        for (Instance instance : network.getInstances()) {
+            boolean source = connection.getSource().getInstance().get().equals(instance.getInstanceName());
+            boolean target = connection.getTarget().getInstance().get().equals(instance.getInstanceName());
+            if (!source && !target) {
+                continue;
+            }
+            Entity entity = backend().globalnames().entityDecl(instance.getEntityName(), true).getEntity();
+            if (entity instanceof ActorMachine) {
+                for (Transition transition : ((ActorMachine) entity).getTransitions()) {
+                    if (source) {
+                        rate = Math.max(rate, portRate(transition.getOutputRates(), connection.getSource().getPort()));
+                    }
+                    if (target) {
+                        rate = Math.max(rate, portRate(transition.getInputRates(), connection.getTarget().getPort()));
+                    }
+                }
+            }
+        }
+        return rate;
+    }
+
+    default long portRate(Map<Port, Integer> rates, String port) {
+        return rates.entrySet().stream()
+                .filter(e -> e.getKey().getName().equals(port))
+                .mapToLong(Map.Entry::getValue)
+                .max().orElse(0);
     }
 
 }
@@ -0,0 +1,151 @@
+package ch.epfl.vlsc.sw.backend;
+
+import ch.epfl.vlsc.settings.PlatformSettings;
+import org.multij.Binding;
+import org.multij.BindingKind;
+import org.multij.Module;
+import se.lth.cs.tycho.ir.IRNode;
+import se.lth.cs.tycho.ir.decl.VarDecl;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.entity.am.Condition;
+import se.lth.cs.tycho.ir.entity.am.PredicateCondition;
+import se.lth.cs.tycho.ir.entity.am.Scope;
+import se.lth.cs.tycho.ir.entity.am.Transition;
+import se.lth.cs.tycho.ir.expr.ExprGlobalVariable;
+import se.lth.cs.tycho.ir.expr.ExprInput;
+import se.lth.cs.tycho.ir.expr.ExprLambda;
+import se.lth.cs.tycho.ir.expr.ExprProc;
+import se.lth.cs.tycho.ir.expr.ExprVariable;
+import se.lth.cs.tycho.ir.stmt.StmtCall;
+import se.lth.cs.tycho.ir.stmt.lvalue.LValueVariable;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Caches the result of predicate conditions in the actor instance between controller invocations.
+ *
+ * A predicate condition can be cached when all it reads, following the initializers of the scope variables
+ * and the bodies of the functions it calls, are state variables of persistent scopes, tokens peeked from input
+ * ports, and constants. Its cached result is dropped when a transition writes one of the variables it reads,
+ * or calls a procedure, or consumes from one of these ports. Conditions calling external functions are
+ * always evaluated. Only enabled with the condition-caching setting.
+ */
+@Module
+public interface ConditionCache {
+    @Binding(BindingKind.INJECTED)
+    MulticoreBackend backend();
+
+    /**
+     * State variables and input ports a condition depends on
+     */
+    class Dependencies {
+        final Set<VarDecl> variables = new HashSet<>();
+        final Set<String> ports = new HashSet<>();
+    }
+
+    default boolean enabled() {
+        return backend().context().getConfiguration().isDefined(PlatformSettings.conditionCaching) ?
+                backend().context().getConfiguration().get(PlatformSettings.conditionCaching) :
+                PlatformSettings.conditionCaching.defaultValue(backend().context().getConfiguration());
+    }
+
+    @Binding(BindingKind.LAZY)
+    default Map<ActorMachine, Map<Integer, Dependencies>> cachedConditionsByActorMachine() {
+        return new IdentityHashMap<>();
+    }
+
+    /**
+     * The cached conditions of an actor machine, by index, with their dependencies, computed once per actor machine
+     */
+    default Map<Integer, Dependencies> cachedConditions(ActorMachine am) {
+        return cachedConditionsByActorMachine().computeIfAbsent(am, this::collectCachedConditions);
+    }
+
+    default Map<Integer, Dependencies> collectCachedConditions(ActorMachine am) {
+        Map<Integer, Dependencies> cached = new TreeMap<>();
+        if (!enabled()) {
+            return cached;
+        }
+        for (Condition condition : am.getConditions()) {
+            if (condition instanceof PredicateCondition) {
+                Dependencies dependencies = new Dependencies();
+                if (collect(am, ((PredicateCondition) condition).getExpression(), dependencies, new HashSet<>())) {
+                    cached.put(am.getConditions().indexOf(condition), dependencies);
+                }
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * The cached conditions whose result a transition can change
+     */
+    default List<Integer> invalidatedBy(ActorMachine am, Transition transition, Map<Integer, Dependencies> cached) {
+        boolean calls = transition.getBody().stream().flatMap(IRNode::walk).anyMatch(node -> node instanceof StmtCall);
+        Set<VarDecl> written = transition.getBody().stream()
+                .flatMap(IRNode::walk)
+                .filter(node -> node instanceof LValueVariable)
+                .map(node -> backend().varDecls().declaration((LValueVariable) node))
+                .collect(Collectors.toSet());
+        Set<String> consumed = transition.getInputRates().entrySet().stream()
+                .filter(e -> e.getValue() > 0)
+                .map(e -> e.getKey().getName())
+                .collect(Collectors.toSet());
+
+        List<Integer> invalidated = new ArrayList<>();
+        for (Map.Entry<Integer, Dependencies> entry : cached.entrySet()) {
+            Dependencies dependencies = entry.getValue();
+            if ((calls && !dependencies.variables.isEmpty()) ||
+                    dependencies.variables.stream().anyMatch(written::contains) ||
+                    dependencies.ports.stream().anyMatch(consumed::contains)) {
+                invalidated.add(entry.getKey());
+            }
+        }
+        return invalidated;
+    }
+
+    /**
+     * Collects the dependencies of an expression, false if it can not be cached
+     */
+    default boolean collect(ActorMachine am, IRNode node, Dependencies dependencies, Set<VarDecl> visited) {
+        for (IRNode n : node.walk().collect(Collectors.toList())) {
+            VarDecl decl;
+            if (n instanceof ExprVariable) {
+                decl = backend().varDecls().declaration((ExprVariable) n);
+            } else if (n instanceof ExprGlobalVariable) {
+                decl = backend().varDecls().declaration((ExprGlobalVariable) n);
+            } else {
+                continue;
+            }
+            if (decl == null || !visited.add(decl)) {
+                continue;
+            }
+            if (decl.isExternal() || decl.getValue() instanceof ExprProc) {
+                return false;
+            }
+            Optional<Scope> scope = am.getScopes().stream().filter(s -> s.getDeclarations().contains(decl)).findAny();
+            if (decl.getValue() instanceof ExprLambda) {
+                if (!collect(am, decl.getValue(), dependencies, visited)) {
+                    return false;
+                }
+            } else if (!scope.isPresent()) {
+                // -- Constants, parameters and variables local to the expression
+            } else if (scope.get().isPersistent()) {
+                dependencies.variables.add(decl);
+            } else if (decl.getValue() instanceof ExprInput) {
+                dependencies.variables.add(decl);
+                dependencies.ports.add(((ExprInput) decl.getValue()).getPort().getName());
+            } else if (decl.getValue() != null) {
+                // -- Recomputed when its scope is initialized, unless a transition writes it
+                dependencies.variables.add(decl);
+                if (!collect(am, decl.getValue(), dependencies, visited)) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+}
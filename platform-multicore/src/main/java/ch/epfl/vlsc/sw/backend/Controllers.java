@@ -2,16 +2,20 @@ package ch.epfl.vlsc.sw.backend;
 
 import ch.epfl.vlsc.platformutils.Emitter;
 import ch.epfl.vlsc.settings.PlatformSettings;
+import ch.epfl.vlsc.sw.phase.SdfSchedulePhase;
 import org.multij.Binding;
 import org.multij.BindingKind;
 import org.multij.Module;
 import se.lth.cs.tycho.attribute.Ports;
 import se.lth.cs.tycho.attribute.ScopeLiveness;
+import se.lth.cs.tycho.ir.Port;
 import se.lth.cs.tycho.ir.entity.PortDecl;
 import se.lth.cs.tycho.ir.entity.am.ActorMachine;
 import se.lth.cs.tycho.ir.entity.am.PortCondition;
 import se.lth.cs.tycho.ir.entity.am.PredicateCondition;
+import se.lth.cs.tycho.ir.entity.am.Transition;
 import se.lth.cs.tycho.ir.entity.am.ctrl.*;
+import se.lth.cs.tycho.reporting.Diagnostic;
 import se.lth.cs.tycho.settings.Configuration;
 import se.lth.cs.tycho.settings.OnOffSetting;
 
@@ -31,11 +35,33 @@ public interface Controllers {
     }
 
 
+    default Function<Instruction, BitSet> scopeInitialization(ActorMachine actorMachine) {
+        if (backend().context().getConfiguration().get(PlatformSettings.scopeLivenessAnalysis)) {
+            ScopeLiveness liveness = new ScopeLiveness(backend().scopes(), actorMachine, backend().scopeDependencies());
+            return liveness::init;
+        } else {
+            return instruction -> backend().scopes().init(actorMachine, instruction);
+        }
+    }
+
     default void emitController(String name, ActorMachine actorMachine) {
         List<? extends State> stateList = actorMachine.controller().getStateList();
-        Map<State, Integer> stateMap = stateMap(stateList);
+
+        Function<Instruction, BitSet> initialize = scopeInitialization(actorMachine);
+
+        // -- Only one state of every class of equivalent states is emitted
+        Map<State, State> representative = equivalentStates(stateList, initialize);
+        List<State> states = new ArrayList<>();
+        for (State s : stateList) {
+            if (representative.get(s) == s) {
+                states.add(s);
+            }
+        }
+        Map<State, Integer> stateMap = stateMap(stateList, representative);
         Set<State> waitTargets = collectWaitTargets(stateList);
 
+        boolean table = tableController(states.size());
+
         int sizeIN = 0;
         for (PortDecl inputPort : actorMachine.getInputPorts()) {
             if (backend().channelsutils().isTargetConnected(backend().instancebox().get().getInstanceName(), inputPort.getName())) {
@@ -53,6 +79,18 @@ public interface Controllers {
         emitter().emit("// -- Scheduler Definitions");
         emitter().emit("static const int exitcode_block_Any[3] = {1,0,1};");
         emitter().emitNewLine();
+        State staticFire = staticFireState(actorMachine, initialize);
+        if (staticFire != null) {
+            emitStaticFire(name, actorMachine, staticFire, stateMap, sizeIN, sizeOUT);
+        } else if (staticController(actorMachine)) {
+            emitStaticController(name, actorMachine, states, stateMap, initialize, sizeIN, sizeOUT);
+        }
+        int start = emitter().getLineCount();
+        if (table) {
+            emitTableController(name, actorMachine, states, stateMap, initialize, sizeIN, sizeOUT);
+            reportController(name, stateList.size(), states.size(), table, emitter().getLineCount() - start);
+            return;
+        }
         emitter().emit("ART_ACTION_SCHEDULER(%s_scheduler){", name);
         emitter().increaseIndentation();
 
@@ -64,24 +102,28 @@ public interface Controllers {
         emitter().emit("%s *thisActor = (%1$s*) pBase;", actorInstanceName);
         emitter().emit("ART_ACTION_SCHEDULER_ENTER(%d, %d)", sizeIN, sizeOUT);
 
-        // -- Controller
-        jumpInto(waitTargets.stream().mapToInt(stateMap::get).collect(BitSet::new, BitSet::set, BitSet::or));
+        // -- Controller, resumes after a wait or after the firing budget ran out
+        Set<State> resumeTargets = new HashSet<>(waitTargets);
+        resumeTargets.addAll(collectExecTargets(stateList));
+        jumpInto(resumeTargets.stream().mapToInt(stateMap::get).collect(BitSet::new, BitSet::set, BitSet::or));
 
-        Function<Instruction, BitSet> initialize;
-        if (backend().context().getConfiguration().get(PlatformSettings.scopeLivenessAnalysis)) {
-            ScopeLiveness liveness = new ScopeLiveness(backend().scopes(), actorMachine, backend().scopeDependencies());
-            initialize = liveness::init;
-        } else {
-            initialize = instruction -> backend().scopes().init(actorMachine, instruction);
-        }
+        Set<Integer> cached = backend().conditionCache().cachedConditions(actorMachine).keySet();
 
-        for (State s : stateList) {
+        for (State s : states) {
             emitter().emit("S%d:", stateMap.get(s));
             Instruction instruction = s.getInstructions().get(0);
             initialize.apply(instruction).stream().forEach(scope ->
                     emitter().emit("%s_init_scope_%d(context, thisActor);", name, scope)
             );
-            emitInstruction(actorMachine, name, instruction, s, stateMap);
+            List<PortCondition> batch = instruction instanceof Exec ?
+                    batchConditions(actorMachine, s, (Exec) instruction, initialize) : null;
+            if (batch != null) {
+                emitBatchedExec(actorMachine, name, (Exec) instruction, batch, stateMap);
+            } else if (instruction instanceof Test && cached.contains(((Test) instruction).condition())) {
+                emitCachedTest(actorMachine, name, (Test) instruction, stateMap);
+            } else {
+                emitInstruction(actorMachine, name, instruction, s, stateMap);
+            }
         }
 
         emitter().emit("out:");
@@ -89,21 +131,261 @@ public interface Controllers {
         emitter().emit("return result;");
         emitter().decreaseIndentation();
         emitter().emit("}");
+        reportController(name, stateList.size(), states.size(), table, emitter().getLineCount() - start);
+    }
 
+    /**
+     * True when a controller of this many states is emitted as a table, see emitTableController
+     */
+    default boolean tableController(int states) {
+        int threshold = backend().context().getConfiguration().isDefined(PlatformSettings.controllerTableThreshold) ?
+                backend().context().getConfiguration().get(PlatformSettings.controllerTableThreshold) :
+                PlatformSettings.controllerTableThreshold.defaultValue(backend().context().getConfiguration());
+        return threshold > 0 && states > threshold;
     }
 
-    default Map<State, Integer> stateMap(List<? extends State> stateList) {
+    /**
+     * Reports the states of a controller and the lines of code emitted for it, when states were merged or it was
+     * emitted as a table
+     */
+    default void reportController(String name, int stateCount, int emittedCount, boolean table, int lines) {
+        if (emittedCount < stateCount || table) {
+            backend().context().getReporter().report(new Diagnostic(Diagnostic.Kind.INFO,
+                    String.format("Controller of %s: %d states emitted as %s of %d states, %d lines of code.", name,
+                            stateCount, table ? "a table" : "labelled blocks", emittedCount, lines)));
+        }
+    }
+
+    /**
+     * Emits the controller as a table of states and a loop interpreting it, the size of the code does not grow
+     * with the number of states. Conditions are evaluated on every test and transitions fired one at a time.
+     */
+    default void emitTableController(String name, ActorMachine am, List<State> states, Map<State, Integer> stateMap,
+                                     Function<Instruction, BitSet> initialize, int sizeIN, int sizeOUT) {
+        String actorInstanceName = "ActorInstance_" + name;
+
+        // -- Exit codes of the conditions
+        for (int c = 0; c < am.getConditions().size(); c++) {
+            if (am.getCondition(c) instanceof PortCondition) {
+                PortCondition condition = (PortCondition) am.getCondition(c);
+                PortDecl port = ports().declaration(condition.getPortName());
+                int index = condition.isInputCondition() ? am.getInputPorts().indexOf(port) : am.getOutputPorts().indexOf(port);
+                emitter().emit("static const int %s_exit_code_%d[] = {EXITCODE_BLOCK(1), %d, %d};", name, c, index, condition.N());
+            } else {
+                emitter().emit("static const int %s_exit_code_%d[] = {EXIT_CODE_PREDICATE, EXITCODE_PREDICATE(%2$d)};", name, c);
+            }
+        }
+        emitter().emitNewLine();
+
+        // -- Functions of the conditions, transitions and scopes
+        List<String> conditions = new ArrayList<>();
+        for (int c = 0; c < am.getConditions().size(); c++) {
+            conditions.add(String.format("%s_condition_%d", name, c));
+        }
+        List<String> transitions = new ArrayList<>();
+        for (int t = 0; t < am.getTransitions().size(); t++) {
+            transitions.add(String.format("%s_transition_%d", name, t));
+        }
+        List<String> scopes = new ArrayList<>();
+        List<String> entries = new ArrayList<>();
+        for (State s : states) {
+            Instruction instruction = s.getInstructions().get(0);
+            int first = scopes.size();
+            initialize.apply(instruction).stream().forEach(scope -> scopes.add(String.format("%s_init_scope_%d", name, scope)));
+            int count = scopes.size() - first;
+            if (instruction instanceof Test) {
+                Test test = (Test) instruction;
+                entries.add(String.format("{ART_CONTROLLER_TEST, %d, %d, %d, %d, %d, %s_exit_code_%1$d},", test.condition(),
+                        stateMap.get(test.targetTrue()), stateMap.get(test.targetFalse()), first, count, name));
+            } else if (instruction instanceof Exec) {
+                Exec exec = (Exec) instruction;
+                entries.add(String.format("{ART_CONTROLLER_EXEC, %d, %d, 0, %d, %d, NULL},", exec.transition(),
+                        stateMap.get(exec.target()), first, count));
+            } else {
+                Wait wait = (Wait) instruction;
+                entries.add(String.format("{ART_CONTROLLER_WAIT, 0, %d, %d, %d, %d, NULL},", stateMap.get(wait.target()),
+                        wait.target() == s ? 1 : 0, first, count));
+            }
+        }
+        emitFunctionTable(String.format("static _Bool (*const %s_conditions[])(art_action_context_t *, %s *)", name, actorInstanceName), conditions);
+        emitFunctionTable(String.format("static void (*const %s_transitions[])(art_action_context_t *, %s *)", name, actorInstanceName), transitions);
+        emitFunctionTable(String.format("static void (*const %s_scopes[])(art_action_context_t *, %s *)", name, actorInstanceName), scopes);
+
+        emitter().emit("static const art_controller_state_t %s_controller[] = {", name);
+        emitter().increaseIndentation();
+        entries.forEach(entry -> emitter().emit("%s", entry));
+        emitter().decreaseIndentation();
+        emitter().emit("};");
+        emitter().emitNewLine();
+
+        emitter().emit("ART_ACTION_SCHEDULER(%s_scheduler){", name);
+        emitter().increaseIndentation();
+        emitter().emit("const int *result = EXIT_CODE_YIELD;");
+        emitter().emitNewLine();
+        emitter().emit("%s *thisActor = (%1$s*) pBase;", actorInstanceName);
+        emitter().emit("ART_ACTION_SCHEDULER_ENTER(%d, %d)", sizeIN, sizeOUT);
+        emitter().emit("int pc = thisActor->program_counter;");
+        emitter().emit("while (1) {");
+        emitter().increaseIndentation();
+        emitter().emit("const art_controller_state_t *state = &%s_controller[pc];", name);
+        emitter().emit("int i;");
+        emitter().emit("for (i = 0; i < state->init_count; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("%s_scopes[state->init_first + i](context, thisActor);", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("if (state->kind == ART_CONTROLLER_TEST) {");
+        emitter().increaseIndentation();
+        emitter().emit("if (%s_conditions[state->index](context, thisActor)) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("pc = state->target;");
+        emitter().decreaseIndentation();
+        emitter().emit("} else {");
+        emitter().increaseIndentation();
+        emitter().emit("result = state->exit_code;");
+        emitter().emit("pc = state->target_false;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().decreaseIndentation();
+        emitter().emit("} else if (state->kind == ART_CONTROLLER_EXEC) {");
+        emitter().increaseIndentation();
+        emitter().emit("%s_transitions[state->index](context, thisActor);", name);
+        emitter().emit("pc = state->target;");
+        // -- Return to the runtime once maxloops actions have fired
+        emitter().emit("if (context->fired >= maxloops) {");
+        emitter().increaseIndentation();
+        emitter().emit("thisActor->program_counter = pc;");
+        emitter().emit("result = EXIT_CODE_YIELD;");
+        emitter().emit("break;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().decreaseIndentation();
+        emitter().emit("} else {");
+        emitter().increaseIndentation();
+        emitter().emit("thisActor->program_counter = state->target;");
+        emitter().emit("if (state->target_false) {");
+        emitter().increaseIndentation();
+        emitter().emit("result = EXITCODE_TERMINATE;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("break;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("ART_ACTION_SCHEDULER_EXIT(%d, %d)", sizeIN, sizeOUT);
+        emitter().emit("return result;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+    }
+
+    default void emitFunctionTable(String declaration, List<String> functions) {
+        emitter().emit("%s = {", declaration);
+        emitter().increaseIndentation();
+        if (functions.isEmpty()) {
+            emitter().emit("NULL");
+        } else {
+            functions.forEach(f -> emitter().emit("%s,", f));
+        }
+        emitter().decreaseIndentation();
+        emitter().emit("};");
+        emitter().emitNewLine();
+    }
+
+    /**
+     * Numbers the emitted states in order, every state gets the number of its representative
+     */
+    default Map<State, Integer> stateMap(List<? extends State> stateList, Map<State, State> representative) {
         int i = 0;
         Map<State, Integer> result = new HashMap<>();
         for (State s : stateList) {
-            result.put(s, i++);
+            if (representative.get(s) == s) {
+                result.put(s, i++);
+            }
+        }
+        for (State s : stateList) {
+            result.put(s, result.get(representative.get(s)));
         }
         return result;
     }
 
+    /**
+     * Merges the states that behave the same (bisimulation): states start in the same class when they have the
+     * same instruction and initialize the same scopes, and classes are split until the targets of all states of
+     * a class are in the same classes. A wait on its own state terminates the actor, so it is only equivalent to
+     * such waits. Returns the representative of every state, the first state of its class.
+     */
+    default Map<State, State> equivalentStates(List<? extends State> stateList, Function<Instruction, BitSet> initialize) {
+        int n = stateList.size();
+        Map<State, Integer> index = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            index.put(stateList.get(i), i);
+        }
+        int[] block = new int[n];
+        Map<List<Object>, Integer> keys = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            State s = stateList.get(i);
+            Instruction instruction = s.getInstructions().get(0);
+            List<Object> key = new ArrayList<>();
+            key.add(instruction.getKind());
+            if (instruction instanceof Test) {
+                key.add(((Test) instruction).condition());
+            } else if (instruction instanceof Exec) {
+                key.add(((Exec) instruction).transition());
+            } else if (instruction instanceof Wait) {
+                key.add(((Wait) instruction).target() == s);
+            }
+            key.add(initialize.apply(instruction));
+            block[i] = keys.computeIfAbsent(key, k -> keys.size());
+        }
+
+        int blocks = keys.size();
+        while (true) {
+            Map<List<Integer>, Integer> refined = new HashMap<>();
+            int[] current = block;
+            int[] next = new int[n];
+            for (int i = 0; i < n; i++) {
+                List<Integer> key = new ArrayList<>();
+                key.add(current[i]);
+                stateList.get(i).getInstructions().get(0).forEachTarget(t -> key.add(current[index.get(t)]));
+                next[i] = refined.computeIfAbsent(key, k -> refined.size());
+            }
+            block = next;
+            if (refined.size() == blocks) {
+                break;
+            }
+            blocks = refined.size();
+        }
+
+        Map<Integer, State> first = new HashMap<>();
+        Map<State, State> representative = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            State s = stateList.get(i);
+            first.putIfAbsent(block[i], s);
+            representative.put(s, first.get(block[i]));
+        }
+        return representative;
+    }
+
     void emitInstruction(ActorMachine am, String name, Instruction instruction, State from, Map<State, Integer> stateNumbers);
 
     default void emitInstruction(ActorMachine am, String name, Test test, State from, Map<State, Integer> stateNumbers) {
+        emitTest(am, name, test, String.format("ART_TEST_CONDITION(%s_condition_%d)", name, test.condition()), stateNumbers);
+    }
+
+    /**
+     * Tests a condition through its cached result, evaluated when a transition has dropped it, see ConditionCache
+     */
+    default void emitCachedTest(ActorMachine am, String name, Test test, Map<State, Integer> stateNumbers) {
+        emitter().emit("if (thisActor->condition_cache_%d < 0) {", test.condition());
+        emitter().increaseIndentation();
+        emitter().emit("thisActor->condition_cache_%d = ART_TEST_CONDITION(%s_condition_%1$d);", test.condition(), name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitTest(am, name, test, String.format("thisActor->condition_cache_%d", test.condition()), stateNumbers);
+    }
+
+    default void emitTest(ActorMachine am, String name, Test test, String condition, Map<State, Integer> stateNumbers) {
         String exitCode = "";
         if (am.getCondition(test.condition()) instanceof PortCondition) {
             PortCondition condition = (PortCondition) am.getCondition(test.condition());
@@ -116,7 +398,7 @@ public interface Controllers {
         } else {
             exitCode = String.format("static const int exitCode[] = {EXIT_CODE_PREDICATE, EXITCODE_PREDICATE(%d)};", test.condition());
         }
-        emitter().emit("if (ART_TEST_CONDITION(%s_condition_%d)) {", name, test.condition());
+        emitter().emit("if (%s) {", condition);
         emitter().increaseIndentation();
         emitter().emit("goto S%d;", stateNumbers.get(test.targetTrue()));
         emitter().decreaseIndentation();
@@ -142,6 +424,319 @@ public interface Controllers {
 
     default void emitInstruction(ActorMachine am, String name, Exec exec, State from, Map<State, Integer> stateNumbers) {
         emitter().emit("ART_EXEC_TRANSITION(%s_transition_%d);", name, exec.transition());
+        emitExecExit(exec, stateNumbers);
+    }
+
+    /**
+     * Fires a transition, then fires it again as many times as the port conditions tested on the way back
+     * to it allow, computed once from the available tokens and places.
+     */
+    default void emitBatchedExec(ActorMachine am, String name, Exec exec, List<PortCondition> conditions, Map<State, Integer> stateNumbers) {
+        Transition transition = am.getTransitions().get(exec.transition());
+        String instanceName = backend().instancebox().get().getInstanceName();
+        emitter().emit("ART_EXEC_TRANSITION(%s_transition_%d);", name, exec.transition());
+        emitter().emit("{");
+        emitter().increaseIndentation();
+        emitter().emit("int batch = maxloops - context->fired;");
+        for (PortCondition condition : conditions) {
+            Port port = condition.getPortName();
+            if (condition.isInputCondition()) {
+                emitter().emit("batch = art_batch_limit(batch, pinAvailIn_%s(%s), %d, %d);",
+                        backend().channelsutils().inputPortTypeSize(port), backend().channelsutils().definedInputPort(port),
+                        condition.N(), portRate(transition.getInputRates(), port));
+            } else if (backend().channelsutils().isSourceConnected(instanceName, port.getName())) {
+                emitter().emit("batch = art_batch_limit(batch, pinAvailOut_%s(%s), %d, %d);",
+                        backend().channelsutils().outputPortTypeSize(port), backend().channelsutils().definedOutputPort(port),
+                        condition.N(), portRate(transition.getOutputRates(), port));
+            }
+        }
+        emitter().emit("while (batch-- > 0) {");
+        emitter().increaseIndentation();
+        emitter().emit("ART_EXEC_TRANSITION(%s_transition_%d);", name, exec.transition());
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitExecExit(exec, stateNumbers);
+    }
+
+    /**
+     * The port conditions tested on the way from the target of an exec back to its state, when the transition
+     * can be fired again without running the controller. The way back must only test port conditions, on
+     * their true branch, without initializing scopes, and at least one tested port must be consumed or produced
+     * by the transition so that the batch is bounded by the available tokens or places. Null otherwise.
+     */
+    default List<PortCondition> batchConditions(ActorMachine am, State from, Exec exec, Function<Instruction, BitSet> initialize) {
+        if (!initialize.apply(exec).isEmpty()) {
+            return null;
+        }
+        Transition transition = am.getTransitions().get(exec.transition());
+        String instanceName = backend().instancebox().get().getInstanceName();
+        List<PortCondition> conditions = new ArrayList<>();
+        Set<State> visited = new HashSet<>();
+        boolean bounded = false;
+        State state = exec.target();
+        while (state != from) {
+            Instruction instruction = state.getInstructions().get(0);
+            if (!visited.add(state) || !(instruction instanceof Test) || !initialize.apply(instruction).isEmpty()) {
+                return null;
+            }
+            Test test = (Test) instruction;
+            if (!(am.getCondition(test.condition()) instanceof PortCondition)) {
+                return null;
+            }
+            PortCondition condition = (PortCondition) am.getCondition(test.condition());
+            if (condition.isInputCondition()) {
+                if (!backend().channelsutils().isTargetConnected(instanceName, condition.getPortName().getName())) {
+                    return null;
+                }
+                bounded |= portRate(transition.getInputRates(), condition.getPortName()) > 0;
+            } else if (backend().channelsutils().isSourceConnected(instanceName, condition.getPortName().getName())) {
+                bounded |= portRate(transition.getOutputRates(), condition.getPortName()) > 0;
+            }
+            conditions.add(condition);
+            state = test.targetTrue();
+        }
+        // -- A zero rate does not bound the batch, these conditions keep holding
+        conditions.removeIf(c -> portRate(c.isInputCondition() ? transition.getInputRates() : transition.getOutputRates(), c.getPortName()) == 0);
+        return bounded ? conditions : null;
+    }
+
+    /**
+     * True when the instance gets a static fire function, see staticFireState. The scopes are only analyzed
+     * for statically scheduled instances.
+     */
+    default boolean hasStaticFire(ActorMachine am) {
+        return SdfSchedulePhase.repetitions(backend().instancebox().get()) > 0 &&
+                (staticFireState(am, scopeInitialization(am)) != null || staticController(am));
+    }
+
+    /**
+     * The exec state that the runtime can repeat for the firings of an iteration of a static schedule, see
+     * SdfSchedulePhase: the actor machine has a single transition and the way back to the exec only tests
+     * port conditions, see batchConditions. Null when the instance is not statically scheduled or has no such state.
+     */
+    default State staticFireState(ActorMachine am, Function<Instruction, BitSet> initialize) {
+        if (SdfSchedulePhase.repetitions(backend().instancebox().get()) == 0 || am.getTransitions().size() != 1) {
+            return null;
+        }
+        for (State s : am.controller().getStateList()) {
+            Instruction instruction = s.getInstructions().get(0);
+            if (instruction instanceof Exec && batchConditions(am, s, (Exec) instruction, initialize) != null) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Emits the function firing the transition of a static fire state a number of times, when the controller is
+     * in one of the states of its loop and the ports allow all the firings, checked once. The runtime calls the
+     * scheduler otherwise.
+     */
+    default void emitStaticFire(String name, ActorMachine am, State state, Map<State, Integer> stateMap, int sizeIN, int sizeOUT) {
+        Exec exec = (Exec) state.getInstructions().get(0);
+        Transition transition = am.getTransitions().get(exec.transition());
+        String instanceName = backend().instancebox().get().getInstanceName();
+
+        // -- The states of the loop, and all their conditions, also those that a firing does not change
+        SortedSet<Integer> loop = new TreeSet<>();
+        List<PortCondition> conditions = new ArrayList<>();
+        loop.add(stateMap.get(state));
+        for (State s = exec.target(); s != state; s = ((Test) s.getInstructions().get(0)).targetTrue()) {
+            loop.add(stateMap.get(s));
+            conditions.add((PortCondition) am.getCondition(((Test) s.getInstructions().get(0)).condition()));
+        }
+
+        emitter().emit("ART_STATIC_FIRE(%s_static_fire){", name);
+        emitter().increaseIndentation();
+        emitter().emit("%s *thisActor = (%1$s*) pBase;", "ActorInstance_" + name);
+        emitter().emit("switch (thisActor->program_counter) {");
+        loop.forEach(s -> emitter().emit("case %d:", s));
+        emitter().increaseIndentation();
+        emitter().emit("break;");
+        emitter().decreaseIndentation();
+        emitter().emit("default:");
+        emitter().increaseIndentation();
+        emitter().emit("return 0;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("ART_ACTION_SCHEDULER_ENTER(%d, %d)", sizeIN, sizeOUT);
+        emitter().emit("int batch = firings;");
+        for (PortCondition condition : conditions) {
+            Port port = condition.getPortName();
+            String available;
+            int rate;
+            if (condition.isInputCondition()) {
+                available = String.format("pinAvailIn_%s(%s)", backend().channelsutils().inputPortTypeSize(port),
+                        backend().channelsutils().definedInputPort(port));
+                rate = portRate(transition.getInputRates(), port);
+            } else if (backend().channelsutils().isSourceConnected(instanceName, port.getName())) {
+                available = String.format("pinAvailOut_%s(%s)", backend().channelsutils().outputPortTypeSize(port),
+                        backend().channelsutils().definedOutputPort(port));
+                rate = portRate(transition.getOutputRates(), port);
+            } else {
+                continue;
+            }
+            emitBatchLimit(available, condition.N(), rate);
+        }
+        emitter().emit("if (batch < firings) {");
+        emitter().increaseIndentation();
+        emitter().emit("return 0;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("while (batch-- > 0) {");
+        emitter().increaseIndentation();
+        emitter().emit("ART_EXEC_TRANSITION(%s_transition_%d);", name, exec.transition());
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("thisActor->program_counter = %d;", stateMap.get(exec.target()));
+        emitter().emit("ART_ACTION_SCHEDULER_EXIT(%d, %d)", sizeIN, sizeOUT);
+        emitter().emit("return firings;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emitNewLine();
+    }
+
+    /**
+     * True when a statically scheduled instance without a static fire state gets a static fire function running
+     * its controller, see emitStaticController: all its transitions have the same rates, so that the ports can be
+     * checked once for any sequence of firings, and all its tested input ports are connected. Large controllers,
+     * emitted as tables, are left to the scheduler.
+     */
+    default boolean staticController(ActorMachine am) {
+        if (SdfSchedulePhase.repetitions(backend().instancebox().get()) == 0 || am.getTransitions().isEmpty() ||
+                tableController(am.controller().getStateList().size())) {
+            return false;
+        }
+        Transition first = am.getTransitions().get(0);
+        for (Transition transition : am.getTransitions()) {
+            if (!portRates(transition.getInputRates()).equals(portRates(first.getInputRates())) ||
+                    !portRates(transition.getOutputRates()).equals(portRates(first.getOutputRates()))) {
+                return false;
+            }
+        }
+        String instanceName = backend().instancebox().get().getInstanceName();
+        return am.getConditions().stream()
+                .filter(c -> c instanceof PortCondition && ((PortCondition) c).isInputCondition())
+                .allMatch(c -> backend().channelsutils().isTargetConnected(instanceName, ((PortCondition) c).getPortName().getName()));
+    }
+
+    /**
+     * Emits the function firing a statically scheduled instance a number of times through its controller, once
+     * the ports allow all the firings, checked once for the largest number of tokens or places a condition tests on
+     * every port. The controller only evaluates its predicates, its port conditions hold for all the firings, and
+     * returns the firings when a predicate makes it wait before the end. It returns 0 and the runtime calls the
+     * scheduler when the ports do not allow all the firings.
+     */
+    default void emitStaticController(String name, ActorMachine am, List<State> states, Map<State, Integer> stateMap,
+                                      Function<Instruction, BitSet> initialize, int sizeIN, int sizeOUT) {
+        String instanceName = backend().instancebox().get().getInstanceName();
+        Transition transition = am.getTransitions().get(0);
+
+        // -- Largest number of tokens or places tested on every port
+        Map<Port, Integer> inputs = new LinkedHashMap<>();
+        Map<Port, Integer> outputs = new LinkedHashMap<>();
+        for (int c = 0; c < am.getConditions().size(); c++) {
+            if (am.getCondition(c) instanceof PortCondition) {
+                PortCondition condition = (PortCondition) am.getCondition(c);
+                Map<Port, Integer> tested = condition.isInputCondition() ? inputs : outputs;
+                Port port = tested.keySet().stream()
+                        .filter(p -> p.getName().equals(condition.getPortName().getName()))
+                        .findAny().orElse(condition.getPortName());
+                tested.merge(port, condition.N(), Math::max);
+            }
+        }
+
+        emitter().emit("ART_STATIC_FIRE(%s_static_fire){", name);
+        emitter().increaseIndentation();
+        emitter().emit("const int *result = EXIT_CODE_YIELD;");
+        emitter().emit("const int maxloops = firings;");
+        emitter().emit("%s *thisActor = (%1$s*) pBase;", "ActorInstance_" + name);
+        emitter().emit("ART_ACTION_SCHEDULER_ENTER(%d, %d)", sizeIN, sizeOUT);
+        emitter().emit("int batch = firings;");
+        for (Map.Entry<Port, Integer> entry : inputs.entrySet()) {
+            Port port = entry.getKey();
+            emitBatchLimit(String.format("pinAvailIn_%s(%s)", backend().channelsutils().inputPortTypeSize(port),
+                    backend().channelsutils().definedInputPort(port)), entry.getValue(), portRate(transition.getInputRates(), port));
+        }
+        for (Map.Entry<Port, Integer> entry : outputs.entrySet()) {
+            Port port = entry.getKey();
+            if (backend().channelsutils().isSourceConnected(instanceName, port.getName())) {
+                emitBatchLimit(String.format("pinAvailOut_%s(%s)", backend().channelsutils().outputPortTypeSize(port),
+                        backend().channelsutils().definedOutputPort(port)), entry.getValue(), portRate(transition.getOutputRates(), port));
+            }
+        }
+        emitter().emit("if (batch < firings) {");
+        emitter().increaseIndentation();
+        emitter().emit("return 0;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+
+        Set<State> resumeTargets = new HashSet<>(collectWaitTargets(am.controller().getStateList()));
+        resumeTargets.addAll(collectExecTargets(am.controller().getStateList()));
+        jumpInto(resumeTargets.stream().mapToInt(stateMap::get).collect(BitSet::new, BitSet::set, BitSet::or));
+
+        Set<Integer> cached = backend().conditionCache().cachedConditions(am).keySet();
+        for (State s : states) {
+            emitter().emit("S%d:", stateMap.get(s));
+            Instruction instruction = s.getInstructions().get(0);
+            initialize.apply(instruction).stream().forEach(scope ->
+                    emitter().emit("%s_init_scope_%d(context, thisActor);", name, scope)
+            );
+            if (instruction instanceof Test && am.getCondition(((Test) instruction).condition()) instanceof PortCondition) {
+                emitter().emit("goto S%d;", stateMap.get(((Test) instruction).targetTrue()));
+                emitter().emit("");
+            } else if (instruction instanceof Test && cached.contains(((Test) instruction).condition())) {
+                emitCachedTest(am, name, (Test) instruction, stateMap);
+            } else {
+                emitInstruction(am, name, instruction, s, stateMap);
+            }
+        }
+
+        emitter().emit("out:");
+        emitter().emit("ART_ACTION_SCHEDULER_EXIT(%d, %d)", sizeIN, sizeOUT);
+        emitter().emit("(void) result;");
+        emitter().emit("return context->fired;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emitNewLine();
+    }
+
+    default void emitBatchLimit(String available, int n, int rate) {
+        if (rate > 0) {
+            emitter().emit("batch = art_batch_limit(batch, %s, %d, %d);", available, n, rate);
+        } else {
+            emitter().emit("batch = %s < %d ? 0 : batch;", available, n);
+        }
+    }
+
+    default Map<String, Integer> portRates(Map<Port, Integer> rates) {
+        Map<String, Integer> result = new HashMap<>();
+        rates.forEach((port, rate) -> {
+            if (rate > 0) {
+                result.merge(port.getName(), rate, Integer::sum);
+            }
+        });
+        return result;
+    }
+
+    default int portRate(Map<Port, Integer> rates, Port port) {
+        return rates.entrySet().stream()
+                .filter(e -> e.getKey().getName().equals(port.getName()))
+                .mapToInt(Map.Entry::getValue)
+                .sum();
+    }
+
+    default void emitExecExit(Exec exec, Map<State, Integer> stateNumbers) {
+        // -- Return to the runtime once maxloops actions have fired
+        emitter().emit("if (context->fired >= maxloops) {");
+        emitter().increaseIndentation();
+        emitter().emit("thisActor->program_counter = %d;", stateNumbers.get(exec.target()));
+        emitter().emit("result = EXIT_CODE_YIELD;");
+        emitter().emit("goto out;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
         emitter().emit("goto S%d;", stateNumbers.get(exec.target()));
         emitter().emit("");
     }
@@ -164,5 +759,16 @@ public interface Controllers {
         return targets;
     }
 
+    default Set<State> collectExecTargets(List<? extends State> stateList) {
+        Set<State> targets = new HashSet<>();
+        for (State state : stateList) {
+            Instruction i = state.getInstructions().get(0);
+            if (i.getKind() == InstructionKind.EXEC) {
+                i.forEachTarget(targets::add);
+            }
+        }
+        return targets;
+    }
+
 
 }
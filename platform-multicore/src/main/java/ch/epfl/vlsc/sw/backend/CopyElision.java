@@ -0,0 +1,82 @@
+package ch.epfl.vlsc.sw.backend;
+
+import org.multij.Binding;
+import org.multij.BindingKind;
+import org.multij.Module;
+import se.lth.cs.tycho.ir.IRNode;
+import se.lth.cs.tycho.ir.NamespaceDecl;
+import se.lth.cs.tycho.ir.decl.VarDecl;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.entity.am.Scope;
+import se.lth.cs.tycho.ir.expr.*;
+import se.lth.cs.tycho.ir.stmt.StmtAssignment;
+import se.lth.cs.tycho.ir.stmt.lvalue.LValueVariable;
+import se.lth.cs.tycho.type.ListType;
+import se.lth.cs.tycho.type.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Finds the list assignments whose value can be constructed in the assigned variable instead of in a temporary
+ * copied into it afterwards.
+ *
+ * A list literal or comprehension assigned to a whole list variable of fixed size is built in place when it does
+ * not read the variable, since the elements already written would otherwise be read back. When the variable is a
+ * state or global variable, the value must also not call a function, that could read it.
+ */
+@Module
+public interface CopyElision {
+    @Binding(BindingKind.INJECTED)
+    MulticoreBackend backend();
+
+    default boolean inPlace(StmtAssignment assign) {
+        if (!(assign.getLValue() instanceof LValueVariable)) {
+            return false;
+        }
+        Expression expression = assign.getExpression();
+        if (!(expression instanceof ExprList) && !(expression instanceof ExprComprehension)) {
+            return false;
+        }
+        Type type = backend().types().type(assign.getLValue());
+        if (!(type instanceof ListType) || !((ListType) type).getSize().isPresent()) {
+            return false;
+        }
+        VarDecl decl = backend().varDecls().declaration((LValueVariable) assign.getLValue());
+        IRNode parent = backend().tree().parent(decl);
+        boolean state = (parent instanceof Scope) || (parent instanceof ActorMachine) || (parent instanceof NamespaceDecl);
+        return expression.walk().noneMatch(node -> reads(node, decl) || (state && node instanceof ExprApplication));
+    }
+
+    default boolean reads(IRNode node, VarDecl decl) {
+        if (node instanceof ExprVariable) {
+            return backend().varDecls().declaration((ExprVariable) node) == decl;
+        } else if (node instanceof ExprGlobalVariable) {
+            return backend().varDecls().declaration((ExprGlobalVariable) node) == decl;
+        }
+        return false;
+    }
+
+    /**
+     * The scalar elements of a possibly nested list literal, in memory order, empty if one of them is a list
+     * computed by another expression
+     */
+    default Optional<List<Expression>> elements(ExprList list) {
+        List<Expression> elements = new ArrayList<>();
+        for (Expression element : list.getElements()) {
+            if (element instanceof ExprList) {
+                Optional<List<Expression>> nested = elements((ExprList) element);
+                if (!nested.isPresent()) {
+                    return Optional.empty();
+                }
+                elements.addAll(nested.get());
+            } else if (backend().types().type(element) instanceof ListType) {
+                return Optional.empty();
+            } else {
+                elements.add(element);
+            }
+        }
+        return Optional.of(elements);
+    }
+}
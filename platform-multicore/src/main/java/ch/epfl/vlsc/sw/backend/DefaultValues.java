@@ -43,6 +43,9 @@ public interface DefaultValues {
     }
 
     default String defaultValue(AlgebraicType t) {
+        if (backend().algebraic().utils().unboxed(t)) {
+            return "{}";
+        }
         return "NULL";
     }
     default String defaultValue(AliasType t) {
@@ -69,7 +69,9 @@ public interface ExpressionEvaluator {
         if (parent instanceof StmtCall || parent instanceof ExprApplication) {
             VarDecl decl = backend().varDecls().declaration(variable.getVariable());
             String prefix = "";
-            if (!backend().instancebox().isEmpty()) {
+            if (!backend().classbox().isEmpty()) {
+                prefix = backend().classbox().get() + "_";
+            } else if (!backend().instancebox().isEmpty()) {
                 Instance instance = backend().instancebox().get();
                 prefix = instance.getInstanceName() + "_";
             }
@@ -852,13 +854,13 @@ public interface ExpressionEvaluator {
 
     default String evaluateUnarySize(SetType type, ExprUnaryOp expr) {
         String tmp = variables().generateTemp();
-        emitter().emit("%s = %s->size;", declarations().declaration(types().type(expr), tmp), evaluate(expr.getOperand()));
+        emitter().emit("%s = %s;", declarations().declaration(types().type(expr), tmp), backend().sets().utils().size(evaluate(expr.getOperand())));
         return tmp;
     }
 
     default String evaluateUnarySize(MapType type, ExprUnaryOp expr) {
         String tmp = variables().generateTemp();
-        emitter().emit("%s = %s->size;", declarations().declaration(types().type(expr), tmp), evaluate(expr.getOperand()));
+        emitter().emit("%s = %s;", declarations().declaration(types().type(expr), tmp), backend().sets().utils().size(evaluate(expr.getOperand())));
         return tmp;
     }
 
@@ -949,7 +951,7 @@ public interface ExpressionEvaluator {
         String name;
         if (parent instanceof StmtAssignment) {
             StmtAssignment stmt = (StmtAssignment) parent;
-            if (stmt.getLValue() instanceof LValueVariable) {
+            if (backend().copyElision().inPlace(stmt)) {
                 LValueVariable lvalue = (LValueVariable) stmt.getLValue();
                 name = backend().variables().name(lvalue.getVariable());
             } else {
@@ -984,10 +986,8 @@ public interface ExpressionEvaluator {
     default void evaluateListComprehension(ExprList list, String result, String index) {
         list.getElements().forEach(element -> {
                     if (element instanceof ExprComprehension) {
-                        //emitter().emit("%s[%2$s] = %3$s[%2$s++];", result, index, evaluate(element));
-                        ListType type = (ListType) backend().types().type(element);
-                        String name = evaluate(element);
-                        emitter().emit("memcpy(%s + %s*(%s++), %s, sizeof(%4$s));", result, type.getSize().getAsInt(), index, name);
+                        // -- Nested comprehensions write their elements in place, the index counts scalar elements
+                        evaluateListComprehension(element, result, index);
                     } else {
                         emitter().emit("%s[%s++] = %s;", result, index, evaluate(element));
                     }
@@ -1022,7 +1022,33 @@ public interface ExpressionEvaluator {
     */
 
 
-    void withGenerator(Expression collection, ImmutableList<GeneratorVarDecl> varDecls, Runnable body);
+    default void withGenerator(Expression collection, ImmutableList<GeneratorVarDecl> varDecls, Runnable action) {
+        Type type = types().type(collection);
+        if (!(type instanceof SetType || type instanceof MapType)) {
+            throw new UnsupportedOperationException("Generators over " + type + " not supported.");
+        }
+        withElements(type, evaluate(collection), varDecls, action);
+    }
+
+    /**
+     * Binds the generator variables to the elements of a set, or to the keys of a map, in insertion order, one
+     * nested loop per variable. A NULL set or map is empty.
+     */
+    default void withElements(Type type, String collection, List<GeneratorVarDecl> varDecls, Runnable action) {
+        String elements = type instanceof SetType ? "elements" : "keys";
+        for (VarDecl d : varDecls) {
+            String index = variables().generateTemp();
+            emitter().emit("for (size_t %1$s = 0; %1$s < %2$s; %1$s++) {", index, backend().sets().utils().size(collection));
+            emitter().increaseIndentation();
+            emitter().emit("%s = %s->%s[%s];", declarations().declaration(types().declaredType(d), variables().declarationName(d)),
+                    collection, elements, index);
+        }
+        action.run();
+        for (VarDecl d : varDecls) {
+            emitter().decreaseIndentation();
+            emitter().emit("}");
+        }
+    }
 
     default void withGenerator(ExprBinaryOp binOp, ImmutableList<GeneratorVarDecl> varDecls, Runnable action) {
         if (binOp.getOperations().equals(Collections.singletonList(".."))) {
@@ -1043,11 +1069,35 @@ public interface ExpressionEvaluator {
                 emitter().decreaseIndentation();
                 emitter().emit("}");
             }
+        } else if (types().type(binOp) instanceof SetType || types().type(binOp) instanceof MapType) {
+            withElements(types().type(binOp), evaluate(binOp), varDecls, action);
         } else {
             throw new UnsupportedOperationException(binOp.getOperations().get(0));
         }
     }
 
+    default String evaluate(ExprSet set) {
+        String tmp = variables().generateTemp();
+        SetType type = (SetType) types().type(set);
+        emitter().emit("%s = init_%s();", declarations().declaration(type, tmp), typeseval().type(type));
+        set.getElements().forEach(element -> {
+            emitter().emit("add_%s(%s, %s);", typeseval().type(type), tmp, evaluate(element));
+        });
+        return tmp;
+    }
+
+    default String evaluate(ExprMap map) {
+        String tmp = variables().generateTemp();
+        MapType type = (MapType) types().type(map);
+        emitter().emit("%s = init_%s();", declarations().declaration(type, tmp), typeseval().type(type));
+        map.getMappings().forEach(mapping -> {
+            String key = evaluate(mapping.getKey());
+            String value = evaluate(mapping.getValue());
+            emitter().emit("add_%s(%s, %s, %s);", typeseval().type(type), tmp, key, value);
+        });
+        return tmp;
+    }
+
     /**
      * Evaluate list expression
      *
@@ -1096,6 +1146,10 @@ public interface ExpressionEvaluator {
 */
 
     default String evaluate(ExprIndexer indexer) {
+        Type structureType = types().type(indexer.getStructure());
+        if (structureType instanceof MapType) {
+            return String.format("lookup_%s(%s, %s)", typeseval().type(structureType), evaluate(indexer.getStructure()), evaluate(indexer.getIndex()));
+        }
         VarDecl varDecl = evalExprIndexVar(indexer);
 
         Optional<String> str = Optional.empty();
@@ -1323,12 +1377,15 @@ public interface ExpressionEvaluator {
         Type type = types().type(assertion.getType());
         String result = variables().generateTemp();
         String decl = declarations().declaration(type, result);
-        emitter().emit("%s = (%s)(%s);", decl, typeseval().type(type) + (type instanceof AlgebraicType ? "*" : ""), evaluate(assertion.getExpression()));
+        emitter().emit("%s = (%s)(%s);", decl, typeseval().type(type) + (type instanceof AlgebraicType && !backend().algebraic().utils().unboxed(type) ? "*" : ""), evaluate(assertion.getExpression()));
         return result;
 
     }
 
     default String evaluate(ExprField field) {
+        if (backend().algebraic().utils().unboxed(types().type(field.getStructure()))) {
+            return String.format("%s.%s", evaluate(field.getStructure()), field.getField().getName());
+        }
         return String.format("%s->members.%s", evaluate(field.getStructure()), field.getField().getName());
     }
 
@@ -47,6 +47,10 @@ public interface Globals {
         emitter().emit("");
         backend().algebraic().defineAlgebraic();
         emitter().emit("");
+        backend().sets().defineSet();
+        emitter().emit("");
+        backend().maps().defineMap();
+        emitter().emit("");
         backend().tuples().defineTuple();
 
         emitter().emit("// -- Global variables" );
@@ -93,19 +97,19 @@ public interface Globals {
         emitter().emit("// -- Type declarations");
         emitter().emit("");
         backend().algebraic().forwardAlgebraic();
-        //emitter().emit("");
-        //backend().sets().forwardSet();
-        //emitter().emit("");
-        //backend().maps().forwardMap();
+        emitter().emit("");
+        backend().sets().forwardSet();
+        emitter().emit("");
+        backend().maps().forwardMap();
         emitter().emit("");
         backend().strings().declareString();
         emitter().emit("");
         backend().tuples().forwardTuple();
 
-        //emitter().emit("");
-        //backend().sets().declareSet();
-        //emitter().emit("");
-        //backend().maps().declareMap();
+        emitter().emit("");
+        backend().sets().declareSet();
+        emitter().emit("");
+        backend().maps().declareMap();
         emitter().emit("");
         backend().alias().declareAliasTypes();
         emitter().emit("");
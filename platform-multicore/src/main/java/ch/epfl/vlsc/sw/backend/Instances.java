@@ -71,9 +71,77 @@ public interface Instances {
 
 
     default void generateInstance(Instance instance) {
+        // -- Instance Name
+        String instanceName = instance.getInstanceName();
+
+        emitter().open(instanceTarget(instanceName));
+
+        instanceCode(instance, instanceName);
+
+        // -- EOF
+        emitter().close();
+    }
+
+    /**
+     * Generates the code shared by the instances of an actor class, followed by the constructor and the
+     * ART ActorClass of every instance
+     *
+     * @param className
+     * @param members
+     */
+    default void generateSharedClass(String className, List<Instance> members) {
+        emitter().open(instanceTarget(className));
+
+        backend().classbox().set(className);
+        instanceCode(members.get(0), className);
+        for (Instance member : members) {
+            memberDefinition(className, member);
+        }
+        backend().classbox().clear();
+
+        // -- EOF
+        emitter().close();
+    }
+
+    /**
+     * Returns the code an instance shares with the other instances of its actor class, generated as class className
+     *
+     * @param instance
+     * @param className
+     * @return
+     */
+    default String sharedCode(Instance instance, String className) {
+        emitter().openBuffer();
+        backend().classbox().set(className);
+        instanceCode(instance, className);
+        backend().classbox().clear();
+        return emitter().closeBuffer();
+    }
+
+    default Path instanceTarget(String instanceName) {
+        if (backend().context().getConfiguration().get(PlatformSettings.runOnNode)) {
+            return PathUtils.getTargetCodeGenSourceCC(backend().context()).resolve(instanceName + ".cc");
+        } else {
+            return PathUtils.getTargetCodeGenSource(backend().context()).resolve(instanceName + ".cc");
+        }
+    }
+
+    /**
+     * Restarts the numbering of the temporaries and of the callables, so that the code of an instance does not
+     * depend on the instances generated before it by the same backend
+     */
+    default void clearInstanceContext() {
+        backend().variables().temporaries().set(0);
+        backend().callables().callablesNames().clear();
+        backend().callables().externalNames().clear();
+        backend().callables().usedNames().clear();
+        stateVariables().clear();
+    }
+
+    default void instanceCode(Instance instance, String instanceName) {
         // -- Add instance to box
         backend().instancebox().set(instance);
-        stateVariables().clear();
+        clearInstanceContext();
 
         // -- Get Entity
         GlobalEntityDecl entityDecl = globalnames().entityDecl(instance.getEntityName(), true);
@@ -82,19 +150,6 @@ public interface Instances {
         // -- Add entity to box
         backend().entitybox().set(entity);
 
-        // -- Instance Name
-        String instanceName = instance.getInstanceName();
-
-        // -- Target file Path
-        Path instanceTarget;
-        if (backend().context().getConfiguration().get(PlatformSettings.runOnNode)) {
-            instanceTarget = PathUtils.getTargetCodeGenSourceCC(backend().context()).resolve(instanceName + ".cc");
-        } else {
-            instanceTarget = PathUtils.getTargetCodeGenSource(backend().context()).resolve(instanceName + ".cc");
-        }
-
-        emitter().open(instanceTarget);
-
         // -- Includes
         defineIncludes();
 
@@ -144,8 +199,10 @@ public interface Instances {
             conditions(instanceName, (ActorMachine) entity);
         }
 
-        // -- ART ActorClass
-        actorClass(instanceName, entity);
+        // -- ART ActorClass, one per instance after the shared code
+        if (backend().classbox().isEmpty()) {
+            actorClass(instanceName, entity);
+        }
 
         // -- Actions/Transitions
         acttransDefinitions(instanceName, entity);
@@ -159,9 +216,6 @@ public interface Instances {
         // -- Scheduler (aka Actor Machine )
         scheduler(instanceName, entity);
 
-        // -- EOF
-        emitter().close();
-
         // -- Clear boxes
         backend().instancebox().clear();
         backend().entitybox().clear();
@@ -278,6 +332,11 @@ public interface Instances {
 
         emitter().emit("int32_t program_counter;");
 
+        // -- Cached conditions, see ConditionCache
+        for (Integer condition : backend().conditionCache().cachedConditions(am).keySet()) {
+            emitter().emit("int8_t condition_cache_%d;", condition);
+        }
+
         // -- Scopes
         for (Scope scope : am.getScopes()) {
             emitter().emit("// -- Scope %d", am.getScopes().indexOf(scope));
@@ -346,6 +405,9 @@ public interface Instances {
             emitter().emit("ART_ACTION(%s, %s);", transitionName, actorInstanceName);
         }
         emitter().emit("ART_ACTION_SCHEDULER(%s_scheduler);", instanceName);
+        if (backend().controllers().hasStaticFire(am)) {
+            emitter().emit("ART_STATIC_FIRE(%s_static_fire);", instanceName);
+        }
         emitter().emit("static void %s_constructor(AbstractActorInstance *);", actorInstanceName);
         emitter().emit("static void %s_destructor(AbstractActorInstance *);", actorInstanceName);
         emitter().emitNewLine();
@@ -397,7 +459,9 @@ public interface Instances {
 
     default void portDescriptionByPort(String name, Type type) {
         String evaluatedType;
-        if (type instanceof ProductType | type instanceof SumType) {
+        if (backend().algebraic().utils().unboxed(type)) {
+            evaluatedType = backend().typeseval().type(type);
+        } else if (type instanceof ProductType | type instanceof SumType) {
             evaluatedType = "void*";
         } else {
             evaluatedType = backend().typeseval().type(type);
@@ -771,21 +835,33 @@ public interface Instances {
             }
         }
 
+        Instance instance = backend().instancebox().get();
+        boolean shared = !backend().classbox().isEmpty();
+
         emitter().emit("// -- Actor Class");
 
-        emitter().emit("#ifdef CAL_RT_CALVIN");
-        emitter().emit("ActorClass klass");
-        emitter().emit("#else");
-        emitter().emit("ActorClass ActorClass_%s", instanceQID);
-        emitter().emit("#endif");
-        emitter().increaseIndentation();
-        emitter().emit("= INIT_ActorClass(");
+        if (shared) {
+            emitter().emit("ActorClass ActorClass_%s", instance.getInstanceName());
+        } else {
+            emitter().emit("#ifdef CAL_RT_CALVIN");
+            emitter().emit("ActorClass klass");
+            emitter().emit("#else");
+            emitter().emit("ActorClass ActorClass_%s", instanceQID);
+            emitter().emit("#endif");
+        }
         emitter().increaseIndentation();
+        if (backend().controllers().hasStaticFire(am)) {
+            emitter().emit("= INIT_StaticActorClass(");
+            emitter().increaseIndentation();
+            emitter().emit("%s_static_fire,", instanceQID);
+        } else {
+            emitter().emit("= INIT_ActorClass(");
+            emitter().increaseIndentation();
+        }
 
-        Instance instance = backend().instancebox().get();
         emitter().emit("(char*) \"%s\",", instance.getEntityName().toString());
         emitter().emit("ActorInstance_%s,", instanceQID);
-        emitter().emit("ActorInstance_%s_constructor,", instanceQID);
+        emitter().emit("ActorInstance_%s_constructor,", shared ? instance.getInstanceName() : instanceQID);
         emitter().emit("0, // -- setParam not needed anymore (we instantiate with params)");
         emitter().emit("%s_scheduler,", instanceQID);
         emitter().emit("ActorInstance_%s_destructor,", instanceQID);
@@ -810,12 +886,13 @@ public interface Instances {
 
     default void acttransDefinitions(String instanceName, ActorMachine am) {
         emitter().emit("// -- Transitions Definitions");
+        Map<Integer, ConditionCache.Dependencies> cached = backend().conditionCache().cachedConditions(am);
         for (Transition transition : am.getTransitions()) {
             emitter().emit("#ifndef TRACE_TURNUS");
-            acttransDefinition(instanceName, am, transition);
+            acttransDefinition(instanceName, am, transition, cached);
             emitter().emit("#else");
             backend().profilingbox().set(true);
-            acttransDefinition(instanceName, am, transition);
+            acttransDefinition(instanceName, am, transition, cached);
             backend().profilingbox().clear();
             emitter().emit("#endif");
 
@@ -823,7 +900,7 @@ public interface Instances {
         }
     }
 
-    default void acttransDefinition(String instanceName, ActorMachine am, Transition transition) {
+    default void acttransDefinition(String instanceName, ActorMachine am, Transition transition, Map<Integer, ConditionCache.Dependencies> cached) {
         String instanceQID = instanceName;
         Optional<Annotation> annotation = Annotation.getAnnotationWithName("ActionId", transition.getAnnotations());
         String actionTag = "";
@@ -835,6 +912,10 @@ public interface Instances {
         emitter().increaseIndentation();
 
         emitter().emit("ART_ACTION_ENTER(%s_transition_%d, %2$d);", instanceName, am.getTransitions().indexOf(transition));
+        // -- Drop the cached conditions this transition can change
+        for (Integer condition : backend().conditionCache().invalidatedBy(am, transition, cached)) {
+            emitter().emit("thisActor->condition_cache_%d = -1;", condition);
+        }
         //emitter().emit("printf(\"%s\\n\");", actionTag);
         transition.getBody().forEach(statements()::execute);
 
@@ -860,6 +941,9 @@ public interface Instances {
         emitter().emit("%s *thisActor = (%1$s*) pBase;", actorInstanceName);
         emitter().emit("// -- Actor Machine Initial Program Counter");
         emitter().emit("thisActor->program_counter = %d;", 0);
+        for (Integer condition : backend().conditionCache().cachedConditions(am).keySet()) {
+            emitter().emit("thisActor->condition_cache_%d = -1;", condition);
+        }
         emitter().emitNewLine();
 
         emitter().emit("#ifdef CAL_RT_CALVIN");
@@ -916,7 +1000,17 @@ public interface Instances {
             }
         }
 
-        // -- Parameters
+        // -- Parameters, set by the constructor of each instance when the code is shared
+        if (backend().classbox().isEmpty()) {
+            parameters(am);
+        }
+
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emitNewLine();
+    }
+
+    default void parameters(ActorMachine am) {
         Instance instance = backend().instancebox().get();
 
         for (ParameterVarDecl par : am.getValueParameters()) {
@@ -931,10 +1025,35 @@ public interface Instances {
                 throw new RuntimeException(String.format("Could not assign to %s. Candidates: {%s}.", par.getName(), String.join(", ", instance.getValueParameters().map(Parameter::getName))));
             }
         }
+    }
+
+    /*
+     * Instance of a shared actor class
+     */
+
+    default void memberDefinition(String className, Instance member) {
+        backend().instancebox().set(member);
+        ActorMachine am = (ActorMachine) globalnames().entityDecl(member.getEntityName(), true).getEntity();
+        backend().entitybox().set(am);
+
+        emitter().emit("// -- Instance %s", member.getInstanceName());
+
+        String actorInstanceName = "ActorInstance_" + className;
+        emitter().emit("static void ActorInstance_%s_constructor(AbstractActorInstance *pBase){", member.getInstanceName());
+        emitter().increaseIndentation();
+
+        emitter().emit("%s *thisActor = (%1$s*) pBase;", actorInstanceName);
+        emitter().emit("%s_constructor(pBase);", actorInstanceName);
+        parameters(am);
 
         emitter().decreaseIndentation();
         emitter().emit("}");
         emitter().emitNewLine();
+
+        actorClass(className, am);
+
+        backend().instancebox().clear();
+        backend().entitybox().clear();
     }
 
     /*
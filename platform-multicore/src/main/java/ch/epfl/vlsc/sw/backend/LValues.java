@@ -13,6 +13,7 @@ import se.lth.cs.tycho.ir.entity.am.Scope;
 import se.lth.cs.tycho.ir.expr.ExprIndexer;
 import se.lth.cs.tycho.ir.stmt.lvalue.*;
 import se.lth.cs.tycho.type.ListType;
+import se.lth.cs.tycho.type.MapType;
 import se.lth.cs.tycho.type.RefType;
 import se.lth.cs.tycho.type.Type;
 
@@ -69,6 +70,9 @@ public interface LValues {
     }
 
     default String lvalue(LValueField field) {
+        if (backend().algebraic().utils().unboxed(backend().types().type(field.getStructure()))) {
+            return String.format("%s.%s", lvalue(field.getStructure()), field.getField().getName());
+        }
         return String.format("%s->members.%s", lvalue(field.getStructure()), field.getField().getName());
     }
 
@@ -83,6 +87,10 @@ public interface LValues {
 */
 
     default String lvalue(LValueIndexer indexer) {
+        Type structureType = backend().types().type(indexer.getStructure());
+        if (structureType instanceof MapType) {
+            return String.format("(*insert_%s(&(%s), %s))", backend().typeseval().type(structureType), lvalue(indexer.getStructure()), expressioneval().evaluate(indexer.getIndex()));
+        }
         Variable var = evalLValueIndexerVar(indexer);
         return String.format("%s[%s]", variables().name(var), singleDimIndex(indexer));
     }
@@ -157,6 +165,9 @@ public interface LValues {
     }
 
     default boolean subIndexAccess(LValueIndexer indexer){
+        if (backend().types().type(indexer.getStructure()) instanceof MapType) {
+            return false;
+        }
         Variable var = evalLValueIndexerVar(indexer);
         VarDecl varDecl = backend().varDecls().declaration(var);
         Type t = backend().types().declaredType(varDecl);
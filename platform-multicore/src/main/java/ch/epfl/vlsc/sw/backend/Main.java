@@ -4,6 +4,9 @@ import ch.epfl.vlsc.platformutils.Emitter;
 import ch.epfl.vlsc.platformutils.PathUtils;
 import ch.epfl.vlsc.settings.PlatformSettings;
 import ch.epfl.vlsc.sw.ir.PartitionLink;
+import ch.epfl.vlsc.sw.phase.ActorFusionPhase;
+import ch.epfl.vlsc.sw.phase.SdfSchedulePhase;
+import ch.epfl.vlsc.sw.phase.ThreadPartitioningPhase;
 import org.multij.Binding;
 import org.multij.BindingKind;
 import org.multij.Module;
@@ -16,6 +19,7 @@ import se.lth.cs.tycho.ir.expr.ExprVariable;
 import se.lth.cs.tycho.ir.network.Connection;
 import se.lth.cs.tycho.ir.network.Instance;
 import se.lth.cs.tycho.ir.network.Network;
+import se.lth.cs.tycho.reporting.Diagnostic;
 
 import java.nio.file.Path;
 import java.util.*;
@@ -69,6 +73,31 @@ public interface Main {
         emitter().emit("RuntimeOptions *options = (RuntimeOptions *) calloc(1, sizeof(RuntimeOptions));");
         emitter().emit("int numberOfInstances;");
         emitter().emitNewLine();
+        switch (backend().context().getConfiguration().get(PlatformSettings.defaultScheduler)) {
+            case WS:
+                emitter().emit("options->scheduler = ART_SCHEDULER_WORK_STEALING;");
+                break;
+            case DD:
+                emitter().emit("options->scheduler = ART_SCHEDULER_DATA_DRIVEN;");
+                break;
+            default:
+                break;
+        }
+        String hugePages = backend().context().getConfiguration().get(PlatformSettings.hugePages);
+        switch (hugePages) {
+            case "2M":
+                emitter().emit("options->huge_pages = ART_HUGE_PAGES_2M;");
+                break;
+            case "1G":
+                emitter().emit("options->huge_pages = ART_HUGE_PAGES_1G;");
+                break;
+            case "off":
+                break;
+            default:
+                backend().context().getReporter().report(
+                        new Diagnostic(Diagnostic.Kind.WARNING, "Unknown huge-pages value " + hugePages + ", expected 2M, 1G or off"));
+                break;
+        }
         emitter().emit("pre_parse_args(argc, argv, options);");
         emitter().emit("AbstractActorInstance **instances;");
         emitter().emit("initNetwork(&instances, &numberOfInstances, options);");
@@ -156,6 +185,18 @@ public interface Main {
             emitter().emit("%s = createActorInstance(&ActorClass_%s);", joinQID, actorClass);
             emitter().emit("%s->name = (char *) calloc(%d, sizeof(char));", joinQID, joinQID.length() + 1);
             emitter().emit("strcpy(%s->name, \"%1$s\");", joinQID);
+            // -- Default thread partition, the runtime maps it to a processor, --cfile and --affinity override it
+            if (instance.getAttributes().stream().anyMatch(a -> a.getName().equals(ThreadPartitioningPhase.THREAD))) {
+                emitter().emit("setParameter(%s, \"partition\", \"%d\");", joinQID, ThreadPartitioningPhase.thread(instance));
+            }
+            // -- Fused chain, see ActorFusionPhase
+            if (ActorFusionPhase.fusion(instance) >= 0) {
+                emitter().emit("setParameter(%s, \"fusion\", \"%d\");", joinQID, ActorFusionPhase.fusion(instance));
+            }
+            // -- Static schedule of the chain, see SdfSchedulePhase
+            if (SdfSchedulePhase.repetitions(instance) > 0) {
+                emitter().emit("setParameter(%s, \"repetitions\", \"%d\");", joinQID, SdfSchedulePhase.repetitions(instance));
+            }
             // -- Instantiate Parameters
             if (entityDecl.getEntity() instanceof PartitionLink) {
                 emitter().emit("if(options->vcd_trace_level != NULL)");
@@ -0,0 +1,334 @@
+package ch.epfl.vlsc.sw.backend;
+
+import ch.epfl.vlsc.platformutils.Emitter;
+import org.multij.Binding;
+import org.multij.BindingKind;
+import org.multij.Module;
+import se.lth.cs.tycho.type.MapType;
+import se.lth.cs.tycho.type.Type;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Maps of the multicore backend, laid out as the sets of their keys with an array of values in the same order.
+ *
+ * Indexing a map reads the value of a key, or the default value of the value type if it is absent, and assigning
+ * to an indexed map inserts the key if needed. Its domain reuses the hashes of the keys.
+ */
+@Module
+public interface Maps {
+
+    @Binding(BindingKind.INJECTED)
+    MulticoreBackend backend();
+
+    default Sets.Utils utils() {
+        return backend().sets().utils();
+    }
+
+    default Emitter emitter() {
+        return backend().emitter();
+    }
+
+    default String name(MapType type) {
+        return "map_" + utils().mangle(utils().code(type.getKeyType())) + "_" + utils().mangle(utils().code(type.getValueType()));
+    }
+
+    default Stream<MapType> types() {
+        Map<String, MapType> types = new LinkedHashMap<>();
+        backend().task().walk()
+                .flatMap(utils()::type)
+                .flatMap(utils()::components)
+                .filter(MapType.class::isInstance)
+                .map(MapType.class::cast)
+                .filter(type -> utils().supported(type.getKeyType()) && utils().supported(type.getValueType()))
+                .forEach(type -> types.putIfAbsent(name(type), type));
+        return types.values().stream();
+    }
+
+    default void forwardMap() {
+        emitter().emit("// FORWARD MAP DECLARATIONS");
+        types().forEach(type -> {
+            emitter().emit("typedef struct %1$s_s *%1$s;", name(type));
+        });
+    }
+
+    default void declareMap() {
+        emitter().emit("// MAP DECLARATIONS");
+        Set<String> sets = utils().types().map(utils()::name).collect(Collectors.toSet());
+        types().forEach(type -> prototype(type, sets));
+    }
+
+    default void defineMap() {
+        emitter().emit("// MAP DEFINITIONS");
+        Set<String> sets = utils().types().map(utils()::name).collect(Collectors.toSet());
+        types().forEach(type -> definition(type, sets));
+    }
+
+    default void prototype(MapType type, Set<String> sets) {
+        String name = name(type);
+        String key = utils().code(type.getKeyType());
+        String value = utils().code(type.getValueType());
+        emitter().emit("struct %s_s {", name);
+        emitter().increaseIndentation();
+        emitter().emit("size_t size;");
+        emitter().emit("size_t capacity;");
+        emitter().emit("size_t mask;");
+        emitter().emit("%s *keys;", key);
+        emitter().emit("%s *values;", value);
+        emitter().emit("uint32_t *hashes;");
+        emitter().emit("uint32_t *buckets;");
+        emitter().decreaseIndentation();
+        emitter().emit("};");
+        emitter().emit("");
+        emitter().emit("%1$s init_%1$s(void);", name);
+        emitter().emit("void add_%1$s(%1$s self, const %2$s key, const %3$s value);", name, key, value);
+        emitter().emit("%3$s lookup_%1$s(const %1$s self, const %2$s key);", name, key, value);
+        emitter().emit("%3$s *insert_%1$s(%1$s *self, const %2$s key);", name, key, value);
+        emitter().emit("bool membership_%1$s(const %1$s self, const %2$s key);", name, key);
+        if (sets.contains(utils().setOf(type.getKeyType()))) {
+            emitter().emit("%2$s domain_%1$s(const %1$s self);", name, utils().setOf(type.getKeyType()));
+        }
+        if (sets.contains(utils().setOf(type.getValueType()))) {
+            emitter().emit("%2$s range_%1$s(const %1$s self);", name, utils().setOf(type.getValueType()));
+        }
+        emitter().emit("bool compare_%1$s(const %1$s lhs, const %1$s rhs);", name);
+        emitter().emit("void copy_%1$s(%1$s *lhs, const %1$s rhs);", name);
+        emitter().emit("void free_%1$s(%1$s self);", name);
+        emitter().emit("void write_%1$s(const %1$s self, char *buffer);", name);
+        emitter().emit("%1$s read_%1$s(char *buffer);", name);
+        emitter().emit("size_t size_%1$s(const %1$s self);", name);
+        emitter().emit("");
+    }
+
+    default void definition(MapType type, Set<String> sets) {
+        String name = name(type);
+        Type keyType = type.getKeyType();
+        Type valueType = type.getValueType();
+        String key = utils().code(keyType);
+        String value = utils().code(valueType);
+
+        utils().hashDefinition(name, keyType);
+
+        emitter().emit("static size_t find_%1$s(const %1$s self, const %2$s key, uint32_t hash) {", name, key);
+        emitter().increaseIndentation();
+        emitter().emit("if (self == NULL || self->buckets == NULL) return SIZE_MAX;");
+        emitter().emit("for (size_t b = hash & self->mask;; b = (b + 1) & self->mask) {");
+        emitter().increaseIndentation();
+        emitter().emit("uint32_t slot = self->buckets[b];");
+        emitter().emit("if (slot == 0) return SIZE_MAX;");
+        emitter().emit("if (self->hashes[slot - 1] == hash && %s) return slot - 1;", utils().equal(keyType, "self->keys[slot - 1]", "key"));
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("static void grow_%s(%1$s self) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("size_t capacity = self->capacity == 0 ? 8 : 2 * self->capacity;");
+        emitter().emit("self->keys = (%1$s *) realloc(self->keys, capacity * sizeof(%1$s));", key);
+        emitter().emit("memset(self->keys + self->capacity, 0, (capacity - self->capacity) * sizeof(%s));", key);
+        emitter().emit("self->values = (%1$s *) realloc(self->values, capacity * sizeof(%1$s));", value);
+        emitter().emit("memset(self->values + self->capacity, 0, (capacity - self->capacity) * sizeof(%s));", value);
+        utils().rehash("self", "capacity");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("static size_t slot_%1$s(%1$s self, const %2$s key, uint32_t hash) {", name, key);
+        emitter().increaseIndentation();
+        emitter().emit("size_t i = find_%s(self, key, hash);", name);
+        emitter().emit("if (i != SIZE_MAX) return i;");
+        emitter().emit("if (self->size == self->capacity) grow_%s(self);", name);
+        emitter().emit("i = self->size++;");
+        utils().copy(keyType, "self->keys[i]", "key");
+        emitter().emit("self->hashes[i] = hash;");
+        utils().insert("self", "i", "hash");
+        emitter().emit("return i;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("%1$s init_%1$s(void) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("return (%1$s) calloc(1, sizeof(struct %1$s_s));", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("void add_%1$s(%1$s self, const %2$s key, const %3$s value) {", name, key, value);
+        emitter().increaseIndentation();
+        emitter().emit("if (self == NULL) return;");
+        emitter().emit("size_t i = slot_%1$s(self, key, hash_%1$s(key));", name);
+        utils().copy(valueType, "self->values[i]", "value");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("%3$s lookup_%1$s(const %1$s self, const %2$s key) {", name, key, value);
+        emitter().increaseIndentation();
+        emitter().emit("size_t i = find_%1$s(self, key, hash_%1$s(key));", name);
+        emitter().emit("if (i == SIZE_MAX) {");
+        emitter().increaseIndentation();
+        emitter().emit("%s value = {};", value);
+        emitter().emit("return value;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("return self->values[i];");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("%3$s *insert_%1$s(%1$s *self, const %2$s key) {", name, key, value);
+        emitter().increaseIndentation();
+        emitter().emit("if (*self == NULL) *self = init_%s();", name);
+        emitter().emit("size_t i = slot_%1$s(*self, key, hash_%1$s(key));", name);
+        emitter().emit("return &(*self)->values[i];");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("bool membership_%1$s(const %1$s self, const %2$s key) {", name, key);
+        emitter().increaseIndentation();
+        emitter().emit("return find_%1$s(self, key, hash_%1$s(key)) != SIZE_MAX;", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        if (sets.contains(utils().setOf(keyType))) {
+            String set = utils().setOf(keyType);
+            emitter().emit("%2$s domain_%1$s(const %1$s self) {", name, set);
+            emitter().increaseIndentation();
+            emitter().emit("%1$s domain = init_%1$s();", set);
+            emitter().emit("for (size_t i = 0; self != NULL && i < self->size; i++) {");
+            emitter().increaseIndentation();
+            emitter().emit("add_hashed_%s(domain, self->keys[i], self->hashes[i]);", set);
+            emitter().decreaseIndentation();
+            emitter().emit("}");
+            emitter().emit("return domain;");
+            emitter().decreaseIndentation();
+            emitter().emit("}");
+            emitter().emit("");
+        }
+
+        if (sets.contains(utils().setOf(valueType))) {
+            String set = utils().setOf(valueType);
+            emitter().emit("%2$s range_%1$s(const %1$s self) {", name, set);
+            emitter().increaseIndentation();
+            emitter().emit("%1$s range = init_%1$s();", set);
+            emitter().emit("for (size_t i = 0; self != NULL && i < self->size; i++) {");
+            emitter().increaseIndentation();
+            emitter().emit("add_%s(range, self->values[i]);", set);
+            emitter().decreaseIndentation();
+            emitter().emit("}");
+            emitter().emit("return range;");
+            emitter().decreaseIndentation();
+            emitter().emit("}");
+            emitter().emit("");
+        }
+
+        emitter().emit("bool compare_%1$s(const %1$s lhs, const %1$s rhs) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("if (%s != %s) return false;", utils().size("lhs"), utils().size("rhs"));
+        emitter().emit("for (size_t i = 0; lhs != NULL && i < lhs->size; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("size_t j = find_%s(rhs, lhs->keys[i], lhs->hashes[i]);", name);
+        emitter().emit("if (j == SIZE_MAX || !%s) return false;", utils().equal(valueType, "lhs->values[i]", "rhs->values[j]"));
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("return true;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("void copy_%1$s(%1$s *lhs, const %1$s rhs) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("if (lhs == NULL || *lhs == rhs) return;");
+        emitter().emit("%1$s self = rhs == NULL ? NULL : init_%1$s();", name);
+        emitter().emit("for (size_t i = 0; rhs != NULL && i < rhs->size; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("size_t j = slot_%s(self, rhs->keys[i], rhs->hashes[i]);", name);
+        utils().copy(valueType, "self->values[j]", "rhs->values[i]");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("free_%s(*lhs);", name);
+        emitter().emit("*lhs = self;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("void free_%1$s(%1$s self) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("if (self == NULL) return;");
+        if (utils().owned(keyType) || utils().owned(valueType)) {
+            emitter().emit("for (size_t i = 0; i < self->size; i++) {");
+            emitter().increaseIndentation();
+            utils().free(keyType, "self->keys[i]");
+            utils().free(valueType, "self->values[i]");
+            emitter().decreaseIndentation();
+            emitter().emit("}");
+        }
+        emitter().emit("free(self->keys);");
+        emitter().emit("free(self->values);");
+        emitter().emit("free(self->hashes);");
+        emitter().emit("free(self->buckets);");
+        emitter().emit("free(self);");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("void write_%1$s(const %1$s self, char *buffer) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("char *ptr = buffer;");
+        emitter().emit("*(size_t *) ptr = %s;", utils().size("self"));
+        emitter().emit("ptr += sizeof(size_t);");
+        emitter().emit("for (size_t i = 0; self != NULL && i < self->size; i++) {");
+        emitter().increaseIndentation();
+        utils().write(keyType, "self->keys[i]", "ptr");
+        utils().write(valueType, "self->values[i]", "ptr");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("%1$s read_%1$s(char *buffer) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("char *ptr = buffer;");
+        emitter().emit("size_t size = *(size_t *) ptr;");
+        emitter().emit("ptr += sizeof(size_t);");
+        emitter().emit("%1$s self = init_%1$s();", name);
+        emitter().emit("for (size_t i = 0; i < size; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("%s key = {};", key);
+        emitter().emit("%s value = {};", value);
+        utils().read(keyType, "key", "ptr");
+        utils().read(valueType, "value", "ptr");
+        emitter().emit("add_%s(self, key, value);", name);
+        utils().free(keyType, "key");
+        utils().free(valueType, "value");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("return self;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("size_t size_%1$s(const %1$s self) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("size_t size = sizeof(size_t);");
+        emitter().emit("for (size_t i = 0; self != NULL && i < self->size; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("size += %s + %s;", utils().sizeOf(keyType, "self->keys[i]"), utils().sizeOf(valueType, "self->values[i]"));
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("return size;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+    }
+}
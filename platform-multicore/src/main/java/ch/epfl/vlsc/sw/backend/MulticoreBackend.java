@@ -50,6 +50,12 @@ public interface MulticoreBackend {
         return Box.empty();
     }
 
+    // -- Shared Actor Class Box
+    @Binding(LAZY)
+    default Box<String> classbox() {
+        return Box.empty();
+    }
+
     // -- Globals names
     @Binding(LAZY)
     default GlobalNames globalnames() {
@@ -187,6 +193,21 @@ public interface MulticoreBackend {
         return MultiJ.from(Controllers.class).bind("backend").to(this).bind("ports").to(task().getModule(Ports.key)).instance();
     }
 
+    @Binding(LAZY)
+    default ConditionCache conditionCache() {
+        return MultiJ.from(ConditionCache.class).bind("backend").to(this).instance();
+    }
+
+    @Binding(LAZY)
+    default CopyElision copyElision() {
+        return MultiJ.from(CopyElision.class).bind("backend").to(this).instance();
+    }
+
+    @Binding(LAZY)
+    default ActorClasses actorClasses() {
+        return MultiJ.from(ActorClasses.class).bind("backend").to(this).instance();
+    }
+
     @Binding(LAZY)
     default Alias alias() {
         return MultiJ.from(Alias.class).bind("backend").to(this).instance();
@@ -197,6 +218,16 @@ public interface MulticoreBackend {
         return MultiJ.from(Algebraic.class).bind("backend").to(this).instance();
     }
 
+    @Binding(LAZY)
+    default Sets sets() {
+        return MultiJ.from(Sets.class).bind("backend").to(this).instance();
+    }
+
+    @Binding(LAZY)
+    default Maps maps() {
+        return MultiJ.from(Maps.class).bind("backend").to(this).instance();
+    }
+
     @Binding(LAZY)
     default Tuples tuples() {
         return MultiJ.from(Tuples.class).bind("backend").to(this).instance();
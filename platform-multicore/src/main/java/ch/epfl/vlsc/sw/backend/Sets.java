@@ -0,0 +1,548 @@
+package ch.epfl.vlsc.sw.backend;
+
+import ch.epfl.vlsc.platformutils.Emitter;
+import org.multij.Binding;
+import org.multij.BindingKind;
+import org.multij.Module;
+import org.multij.MultiJ;
+import se.lth.cs.tycho.ir.IRNode;
+import se.lth.cs.tycho.ir.decl.VarDecl;
+import se.lth.cs.tycho.ir.expr.Expression;
+import se.lth.cs.tycho.type.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.multij.BindingKind.LAZY;
+
+/**
+ * Sets of the multicore backend, as open addressing hash tables specialized for their element type.
+ *
+ * The elements are kept in insertion order, with their hash, in arrays that are iterated by the bulk operations
+ * and by the serialization, and a table of twice the capacity, a power of two, maps hashes to positions with
+ * linear probing. Sets are never modified once built except by add, a NULL set is empty.
+ */
+@Module
+public interface Sets {
+
+    @Binding(BindingKind.INJECTED)
+    MulticoreBackend backend();
+
+    @Binding(LAZY)
+    default Utils utils() {
+        return MultiJ.from(Utils.class)
+                .bind("backend").to(backend())
+                .instance();
+    }
+
+    default Emitter emitter() {
+        return backend().emitter();
+    }
+
+    default void forwardSet() {
+        emitter().emit("// FORWARD SET DECLARATIONS");
+        utils().types().forEach(type -> {
+            emitter().emit("typedef struct %1$s_s *%1$s;", utils().name(type));
+        });
+    }
+
+    default void declareSet() {
+        emitter().emit("// SET DECLARATIONS");
+        utils().types().forEach(this::prototype);
+    }
+
+    default void defineSet() {
+        emitter().emit("// SET DEFINITIONS");
+        utils().types().forEach(this::definition);
+    }
+
+    default void prototype(SetType type) {
+        String name = utils().name(type);
+        String element = utils().code(type.getElementType());
+        emitter().emit("struct %s_s {", name);
+        emitter().increaseIndentation();
+        emitter().emit("size_t size;");
+        emitter().emit("size_t capacity;");
+        emitter().emit("size_t mask;");
+        emitter().emit("%s *elements;", element);
+        emitter().emit("uint32_t *hashes;");
+        emitter().emit("uint32_t *buckets;");
+        emitter().decreaseIndentation();
+        emitter().emit("};");
+        emitter().emit("");
+        emitter().emit("%1$s init_%1$s(void);", name);
+        emitter().emit("void add_%1$s(%1$s self, const %2$s value);", name, element);
+        emitter().emit("bool membership_%1$s(const %1$s self, const %2$s value);", name, element);
+        emitter().emit("%1$s union_%1$s(const %1$s lhs, const %1$s rhs);", name);
+        emitter().emit("%1$s intersect_%1$s(const %1$s lhs, const %1$s rhs);", name);
+        emitter().emit("%1$s difference_%1$s(const %1$s lhs, const %1$s rhs);", name);
+        emitter().emit("bool compare_%1$s(const %1$s lhs, const %1$s rhs);", name);
+        emitter().emit("bool less_than_%1$s(const %1$s lhs, const %1$s rhs);", name);
+        emitter().emit("bool less_than_equal_%1$s(const %1$s lhs, const %1$s rhs);", name);
+        emitter().emit("bool greater_than_%1$s(const %1$s lhs, const %1$s rhs);", name);
+        emitter().emit("bool greater_than_equal_%1$s(const %1$s lhs, const %1$s rhs);", name);
+        emitter().emit("void copy_%1$s(%1$s *lhs, const %1$s rhs);", name);
+        emitter().emit("void free_%1$s(%1$s self);", name);
+        emitter().emit("void write_%1$s(const %1$s self, char *buffer);", name);
+        emitter().emit("%1$s read_%1$s(char *buffer);", name);
+        emitter().emit("size_t size_%1$s(const %1$s self);", name);
+        emitter().emit("");
+    }
+
+    default void definition(SetType type) {
+        String name = utils().name(type);
+        String element = utils().code(type.getElementType());
+        Type elementType = type.getElementType();
+
+        utils().hashDefinition(name, elementType);
+
+        emitter().emit("static size_t find_%1$s(const %1$s self, const %2$s value, uint32_t hash) {", name, element);
+        emitter().increaseIndentation();
+        emitter().emit("if (self == NULL || self->buckets == NULL) return SIZE_MAX;");
+        emitter().emit("for (size_t b = hash & self->mask;; b = (b + 1) & self->mask) {");
+        emitter().increaseIndentation();
+        emitter().emit("uint32_t slot = self->buckets[b];");
+        emitter().emit("if (slot == 0) return SIZE_MAX;");
+        emitter().emit("if (self->hashes[slot - 1] == hash && %s) return slot - 1;", utils().equal(elementType, "self->elements[slot - 1]", "value"));
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("static void grow_%s(%1$s self) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("size_t capacity = self->capacity == 0 ? 8 : 2 * self->capacity;");
+        emitter().emit("self->elements = (%1$s *) realloc(self->elements, capacity * sizeof(%1$s));", element);
+        emitter().emit("memset(self->elements + self->capacity, 0, (capacity - self->capacity) * sizeof(%s));", element);
+        utils().rehash("self", "capacity");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("static void add_hashed_%1$s(%1$s self, const %2$s value, uint32_t hash) {", name, element);
+        emitter().increaseIndentation();
+        emitter().emit("if (find_%s(self, value, hash) != SIZE_MAX) return;", name);
+        emitter().emit("if (self->size == self->capacity) grow_%s(self);", name);
+        emitter().emit("size_t i = self->size++;");
+        utils().copy(elementType, "self->elements[i]", "value");
+        emitter().emit("self->hashes[i] = hash;");
+        utils().insert("self", "i", "hash");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("static bool subset_%1$s(const %1$s lhs, const %1$s rhs) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("for (size_t i = 0; lhs != NULL && i < lhs->size; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("if (find_%s(rhs, lhs->elements[i], lhs->hashes[i]) == SIZE_MAX) return false;", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("return true;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("%1$s init_%1$s(void) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("return (%1$s) calloc(1, sizeof(struct %1$s_s));", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("void add_%1$s(%1$s self, const %2$s value) {", name, element);
+        emitter().increaseIndentation();
+        emitter().emit("if (self == NULL) return;");
+        emitter().emit("add_hashed_%1$s(self, value, hash_%1$s(value));", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("bool membership_%1$s(const %1$s self, const %2$s value) {", name, element);
+        emitter().increaseIndentation();
+        emitter().emit("return find_%1$s(self, value, hash_%1$s(value)) != SIZE_MAX;", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("%1$s union_%1$s(const %1$s lhs, const %1$s rhs) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("%1$s self = init_%1$s();", name);
+        emitter().emit("for (size_t i = 0; lhs != NULL && i < lhs->size; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("add_hashed_%s(self, lhs->elements[i], lhs->hashes[i]);", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("for (size_t i = 0; rhs != NULL && i < rhs->size; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("add_hashed_%s(self, rhs->elements[i], rhs->hashes[i]);", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("return self;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        filter(name, "intersect", "!=");
+        filter(name, "difference", "==");
+
+        emitter().emit("bool compare_%1$s(const %1$s lhs, const %1$s rhs) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("return %s == %s && subset_%s(lhs, rhs);", utils().size("lhs"), utils().size("rhs"), name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("bool less_than_%1$s(const %1$s lhs, const %1$s rhs) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("return %s < %s && subset_%s(lhs, rhs);", utils().size("lhs"), utils().size("rhs"), name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("bool less_than_equal_%1$s(const %1$s lhs, const %1$s rhs) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("return %s <= %s && subset_%s(lhs, rhs);", utils().size("lhs"), utils().size("rhs"), name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("bool greater_than_%1$s(const %1$s lhs, const %1$s rhs) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("return less_than_%s(rhs, lhs);", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("bool greater_than_equal_%1$s(const %1$s lhs, const %1$s rhs) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("return less_than_equal_%s(rhs, lhs);", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("void copy_%1$s(%1$s *lhs, const %1$s rhs) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("if (lhs == NULL || *lhs == rhs) return;");
+        emitter().emit("%1$s self = rhs == NULL ? NULL : union_%1$s(rhs, NULL);", name);
+        emitter().emit("free_%s(*lhs);", name);
+        emitter().emit("*lhs = self;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("void free_%1$s(%1$s self) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("if (self == NULL) return;");
+        if (utils().owned(elementType)) {
+            emitter().emit("for (size_t i = 0; i < self->size; i++) {");
+            emitter().increaseIndentation();
+            utils().free(elementType, "self->elements[i]");
+            emitter().decreaseIndentation();
+            emitter().emit("}");
+        }
+        emitter().emit("free(self->elements);");
+        emitter().emit("free(self->hashes);");
+        emitter().emit("free(self->buckets);");
+        emitter().emit("free(self);");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("void write_%1$s(const %1$s self, char *buffer) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("char *ptr = buffer;");
+        emitter().emit("*(size_t *) ptr = %s;", utils().size("self"));
+        emitter().emit("ptr += sizeof(size_t);");
+        emitter().emit("for (size_t i = 0; self != NULL && i < self->size; i++) {");
+        emitter().increaseIndentation();
+        utils().write(elementType, "self->elements[i]", "ptr");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("%1$s read_%1$s(char *buffer) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("char *ptr = buffer;");
+        emitter().emit("size_t size = *(size_t *) ptr;");
+        emitter().emit("ptr += sizeof(size_t);");
+        emitter().emit("%1$s self = init_%1$s();", name);
+        emitter().emit("for (size_t i = 0; i < size; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("%s value = {};", element);
+        utils().read(elementType, "value", "ptr");
+        emitter().emit("add_%s(self, value);", name);
+        utils().free(elementType, "value");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("return self;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+
+        emitter().emit("size_t size_%1$s(const %1$s self) {", name);
+        emitter().increaseIndentation();
+        emitter().emit("size_t size = sizeof(size_t);");
+        emitter().emit("for (size_t i = 0; self != NULL && i < self->size; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("size += %s;", utils().sizeOf(elementType, "self->elements[i]"));
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("return size;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+    }
+
+    /**
+     * Intersection and difference keep the elements of the left operand found, or not found, in the right one
+     */
+    default void filter(String name, String operation, String found) {
+        emitter().emit("%2$s %1$s_%2$s(const %2$s lhs, const %2$s rhs) {", operation, name);
+        emitter().increaseIndentation();
+        emitter().emit("%1$s self = init_%1$s();", name);
+        emitter().emit("for (size_t i = 0; lhs != NULL && i < lhs->size; i++) {");
+        emitter().increaseIndentation();
+        emitter().emit("if (find_%1$s(rhs, lhs->elements[i], lhs->hashes[i]) %2$s SIZE_MAX) {", name, found);
+        emitter().increaseIndentation();
+        emitter().emit("add_hashed_%s(self, lhs->elements[i], lhs->hashes[i]);", name);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("return self;");
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+        emitter().emit("");
+    }
+
+    /**
+     * Type names and the code handling the elements of sets and the keys and values of maps
+     */
+    @Module
+    interface Utils {
+
+        @Binding(BindingKind.INJECTED)
+        MulticoreBackend backend();
+
+        default Emitter emitter() {
+            return backend().emitter();
+        }
+
+        default String name(SetType type) {
+            return setOf(type.getElementType());
+        }
+
+        /**
+         * Name of the set of an element type, that of the domain or range of a map
+         */
+        default String setOf(Type element) {
+            return "set_" + mangle(code(element));
+        }
+
+        default String mangle(String str) {
+            return str.replaceAll("[^A-Za-z0-9_]", "_");
+        }
+
+        default Stream<SetType> types() {
+            Map<String, SetType> types = new LinkedHashMap<>();
+            backend().task().walk()
+                    .flatMap(this::type)
+                    .flatMap(this::components)
+                    .filter(SetType.class::isInstance)
+                    .map(SetType.class::cast)
+                    .filter(type -> supported(type.getElementType()))
+                    .forEach(type -> types.putIfAbsent(name(type), type));
+            return types.values().stream();
+        }
+
+        default Stream<Type> type(IRNode node) {
+            return Stream.empty();
+        }
+
+        default Stream<Type> type(VarDecl decl) {
+            return Stream.of(backend().types().declaredType(decl));
+        }
+
+        default Stream<Type> type(Expression expr) {
+            return Stream.of(backend().types().type(expr));
+        }
+
+        /**
+         * A type followed by the types it is built from
+         */
+        default Stream<Type> components(Type type) {
+            return Stream.of(type);
+        }
+
+        default Stream<Type> components(AliasType type) {
+            return components(type.getConcreteType());
+        }
+
+        default Stream<Type> components(ListType type) {
+            return Stream.concat(Stream.of(type), components(type.getElementType()));
+        }
+
+        default Stream<Type> components(SetType type) {
+            return Stream.concat(Stream.of(type), components(type.getElementType()));
+        }
+
+        default Stream<Type> components(MapType type) {
+            return Stream.concat(Stream.of(type), Stream.concat(components(type.getKeyType()), components(type.getValueType())));
+        }
+
+        default Stream<Type> components(CallableType type) {
+            return Stream.concat(type.getParameterTypes().stream().flatMap(this::components), components(type.getReturnType()));
+        }
+
+        default boolean supported(Type type) {
+            Type concrete = concrete(type);
+            return scalar(concrete) || concrete instanceof StringType || concrete instanceof AlgebraicType ||
+                    concrete instanceof SetType || concrete instanceof MapType;
+        }
+
+        default Type concrete(Type type) {
+            return type;
+        }
+
+        default Type concrete(AliasType type) {
+            return concrete(type.getConcreteType());
+        }
+
+        default Type concrete(TupleType type) {
+            return backend().tuples().convert().apply(type);
+        }
+
+        default boolean scalar(Type type) {
+            return type instanceof BoolType || type instanceof CharType || type instanceof IntType || type instanceof RealType;
+        }
+
+        /**
+         * True if the values of the type are allocated and must be copied and freed
+         */
+        default boolean owned(Type type) {
+            Type concrete = concrete(type);
+            return !scalar(concrete) && !backend().algebraic().utils().unboxed(concrete);
+        }
+
+        /**
+         * The C type of an element, also the suffix of the functions handling it when it is not a scalar
+         */
+        default String code(Type type) {
+            Type concrete = concrete(type);
+            if (concrete instanceof AlgebraicType) {
+                return backend().algebraic().utils().name((AlgebraicType) concrete);
+            }
+            return backend().typeseval().type(concrete);
+        }
+
+        default String size(String set) {
+            return String.format("(%1$s == NULL ? 0 : %1$s->size)", set);
+        }
+
+        default String equal(Type type, String lhs, String rhs) {
+            if (scalar(concrete(type))) {
+                return String.format("(%s == %s)", lhs, rhs);
+            }
+            return String.format("compare_%s(%s, %s)", code(type), lhs, rhs);
+        }
+
+        default void copy(Type type, String lvalue, String rvalue) {
+            if (owned(type)) {
+                emitter().emit("copy_%s(&(%s), %s);", code(type), lvalue, rvalue);
+            } else {
+                emitter().emit("%s = %s;", lvalue, rvalue);
+            }
+        }
+
+        default void free(Type type, String value) {
+            if (owned(type)) {
+                emitter().emit("free_%s(%s);", code(type), value);
+            }
+        }
+
+        default void write(Type type, String value, String ptr) {
+            if (scalar(concrete(type))) {
+                emitter().emit("*(%s *) %s = %s;", code(type), ptr, value);
+            } else {
+                emitter().emit("write_%s(%s, %s);", code(type), value, ptr);
+            }
+            emitter().emit("%s += %s;", ptr, sizeOf(type, value));
+        }
+
+        default void read(Type type, String value, String ptr) {
+            if (scalar(concrete(type))) {
+                emitter().emit("%s = *(%s *) %s;", value, code(type), ptr);
+            } else {
+                emitter().emit("%s = read_%s(%s);", value, code(type), ptr);
+            }
+            emitter().emit("%s += %s;", ptr, sizeOf(type, value));
+        }
+
+        default String sizeOf(Type type, String value) {
+            if (scalar(concrete(type))) {
+                return String.format("sizeof(%s)", code(type));
+            }
+            return String.format("size_%s(%s)", code(type), value);
+        }
+
+        /**
+         * Defines hash_name, hashing values equal by compare to the same hash: scalars are mixed, strings hashed
+         * by their characters, sets and maps by their size and algebraic types by their serialization
+         */
+        default void hashDefinition(String name, Type type) {
+            Type concrete = concrete(type);
+            emitter().emit("static uint32_t hash_%s(const %s value) {", name, code(type));
+            emitter().increaseIndentation();
+            if (concrete instanceof RealType) {
+                emitter().emit("return value == 0 ? art_hash_mix(0) : art_hash_bytes(&value, sizeof(value));");
+            } else if (scalar(concrete)) {
+                emitter().emit("return art_hash_mix((uint64_t) value);");
+            } else if (concrete instanceof StringType) {
+                emitter().emit("return value == NULL ? art_hash_mix(0) : art_hash_bytes(value, strlen(value));");
+            } else if (concrete instanceof SetType || concrete instanceof MapType) {
+                emitter().emit("return art_hash_mix(%s);", size("value"));
+            } else {
+                emitter().emit("char local[64];");
+                emitter().emit("size_t length = size_%s(value);", code(type));
+                emitter().emit("char *buffer = length <= sizeof(local) ? local : (char *) malloc(length);");
+                emitter().emit("write_%s(value, buffer);", code(type));
+                emitter().emit("uint32_t hash = art_hash_bytes(buffer, length);");
+                emitter().emit("if (buffer != local) free(buffer);");
+                emitter().emit("return hash;");
+            }
+            emitter().decreaseIndentation();
+            emitter().emit("}");
+            emitter().emit("");
+        }
+
+        /**
+         * Grows the hashes and the bucket table of a set or map to a capacity, and inserts the hashes again
+         */
+        default void rehash(String self, String capacity) {
+            emitter().emit("%1$s->hashes = (uint32_t *) realloc(%1$s->hashes, %2$s * sizeof(uint32_t));", self, capacity);
+            emitter().emit("free(%s->buckets);", self);
+            emitter().emit("%1$s->buckets = (uint32_t *) calloc(2 * %2$s, sizeof(uint32_t));", self, capacity);
+            emitter().emit("%1$s->mask = 2 * %2$s - 1;", self, capacity);
+            emitter().emit("%1$s->capacity = %2$s;", self, capacity);
+            emitter().emit("for (size_t i = 0; i < %s->size; i++) {", self);
+            emitter().increaseIndentation();
+            insert(self, "i", String.format("%s->hashes[i]", self));
+            emitter().decreaseIndentation();
+            emitter().emit("}");
+        }
+
+        /**
+         * Inserts a position in the first free bucket from its hash
+         */
+        default void insert(String self, String position, String hash) {
+            emitter().emit("size_t b = %s & %s->mask;", hash, self);
+            emitter().emit("while (%1$s->buckets[b] != 0) b = (b + 1) & %1$s->mask;", self);
+            emitter().emit("%s->buckets[b] = (uint32_t) (%s + 1);", self, position);
+        }
+    }
+}
@@ -12,6 +12,7 @@ import se.lth.cs.tycho.ir.expr.ExprBinaryOp;
 import se.lth.cs.tycho.ir.expr.ExprComprehension;
 import se.lth.cs.tycho.ir.expr.ExprGlobalVariable;
 import se.lth.cs.tycho.ir.expr.ExprInput;
+import se.lth.cs.tycho.ir.expr.ExprList;
 import se.lth.cs.tycho.ir.expr.ExprVariable;
 import se.lth.cs.tycho.ir.expr.Expression;
 import se.lth.cs.tycho.ir.stmt.Statement;
@@ -29,6 +30,7 @@ import se.lth.cs.tycho.type.*;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @Module
@@ -101,7 +103,7 @@ public interface Statements {
             if (write.getRepeatExpression() == null) {
                 Type type = types().portType(write.getPort());
                 String portType;
-                if (type instanceof AlgebraicType) {
+                if (type instanceof AlgebraicType && !backend().algebraic().utils().unboxed(type)) {
                     portType = "ref";
 
                 } else {
@@ -182,6 +184,15 @@ public interface Statements {
                         copy(type, lvalue, types().type(assign.getExpression()), expressioneval().evaluate(assign.getExpression()));
                     }
                 }
+            } else if (assign.getExpression() instanceof ExprList && backend().copyElision().inPlace(assign)) {
+                Optional<List<Expression>> elements = backend().copyElision().elements((ExprList) assign.getExpression());
+                if (elements.isPresent()) {
+                    for (int i = 0; i < elements.get().size(); i++) {
+                        emitter().emit("%s[%d] = %s;", lvalue, i, expressioneval().evaluate(elements.get().get(i)));
+                    }
+                } else {
+                    copy(type, lvalue, types().type(assign.getExpression()), expressioneval().evaluate(assign.getExpression()));
+                }
             } else {
                 if (assign.getExpression() instanceof ExprComprehension) {
                     emitter().emit("{");
@@ -203,6 +214,10 @@ public interface Statements {
     }
 
     default void copy(ListType lvalueType, String lvalue, ListType rvalueType, String rvalue) {
+        // -- Built in place
+        if (lvalue.equals(rvalue)) {
+            return;
+        }
         //if (!lvalueType.equals(rvalueType)) {
         String maxIndex = typeseval().sizeByDimension(lvalueType).stream().map(Object::toString).collect(Collectors.joining(" * "));
         String index = variables().generateTemp();
@@ -240,6 +255,10 @@ public interface Statements {
     }
 
     default void copy(AlgebraicType lvalueType, String lvalue, AlgebraicType rvalueType, String rvalue) {
+        if (backend().algebraic().utils().unboxed(lvalueType)) {
+            emitter().emit("%s = %s;", lvalue, rvalue);
+            return;
+        }
         emitter().emit("copy_%s(&(%s), %s);", backend().algebraic().utils().name(lvalueType), lvalue, rvalue);
     }
 
@@ -401,7 +420,19 @@ public interface Statements {
         }
     }
 
-    void forEach(Expression collection, List<GeneratorVarDecl> varDecls, Runnable action);
+    default void forEach(Expression collection, List<GeneratorVarDecl> varDecls, Runnable action) {
+        Type type = types().type(collection);
+        if (!(type instanceof SetType || type instanceof MapType)) {
+            throw new UnsupportedOperationException("Foreach over " + type + " not supported.");
+        }
+        emitter().emit("{");
+        emitter().increaseIndentation();
+        String temp = variables().generateTemp();
+        emitter().emit("%s = %s;", declarartions().declaration(type, temp), expressioneval().evaluate(collection));
+        expressioneval().withElements(type, temp, varDecls, action);
+        emitter().decreaseIndentation();
+        emitter().emit("}");
+    }
 
     default void forEach(ExprBinaryOp binOp, List<GeneratorVarDecl> varDecls, Runnable action) {
         emitter().emit("{");
@@ -421,6 +452,10 @@ public interface Statements {
             action.run();
             emitter().decreaseIndentation();
             emitter().emit("}");
+        } else if (types().type(binOp) instanceof SetType || types().type(binOp) instanceof MapType) {
+            String temp = variables().generateTemp();
+            emitter().emit("%s = %s;", declarartions().declaration(types().type(binOp), temp), expressioneval().evaluate(binOp));
+            expressioneval().withElements(types().type(binOp), temp, varDecls, action);
         } else {
             throw new UnsupportedOperationException(binOp.getOperations().get(0));
         }
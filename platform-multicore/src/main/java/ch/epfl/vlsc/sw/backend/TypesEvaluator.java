@@ -22,6 +22,9 @@ public interface TypesEvaluator {
     String type(Type type);
 
     default String type(AlgebraicType type) {
+        if (backend().algebraic().utils().unboxed(type)) {
+            return backend().algebraic().utils().name(type);
+        }
         return type.getName() + "_t*";
     }
 
@@ -79,6 +82,14 @@ public interface TypesEvaluator {
         return "string_t";
     }
 
+    default String type(SetType type) {
+        return backend().sets().utils().name(type);
+    }
+
+    default String type(MapType type) {
+        return backend().maps().name(type);
+    }
+
     default String type(CharType type) {
         return "char";
     }
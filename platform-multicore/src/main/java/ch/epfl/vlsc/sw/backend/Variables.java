@@ -12,6 +12,7 @@ import se.lth.cs.tycho.ir.entity.am.ActorMachine;
 import se.lth.cs.tycho.ir.entity.am.Scope;
 import se.lth.cs.tycho.ir.expr.ExprGlobalVariable;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -20,13 +21,21 @@ public interface Variables {
     @Binding(BindingKind.INJECTED)
     MulticoreBackend backend();
 
+    /**
+     * Number of the next temporary variable, restarted for every instance
+     */
+    @Binding(BindingKind.LAZY)
+    default AtomicInteger temporaries() {
+        return new AtomicInteger();
+    }
+
     /**
      * Generate a temporary variable
      *
      * @return
      */
     default String generateTemp() {
-        return "t_" + backend().uniqueNumbers().next();
+        return "t_" + temporaries().getAndIncrement();
     }
 
     /**
@@ -1,6 +1,7 @@
 package ch.epfl.vlsc.sw.launcher;
 
 import ch.epfl.vlsc.launcher.SBLauncher;
+import ch.epfl.vlsc.platformutils.PathUtils;
 import ch.epfl.vlsc.sw.platform.Multicore;
 
 public class MulticoreLauncher {
@@ -10,6 +11,10 @@ public class MulticoreLauncher {
     private static final String toolVersion = "0.0.1-SNAPSHOT";
 
     public static void main(String[] args) {
+        // -- JAXB can not generate accessor classes in a native image
+        if (PathUtils.inNativeImage()) {
+            System.setProperty("com.sun.xml.bind.v2.bytecode.ClassTailor.noOptimize", "true");
+        }
         SBLauncher main = new SBLauncher(new Multicore(), "art-sbc");
         main.run(args);
     }
@@ -0,0 +1,204 @@
+package ch.epfl.vlsc.sw.phase;
+
+import ch.epfl.vlsc.settings.PlatformSettings;
+import ch.epfl.vlsc.sw.ir.PartitionLink;
+import se.lth.cs.tycho.attribute.GlobalNames;
+import se.lth.cs.tycho.compiler.CompilationTask;
+import se.lth.cs.tycho.compiler.Context;
+import se.lth.cs.tycho.ir.Port;
+import se.lth.cs.tycho.ir.ToolAttribute;
+import se.lth.cs.tycho.ir.ToolValueAttribute;
+import se.lth.cs.tycho.ir.decl.GlobalEntityDecl;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.entity.am.Transition;
+import se.lth.cs.tycho.ir.expr.ExprLiteral;
+import se.lth.cs.tycho.ir.network.Connection;
+import se.lth.cs.tycho.ir.network.Instance;
+import se.lth.cs.tycho.ir.network.Network;
+import se.lth.cs.tycho.ir.util.ImmutableList;
+import se.lth.cs.tycho.phase.Phase;
+import se.lth.cs.tycho.reporting.CompilationException;
+import se.lth.cs.tycho.reporting.Diagnostic;
+import se.lth.cs.tycho.settings.Setting;
+
+import java.util.*;
+
+/**
+ * Groups straight pipelines of the network into fused chains of the multicore runtime.
+ *
+ * A connection can be fused when it is the only connection of its source port, both ends are
+ * actor machines generated by the backend, and both ports have a static rate, i.e. every transition
+ * that uses the port consumes or produces the same number of tokens. Every instance has at most
+ * one fused input and one fused output connection, so the groups are chains, and when the network
+ * was mapped to threads both ends must be in the same thread.
+ *
+ * The result is stored as a "fusion" attribute on the instances of a chain, the runtime then places
+ * the whole chain on the thread of its first instance and fires it as one actor.
+ */
+public class ActorFusionPhase implements Phase {
+
+    public static final String FUSION = "fusion";
+
+    @Override
+    public String getDescription() {
+        return "Groups pipelines of actor machines with static rates into fused chains.";
+    }
+
+    @Override
+    public List<Setting<?>> getPhaseSettings() {
+        return ImmutableList.of(PlatformSettings.fusion);
+    }
+
+    @Override
+    public CompilationTask execute(CompilationTask task, Context context) throws CompilationException {
+        boolean enabled = context.getConfiguration().isDefined(PlatformSettings.fusion) ?
+                context.getConfiguration().get(PlatformSettings.fusion) :
+                PlatformSettings.fusion.defaultValue(context.getConfiguration());
+        if (!enabled && !SdfSchedulePhase.enabled(context)) {
+            return task;
+        }
+
+        GlobalNames globalNames = task.getModule(GlobalNames.key);
+        Network network = task.getNetwork();
+        List<Instance> instances = network.getInstances();
+        int n = instances.size();
+
+        Map<String, Integer> index = new HashMap<>();
+        for (int v = 0; v < n; v++) {
+            index.put(instances.get(v).getInstanceName(), v);
+        }
+
+        Map<Connection.End, Integer> fanOut = new HashMap<>();
+        for (Connection connection : network.getConnections()) {
+            fanOut.merge(connection.getSource(), 1, Integer::sum);
+        }
+
+        boolean partitioned = instances.stream()
+                .allMatch(i -> i.getAttributes().stream().anyMatch(a -> a.getName().equals(ThreadPartitioningPhase.THREAD)));
+
+        // -- Chains, in connection order
+        int[] next = new int[n];
+        int[] previous = new int[n];
+        Arrays.fill(next, -1);
+        Arrays.fill(previous, -1);
+        for (Connection connection : network.getConnections()) {
+            if (!connection.getSource().getInstance().isPresent() || !connection.getTarget().getInstance().isPresent()) {
+                continue;
+            }
+            int source = index.get(connection.getSource().getInstance().get());
+            int target = index.get(connection.getTarget().getInstance().get());
+            if (source == target || next[source] >= 0 || previous[target] >= 0) {
+                continue;
+            }
+            if (fanOut.get(connection.getSource()) != 1) {
+                continue;
+            }
+            ActorMachine sourceMachine = actorMachine(globalNames, instances.get(source));
+            ActorMachine targetMachine = actorMachine(globalNames, instances.get(target));
+            if (sourceMachine == null || targetMachine == null) {
+                continue;
+            }
+            if (!staticRate(sourceMachine, connection.getSource().getPort(), false) ||
+                    !staticRate(targetMachine, connection.getTarget().getPort(), true)) {
+                continue;
+            }
+            if (partitioned && ThreadPartitioningPhase.thread(instances.get(source)) != ThreadPartitioningPhase.thread(instances.get(target))) {
+                continue;
+            }
+            // -- A chain closing on itself is a cycle
+            int first = source;
+            while (previous[first] >= 0) {
+                first = previous[first];
+            }
+            if (first == target) {
+                continue;
+            }
+            next[source] = target;
+            previous[target] = source;
+        }
+
+        // -- Annotate the instances, a chain is named after its first instance
+        int[] fusion = new int[n];
+        Arrays.fill(fusion, -1);
+        int chains = 0;
+        int fused = 0;
+        for (int v = 0; v < n; v++) {
+            if (previous[v] >= 0 || next[v] < 0) {
+                continue;
+            }
+            for (int w = v; w >= 0; w = next[w]) {
+                fusion[w] = chains;
+                fused++;
+            }
+            chains++;
+        }
+        context.getReporter().report(new Diagnostic(Diagnostic.Kind.INFO,
+                String.format("Fused %d instances into %d chains.", fused, chains)));
+        if (chains == 0) {
+            return task;
+        }
+
+        ImmutableList.Builder<Instance> builder = ImmutableList.builder();
+        for (int v = 0; v < n; v++) {
+            Instance instance = instances.get(v);
+            ImmutableList.Builder<ToolAttribute> attributes = ImmutableList.builder();
+            attributes.addAll(instance.getAttributes().stream()
+                    .filter(attr -> !attr.getName().equals(FUSION))
+                    .map(ToolAttribute::deepClone)
+                    .collect(ImmutableList.collector()));
+            if (fusion[v] >= 0) {
+                attributes.add(new ToolValueAttribute(FUSION,
+                        new ExprLiteral(ExprLiteral.Kind.Integer, String.valueOf(fusion[v]))));
+            }
+            builder.add(instance.withAttributes(attributes.build()));
+        }
+        return task.withNetwork(network.withInstances(builder.build()));
+    }
+
+    /**
+     * Returns the fused chain of an instance, -1 if it is not fused
+     *
+     * @param instance
+     * @return
+     */
+    public static int fusion(Instance instance) {
+        return instance.getAttributes().stream()
+                .filter(attr -> attr.getName().equals(FUSION) && attr instanceof ToolValueAttribute)
+                .map(attr -> Integer.parseInt(((ExprLiteral) ((ToolValueAttribute) attr).getValue()).getText()))
+                .findAny().orElse(-1);
+    }
+
+    /**
+     * The actor machine of an instance, null for external actors and partition links
+     */
+    private ActorMachine actorMachine(GlobalNames globalNames, Instance instance) {
+        GlobalEntityDecl entityDecl = globalNames.entityDecl(instance.getEntityName(), true);
+        if (entityDecl.getExternal() || entityDecl.getEntity() instanceof PartitionLink) {
+            return null;
+        }
+        if (entityDecl.getEntity() instanceof ActorMachine) {
+            return (ActorMachine) entityDecl.getEntity();
+        }
+        return null;
+    }
+
+    /**
+     * True if all transitions using the port consume (or produce) the same number of tokens on it
+     */
+    private boolean staticRate(ActorMachine actorMachine, String port, boolean input) {
+        int rate = 0;
+        for (Transition transition : actorMachine.getTransitions()) {
+            Map<Port, Integer> rates = input ? transition.getInputRates() : transition.getOutputRates();
+            for (Map.Entry<Port, Integer> entry : rates.entrySet()) {
+                if (!entry.getKey().getName().equals(port) || entry.getValue() == 0) {
+                    continue;
+                }
+                if (rate != 0 && rate != entry.getValue()) {
+                    return false;
+                }
+                rate = entry.getValue();
+            }
+        }
+        return rate > 0;
+    }
+}
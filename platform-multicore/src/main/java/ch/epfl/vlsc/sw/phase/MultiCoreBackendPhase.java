@@ -3,6 +3,7 @@ package ch.epfl.vlsc.sw.phase;
 import ch.epfl.vlsc.configuration.Configuration;
 import ch.epfl.vlsc.configuration.ConfigurationManager;
 import ch.epfl.vlsc.platformutils.ControllerToGraphviz;
+import ch.epfl.vlsc.platformutils.Manifest;
 import ch.epfl.vlsc.platformutils.PathUtils;
 import ch.epfl.vlsc.settings.PlatformSettings;
 import ch.epfl.vlsc.sw.backend.MulticoreBackend;
@@ -28,8 +29,13 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 public class MultiCoreBackendPhase implements Phase {
 
@@ -83,10 +89,20 @@ public class MultiCoreBackendPhase implements Phase {
     public List<Setting<?>> getPhaseSettings() {
         return ImmutableList.of(
                 PlatformSettings.scopeLivenessAnalysis,
+                PlatformSettings.conditionCaching,
+                PlatformSettings.controllerTableThreshold,
+                PlatformSettings.shareActorClasses,
+                PlatformSettings.algebraicPool,
+                PlatformSettings.unboxedTypeSize,
+                PlatformSettings.codegenThreads,
+                PlatformSettings.incrementalCodegen,
                 PlatformSettings.runOnNode,
                 PlatformSettings.defaultBufferDepth,
                 PlatformSettings.defaultQueueDepth,
-                PlatformSettings.enableSystemC);
+                PlatformSettings.profileImport,
+                PlatformSettings.hugePages,
+                PlatformSettings.enableSystemC,
+                PlatformSettings.defaultScheduler);
     }
 
     /**
@@ -144,6 +160,13 @@ public class MultiCoreBackendPhase implements Phase {
                 .bind("context").to(context)
                 .instance();
 
+        // -- Only rewrite the generated files that changed
+        boolean incremental = context.getConfiguration().isDefined(PlatformSettings.incrementalCodegen) ?
+                context.getConfiguration().get(PlatformSettings.incrementalCodegen) :
+                PlatformSettings.incrementalCodegen.defaultValue(context.getConfiguration());
+        if (incremental) {
+            backend.emitter().setManifest(new Manifest(targetPath));
+        }
 
         // -- Generate Auxiliary
         generateAuxiliary(backend);
@@ -167,7 +190,15 @@ public class MultiCoreBackendPhase implements Phase {
         generateNodeScripts(backend);
 
         // -- Generate configuration
-        generateConfiguration(task, context);
+        generateConfiguration(backend);
+
+        // -- Remove the files that are no longer generated
+        if (incremental) {
+            Manifest manifest = backend.emitter().getManifest();
+            int removed = manifest.update();
+            reporter.report(new Diagnostic(Diagnostic.Kind.INFO, String.format(
+                    "Generated %d files, %d changed, %d removed.", manifest.size(), manifest.written(), removed)));
+        }
         return task;
     }
 
@@ -186,9 +217,14 @@ public class MultiCoreBackendPhase implements Phase {
      * @param multicoreBackend
      */
     public static void generateInstrances(MulticoreBackend multicoreBackend) {
+        boolean shared = multicoreBackend.actorClasses().enabled();
+        List<Instance> instances = new ArrayList<>();
         for (Instance instance : multicoreBackend.task().getNetwork().getInstances()) {
             GlobalEntityDecl entityDecl = multicoreBackend.globalnames().entityDecl(instance.getEntityName(), true);
             Entity entity = entityDecl.getEntity();
+            if (shared && multicoreBackend.actorClasses().shareable(instance)) {
+                continue;
+            }
             if (!entityDecl.getExternal()) {
                 if (entity instanceof PartitionLink) {
                     multicoreBackend.context()
@@ -198,11 +234,64 @@ public class MultiCoreBackendPhase implements Phase {
                     multicoreBackend.plink().generatePLink(instance);
 //                    multicoreBackend.devicehandle().generateDeviceHandle(instance);
                 } else
-                    multicoreBackend.instance().generateInstance(instance);
+                    instances.add(instance);
 
             }
 
         }
+        generateInstanceCode(multicoreBackend, instances);
+
+        // -- Instances sharing the code of their actor class
+        if (shared) {
+            multicoreBackend.actorClasses().generateClasses();
+        }
+    }
+
+    /**
+     * Generates the code of the instances, in parallel with the codegen-threads setting. The instances are not
+     * generated by the backend of the phase but by backends of their own, one per thread, that restart the names of
+     * temporaries and callables for every instance, so that the code is the same for any number of threads.
+     *
+     * @param multicoreBackend
+     * @param instances
+     */
+    private static void generateInstanceCode(MulticoreBackend multicoreBackend, List<Instance> instances) {
+        se.lth.cs.tycho.settings.Configuration configuration = multicoreBackend.context().getConfiguration();
+        int threads = configuration.isDefined(PlatformSettings.codegenThreads) ?
+                configuration.get(PlatformSettings.codegenThreads) :
+                PlatformSettings.codegenThreads.defaultValue(configuration);
+        ThreadLocal<MulticoreBackend> backends = ThreadLocal.withInitial(() -> {
+            MulticoreBackend backend = MultiJ.from(MulticoreBackend.class)
+                    .bind("task").to(multicoreBackend.task())
+                    .bind("context").to(multicoreBackend.context())
+                    .instance();
+            backend.emitter().setManifest(multicoreBackend.emitter().getManifest());
+            return backend;
+        });
+
+        if (threads <= 1 || instances.size() <= 1) {
+            instances.forEach(instance -> backends.get().instance().generateInstance(instance));
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> instances.parallelStream()
+                    .forEach(instance -> backends.get().instance().generateInstance(instance)))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompilationException(new Diagnostic(Diagnostic.Kind.ERROR, "Interrupted while generating the instances."));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CompilationException(new Diagnostic(Diagnostic.Kind.ERROR, e.getCause().getMessage()));
+        } finally {
+            pool.shutdown();
+        }
+        multicoreBackend.context().getReporter().report(new Diagnostic(Diagnostic.Kind.INFO,
+                String.format("Generated %d instances with %d threads.", instances.size(), threads)));
     }
 
     /**
@@ -258,7 +347,8 @@ public class MultiCoreBackendPhase implements Phase {
         }
     }
 
-    private void generateConfiguration(CompilationTask task, Context context) {
+    private void generateConfiguration(MulticoreBackend backend) {
+        CompilationTask task = backend.task();
         Configuration xcf = new Configuration();
 
         // -- Set Configuration Network
@@ -266,24 +356,29 @@ public class MultiCoreBackendPhase implements Phase {
         xcfNetwork.setId(task.getIdentifier().toString());
         xcf.setNetwork(xcfNetwork);
 
-        // -- Create a Partition
+        // -- Create a Partition per thread, see ThreadPartitioningPhase
         Configuration.Partitioning partitioning = new Configuration.Partitioning();
-        Configuration.Partitioning.Partition partition = new Configuration.Partitioning.Partition();
-
-        partition.setId((short) 0);
-        partition.setPe("x86_64");
-        partition.setScheduling("ROUND_ROBIN");
-        partition.setCodeGenerator("sw");
-        partition.setHost(true);
+        Map<Integer, Configuration.Partitioning.Partition> partitions = new TreeMap<>();
 
-        // -- Create instances
         for (Instance instance : task.getNetwork().getInstances()) {
+            int thread = ThreadPartitioningPhase.thread(instance);
+            Configuration.Partitioning.Partition partition = partitions.computeIfAbsent(thread, id -> {
+                Configuration.Partitioning.Partition p = new Configuration.Partitioning.Partition();
+                p.setId(id.shortValue());
+                p.setPe("x86_64");
+                p.setScheduling("ROUND_ROBIN");
+                p.setCodeGenerator("sw");
+                p.setHost(true);
+                return p;
+            });
+
+            // -- Create instances
             Configuration.Partitioning.Partition.Instance xcfInstance = new Configuration.Partitioning.Partition.Instance();
             xcfInstance.setId(instance.getInstanceName());
             partition.getInstance().add(xcfInstance);
         }
 
-        partitioning.getPartition().add(partition);
+        partitioning.getPartition().addAll(partitions.values());
         xcf.setPartitioning(partitioning);
 
         // -- Code generator
@@ -300,7 +395,7 @@ public class MultiCoreBackendPhase implements Phase {
         Configuration.Connections xcfConnections = new Configuration.Connections();
         for (Connection connection : task.getNetwork().getConnections()) {
             Configuration.Connections.Connection fifoConnection = new Configuration.Connections.Connection();
-            fifoConnection.setSize(4096);
+            fifoConnection.setSize(backend.channelsutils().connectionBufferSize(connection));
             fifoConnection.setSource(connection.getSource().getInstance().get());
             fifoConnection.setSourcePort(connection.getSource().getPort());
             fifoConnection.setTarget(connection.getTarget().getInstance().get());
@@ -339,8 +434,11 @@ public class MultiCoreBackendPhase implements Phase {
         try {
             // -- Copy Runtime
             URL url = getClass().getResource("/lib/");
-            // -- Temporary hack to launch it from command line
-            if (url.toString().contains("jar")) {
+            // -- Native images can not walk their resources
+            if (PathUtils.inNativeImage()) {
+                PathUtils.copyFromIndex(getClass(), "/lib", libPath);
+            } else if (url.toString().contains("jar")) {
+                // -- Temporary hack to launch it from command line
                 PathUtils.copyFromJar(getClass().getResource("").toURI(), "/lib", libPath);
             } else {
                 Path libResourcePath = Paths.get(url.toURI());
@@ -360,7 +458,9 @@ public class MultiCoreBackendPhase implements Phase {
                 String sourceDirectory = isSimulated ? "/plink/systemc/" : "/plink/opencl/";
                 URL plinkUrl = getClass().getResource(sourceDirectory);
                 System.out.println(plinkUrl);
-                if (plinkUrl.toString().contains("jar")) {
+                if (PathUtils.inNativeImage()) {
+                    PathUtils.copyFromIndex(getClass(), sourceDirectory, libPath);
+                } else if (plinkUrl.toString().contains("jar")) {
                     PathUtils.copyFromJar(getClass().getResource(sourceDirectory).toURI(), sourceDirectory, libPath);
 
                 } else {
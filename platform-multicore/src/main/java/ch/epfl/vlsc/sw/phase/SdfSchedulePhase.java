@@ -0,0 +1,238 @@
+package ch.epfl.vlsc.sw.phase;
+
+import ch.epfl.vlsc.settings.PlatformSettings;
+import se.lth.cs.tycho.attribute.GlobalNames;
+import se.lth.cs.tycho.compiler.CompilationTask;
+import se.lth.cs.tycho.compiler.Context;
+import se.lth.cs.tycho.ir.Port;
+import se.lth.cs.tycho.ir.ToolAttribute;
+import se.lth.cs.tycho.ir.ToolValueAttribute;
+import se.lth.cs.tycho.ir.entity.Entity;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.entity.am.Transition;
+import se.lth.cs.tycho.ir.expr.ExprLiteral;
+import se.lth.cs.tycho.ir.network.Connection;
+import se.lth.cs.tycho.ir.network.Instance;
+import se.lth.cs.tycho.ir.network.Network;
+import se.lth.cs.tycho.ir.util.ImmutableList;
+import se.lth.cs.tycho.phase.Phase;
+import se.lth.cs.tycho.reporting.CompilationException;
+import se.lth.cs.tycho.reporting.Diagnostic;
+import se.lth.cs.tycho.settings.Setting;
+
+import java.util.*;
+
+/**
+ * Computes a static schedule for the regions of synchronous dataflow actors.
+ *
+ * An actor machine is a synchronous dataflow (SDF) actor when all its transitions consume and produce
+ * the same number of tokens on every port, whatever the number of transitions. A region is a connected
+ * part of the network made of SDF actors, independently of the fused chains of ActorFusionPhase. The
+ * balance equations along its connections give the repetition vector, the smallest number of firings of
+ * each instance that leaves every connection of the region as it was. Regions whose equations have no
+ * solution, on a cycle, are kept dynamic.
+ *
+ * The result is stored as a "repetitions" attribute on the instances of the regions. The runtime fires
+ * iterations of the schedule, a fused chain in chain order and the other instances on their own, and
+ * the backend sizes the connections of a region to hold at least the tokens of one iteration.
+ */
+public class SdfSchedulePhase implements Phase {
+
+    public static final String REPETITIONS = "repetitions";
+
+    /**
+     * Bound on the firings of an instance in one iteration, larger schedules are left dynamic
+     */
+    private static final long MAX_REPETITIONS = 4096;
+
+    @Override
+    public String getDescription() {
+        return "Computes the static schedule of the regions of synchronous dataflow actors.";
+    }
+
+    @Override
+    public List<Setting<?>> getPhaseSettings() {
+        return ImmutableList.of(PlatformSettings.sdfSchedule);
+    }
+
+    public static boolean enabled(Context context) {
+        return context.getConfiguration().isDefined(PlatformSettings.sdfSchedule) ?
+                context.getConfiguration().get(PlatformSettings.sdfSchedule) :
+                PlatformSettings.sdfSchedule.defaultValue(context.getConfiguration());
+    }
+
+    @Override
+    public CompilationTask execute(CompilationTask task, Context context) throws CompilationException {
+        if (!enabled(context)) {
+            return task;
+        }
+
+        GlobalNames globalNames = task.getModule(GlobalNames.key);
+        Network network = task.getNetwork();
+        List<Instance> instances = network.getInstances();
+
+        Map<String, Instance> byName = new HashMap<>();
+        for (Instance instance : instances) {
+            if (synchronous(globalNames.entityDecl(instance.getEntityName(), true).getEntity())) {
+                byName.put(instance.getInstanceName(), instance);
+            }
+        }
+
+        // -- Connections between SDF actors that carry tokens, both ways
+        Map<Instance, List<Connection>> edges = new HashMap<>();
+        for (Connection connection : network.getConnections()) {
+            if (!connection.getSource().getInstance().isPresent() || !connection.getTarget().getInstance().isPresent()) {
+                continue;
+            }
+            Instance source = byName.get(connection.getSource().getInstance().get());
+            Instance target = byName.get(connection.getTarget().getInstance().get());
+            if (source == null || target == null ||
+                    rate(globalNames, source, connection.getSource().getPort(), false) == 0 ||
+                    rate(globalNames, target, connection.getTarget().getPort(), true) == 0) {
+                continue;
+            }
+            edges.computeIfAbsent(source, i -> new ArrayList<>()).add(connection);
+            edges.computeIfAbsent(target, i -> new ArrayList<>()).add(connection);
+        }
+
+        // -- Repetition vector of every region, as fractions of the firings of its first instance
+        Map<Instance, Long> repetitions = new HashMap<>();
+        Set<Instance> visited = new HashSet<>();
+        int scheduled = 0;
+        for (Instance first : instances) {
+            if (!edges.containsKey(first) || !visited.add(first)) {
+                continue;
+            }
+            Map<Instance, long[]> fraction = new LinkedHashMap<>();
+            fraction.put(first, new long[]{1, 1});
+            Deque<Instance> queue = new ArrayDeque<>();
+            queue.add(first);
+            boolean consistent = true;
+            while (!queue.isEmpty()) {
+                Instance instance = queue.remove();
+                long[] r = fraction.get(instance);
+                for (Connection connection : edges.get(instance)) {
+                    Instance source = byName.get(connection.getSource().getInstance().get());
+                    Instance target = byName.get(connection.getTarget().getInstance().get());
+                    long produced = rate(globalNames, source, connection.getSource().getPort(), false);
+                    long consumed = rate(globalNames, target, connection.getTarget().getPort(), true);
+                    // -- Balance equation r(target) * consumed = r(source) * produced
+                    Instance other = instance == source ? target : source;
+                    long n = instance == source ? r[0] * produced : r[0] * consumed;
+                    long d = instance == source ? r[1] * consumed : r[1] * produced;
+                    long g = gcd(n, d);
+                    long[] expected = new long[]{n / g, d / g};
+                    long[] known = fraction.get(other);
+                    if (known == null) {
+                        fraction.put(other, expected);
+                        visited.add(other);
+                        queue.add(other);
+                    } else if (!Arrays.equals(known, expected)) {
+                        consistent = false;
+                    }
+                }
+            }
+            if (!consistent) {
+                context.getReporter().report(new Diagnostic(Diagnostic.Kind.WARNING,
+                        String.format("The rates of the region of %s are inconsistent, it is kept dynamic.",
+                                first.getInstanceName())));
+                continue;
+            }
+
+            long lcm = 1;
+            for (long[] r : fraction.values()) {
+                lcm = lcm / gcd(lcm, r[1]) * r[1];
+            }
+            long common = 0;
+            for (long[] r : fraction.values()) {
+                common = gcd(common, r[0] * (lcm / r[1]));
+            }
+            long largest = 0;
+            for (long[] r : fraction.values()) {
+                largest = Math.max(largest, r[0] * (lcm / r[1]) / common);
+            }
+            if (largest > MAX_REPETITIONS) {
+                context.getReporter().report(new Diagnostic(Diagnostic.Kind.WARNING,
+                        String.format("The static schedule of the region of %s fires an instance %d times, it is kept dynamic.",
+                                first.getInstanceName(), largest)));
+                continue;
+            }
+            for (Map.Entry<Instance, long[]> entry : fraction.entrySet()) {
+                long[] r = entry.getValue();
+                repetitions.put(entry.getKey(), r[0] * (lcm / r[1]) / common);
+            }
+            scheduled++;
+        }
+        context.getReporter().report(new Diagnostic(Diagnostic.Kind.INFO,
+                String.format("Scheduled %d regions of %d instances statically.", scheduled, repetitions.size())));
+        if (scheduled == 0) {
+            return task;
+        }
+
+        // -- Annotate the instances
+        ImmutableList.Builder<Instance> builder = ImmutableList.builder();
+        for (Instance instance : instances) {
+            ImmutableList.Builder<ToolAttribute> attributes = ImmutableList.builder();
+            attributes.addAll(instance.getAttributes().stream()
+                    .filter(attr -> !attr.getName().equals(REPETITIONS))
+                    .map(ToolAttribute::deepClone)
+                    .collect(ImmutableList.collector()));
+            if (repetitions.containsKey(instance)) {
+                attributes.add(new ToolValueAttribute(REPETITIONS,
+                        new ExprLiteral(ExprLiteral.Kind.Integer, String.valueOf(repetitions.get(instance)))));
+            }
+            builder.add(instance.withAttributes(attributes.build()));
+        }
+        return task.withNetwork(network.withInstances(builder.build()));
+    }
+
+    /**
+     * Returns the firings of an instance in one iteration of the static schedule of its region, 0 if it has none
+     *
+     * @param instance
+     * @return
+     */
+    public static int repetitions(Instance instance) {
+        return instance.getAttributes().stream()
+                .filter(attr -> attr.getName().equals(REPETITIONS) && attr instanceof ToolValueAttribute)
+                .map(attr -> Integer.parseInt(((ExprLiteral) ((ToolValueAttribute) attr).getValue()).getText()))
+                .findAny().orElse(0);
+    }
+
+    /**
+     * True for an actor machine whose transitions all have the same rates
+     */
+    private boolean synchronous(Entity entity) {
+        if (!(entity instanceof ActorMachine)) {
+            return false;
+        }
+        List<Transition> transitions = ((ActorMachine) entity).getTransitions();
+        if (transitions.isEmpty()) {
+            return false;
+        }
+        Map<String, Integer> inputs = rates(transitions.get(0).getInputRates());
+        Map<String, Integer> outputs = rates(transitions.get(0).getOutputRates());
+        return transitions.stream().allMatch(t ->
+                rates(t.getInputRates()).equals(inputs) && rates(t.getOutputRates()).equals(outputs));
+    }
+
+    private Map<String, Integer> rates(Map<Port, Integer> rates) {
+        Map<String, Integer> result = new HashMap<>();
+        for (Map.Entry<Port, Integer> entry : rates.entrySet()) {
+            if (entry.getValue() > 0) {
+                result.merge(entry.getKey().getName(), entry.getValue(), Integer::sum);
+            }
+        }
+        return result;
+    }
+
+    private long rate(GlobalNames globalNames, Instance instance, String port, boolean input) {
+        ActorMachine actorMachine = (ActorMachine) globalNames.entityDecl(instance.getEntityName(), true).getEntity();
+        Transition transition = actorMachine.getTransitions().get(0);
+        return rates(input ? transition.getInputRates() : transition.getOutputRates()).getOrDefault(port, 0);
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
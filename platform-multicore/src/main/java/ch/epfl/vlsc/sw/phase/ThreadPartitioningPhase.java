@@ -0,0 +1,386 @@
+package ch.epfl.vlsc.sw.phase;
+
+import ch.epfl.vlsc.settings.PlatformSettings;
+import org.multij.Binding;
+import org.multij.BindingKind;
+import org.multij.Module;
+import org.multij.MultiJ;
+import se.lth.cs.tycho.attribute.GlobalNames;
+import se.lth.cs.tycho.attribute.Types;
+import se.lth.cs.tycho.compiler.CompilationTask;
+import se.lth.cs.tycho.compiler.Context;
+import se.lth.cs.tycho.ir.Port;
+import se.lth.cs.tycho.ir.ToolAttribute;
+import se.lth.cs.tycho.ir.ToolValueAttribute;
+import se.lth.cs.tycho.ir.entity.Entity;
+import se.lth.cs.tycho.ir.entity.am.ActorMachine;
+import se.lth.cs.tycho.ir.entity.am.Transition;
+import se.lth.cs.tycho.ir.expr.ExprLiteral;
+import se.lth.cs.tycho.ir.network.Connection;
+import se.lth.cs.tycho.ir.network.Instance;
+import se.lth.cs.tycho.ir.network.Network;
+import se.lth.cs.tycho.ir.util.ImmutableList;
+import se.lth.cs.tycho.phase.Phase;
+import se.lth.cs.tycho.reporting.CompilationException;
+import se.lth.cs.tycho.reporting.Diagnostic;
+import se.lth.cs.tycho.settings.Setting;
+import se.lth.cs.tycho.type.*;
+
+import java.util.*;
+
+/**
+ * Maps the instances of the network to the threads of the multicore runtime.
+ *
+ * The static work of an instance is estimated from its actor machine, every transition
+ * costs one plus the number of tokens it consumes and produces. The weight of a connection
+ * is the number of bytes its source produces in one firing, i.e. the token size times the
+ * largest output rate of the source port.
+ *
+ * The instances are first cut in contiguous chunks of equal work along a breadth first
+ * traversal of the network, so that pipelines stay together. The chunks are then refined
+ * greedily: each pass moves single instances, one at a time, to the partition that most
+ * reduces the bytes crossing partitions without exceeding the balance limit, and passes are
+ * repeated until no move is accepted. Only improving moves are made, there are no gain
+ * buckets, locked vertices or rollback as in Fiduccia-Mattheyses.
+ *
+ * The result is stored as a "thread" attribute on every instance and used by the backend
+ * for the generated configuration.xcf and the default partition of the instances, that the
+ * runtime maps to the processors it may run on.
+ */
+public class ThreadPartitioningPhase implements Phase {
+
+    public static final String THREAD = "thread";
+
+    /**
+     * Allowed load of a partition above the average, in percent
+     */
+    private static final int IMBALANCE = 5;
+
+    /**
+     * Bound on the number of refinement passes
+     */
+    private static final int PASSES = 16;
+
+    @Override
+    public String getDescription() {
+        return "Partitions the network into thread partitions of balanced static work.";
+    }
+
+    @Override
+    public List<Setting<?>> getPhaseSettings() {
+        return ImmutableList.of(PlatformSettings.threadPartitions);
+    }
+
+    @Override
+    public CompilationTask execute(CompilationTask task, Context context) throws CompilationException {
+        int threads = context.getConfiguration().isDefined(PlatformSettings.threadPartitions) ?
+                context.getConfiguration().get(PlatformSettings.threadPartitions) :
+                PlatformSettings.threadPartitions.defaultValue(context.getConfiguration());
+
+        Network network = task.getNetwork();
+        List<Instance> instances = network.getInstances();
+        if (threads <= 1 || instances.size() <= 1) {
+            return task;
+        }
+        threads = Math.min(threads, instances.size());
+
+        Estimator estimator = MultiJ.from(Estimator.class)
+                .bind("globalNames").to(task.getModule(GlobalNames.key))
+                .bind("types").to(task.getModule(Types.key))
+                .instance();
+
+        // -- Vertices
+        int n = instances.size();
+        Map<String, Integer> index = new HashMap<>();
+        long[] work = new long[n];
+        for (int v = 0; v < n; v++) {
+            index.put(instances.get(v).getInstanceName(), v);
+            work[v] = estimator.work(instances.get(v));
+        }
+
+        // -- Edges, parallel connections are merged
+        List<Map<Integer, Long>> edges = new ArrayList<>();
+        List<List<Integer>> successors = new ArrayList<>();
+        boolean[] hasInput = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            edges.add(new LinkedHashMap<>());
+            successors.add(new ArrayList<>());
+        }
+        for (Connection connection : network.getConnections()) {
+            if (!connection.getSource().getInstance().isPresent() || !connection.getTarget().getInstance().isPresent()) {
+                continue;
+            }
+            int source = index.get(connection.getSource().getInstance().get());
+            int target = index.get(connection.getTarget().getInstance().get());
+            hasInput[target] = true;
+            if (source == target) {
+                continue;
+            }
+            long weight = estimator.tokenBytes(estimator.types().connectionType(network, connection)) *
+                    estimator.outputRate(instances.get(source), connection.getSource().getPort());
+            edges.get(source).merge(target, weight, Long::sum);
+            edges.get(target).merge(source, weight, Long::sum);
+            successors.get(source).add(target);
+        }
+
+        List<Integer> order = traversal(hasInput, successors);
+        int[] partition = chunks(order, work, threads);
+        long limit = refine(order, partition, work, edges, threads);
+
+        // -- Report
+        long[] load = new long[threads];
+        long cut = 0;
+        for (int v = 0; v < n; v++) {
+            load[partition[v]] += work[v];
+            for (Map.Entry<Integer, Long> e : edges.get(v).entrySet()) {
+                if (partition[e.getKey()] != partition[v]) {
+                    cut += e.getValue();
+                }
+            }
+        }
+        context.getReporter().report(new Diagnostic(Diagnostic.Kind.INFO,
+                String.format("Mapped %d instances to %d threads, loads %s (limit %d), %d bytes cut per firing.",
+                        n, threads, Arrays.toString(load), limit, cut / 2)));
+
+        // -- Annotate the instances
+        ImmutableList.Builder<Instance> builder = ImmutableList.builder();
+        for (int v = 0; v < n; v++) {
+            Instance instance = instances.get(v);
+            ImmutableList.Builder<ToolAttribute> attributes = ImmutableList.builder();
+            attributes.addAll(instance.getAttributes().stream()
+                    .filter(attr -> !attr.getName().equals(THREAD))
+                    .map(ToolAttribute::deepClone)
+                    .collect(ImmutableList.collector()));
+            attributes.add(new ToolValueAttribute(THREAD,
+                    new ExprLiteral(ExprLiteral.Kind.Integer, String.valueOf(partition[v]))));
+            builder.add(instance.withAttributes(attributes.build()));
+        }
+        return task.withNetwork(network.withInstances(builder.build()));
+    }
+
+    /**
+     * Returns the thread an instance was mapped to, 0 if the network was not partitioned
+     *
+     * @param instance
+     * @return
+     */
+    public static int thread(Instance instance) {
+        return instance.getAttributes().stream()
+                .filter(attr -> attr.getName().equals(THREAD) && attr instanceof ToolValueAttribute)
+                .map(attr -> Integer.parseInt(((ExprLiteral) ((ToolValueAttribute) attr).getValue()).getText()))
+                .findAny().orElse(0);
+    }
+
+    /**
+     * Breadth first order starting from the instances without inputs, unreached instances (cycles) are
+     * appended in network order.
+     */
+    private List<Integer> traversal(boolean[] hasInput, List<List<Integer>> successors) {
+        int n = hasInput.length;
+        List<Integer> order = new ArrayList<>();
+        boolean[] visited = new boolean[n];
+        Deque<Integer> queue = new ArrayDeque<>();
+
+        for (int root = 0; root < n; root++) {
+            if (hasInput[root]) {
+                continue;
+            }
+            visited[root] = true;
+            queue.add(root);
+        }
+        for (int root = 0; root <= n; root++) {
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                order.add(v);
+                for (int s : successors.get(v)) {
+                    if (!visited[s]) {
+                        visited[s] = true;
+                        queue.add(s);
+                    }
+                }
+            }
+            if (root < n && !visited[root]) {
+                visited[root] = true;
+                queue.add(root);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Cuts the order in contiguous chunks of about equal work, every chunk gets at least one instance.
+     */
+    private int[] chunks(List<Integer> order, long[] work, int threads) {
+        int[] partition = new int[work.length];
+        long total = Arrays.stream(work).sum();
+        long done = 0;
+        int p = 0;
+
+        for (int i = 0; i < order.size(); i++) {
+            int v = order.get(i);
+            int remaining = order.size() - i;
+            boolean full = done + work[v] / 2 > total * (p + 1) / threads;
+            if (p < threads - 1 && (full || remaining == threads - p - 1) && i > 0) {
+                p++;
+            }
+            partition[v] = p;
+            done += work[v];
+        }
+        return partition;
+    }
+
+    /**
+     * Moves single instances between partitions while it reduces the cut without breaking the balance limit,
+     * or while it brings an overloaded partition under the limit. Returns the limit.
+     */
+    private long refine(List<Integer> order, int[] partition, long[] work, List<Map<Integer, Long>> edges, int threads) {
+        long[] load = new long[threads];
+        int[] size = new int[threads];
+        long total = 0;
+        long heaviest = 0;
+
+        for (int v = 0; v < work.length; v++) {
+            load[partition[v]] += work[v];
+            size[partition[v]]++;
+            total += work[v];
+            heaviest = Math.max(heaviest, work[v]);
+        }
+        long limit = Math.max(heaviest, (total * (100 + IMBALANCE) + 100L * threads - 1) / (100L * threads));
+
+        for (int pass = 0; pass < PASSES; pass++) {
+            boolean moved = false;
+            for (int v : order) {
+                int from = partition[v];
+                if (size[from] == 1) {
+                    continue;
+                }
+                long[] connected = new long[threads];
+                for (Map.Entry<Integer, Long> e : edges.get(v).entrySet()) {
+                    connected[partition[e.getKey()]] += e.getValue();
+                }
+                boolean overloaded = load[from] > limit;
+                int best = -1;
+                long bestGain = Long.MIN_VALUE;
+                for (int to = 0; to < threads; to++) {
+                    if (to == from || load[to] + work[v] > limit) {
+                        continue;
+                    }
+                    long gain = connected[to] - connected[from];
+                    boolean accept = overloaded || gain > 0 ||
+                            (gain == 0 && connected[to] > 0 && load[to] + work[v] < load[from]);
+                    if (accept && gain > bestGain) {
+                        best = to;
+                        bestGain = gain;
+                    }
+                }
+                if (best >= 0) {
+                    partition[v] = best;
+                    load[from] -= work[v];
+                    load[best] += work[v];
+                    size[from]--;
+                    size[best]++;
+                    moved = true;
+                }
+            }
+            if (!moved) {
+                break;
+            }
+        }
+        return limit;
+    }
+
+    @Module
+    interface Estimator {
+
+        @Binding(BindingKind.INJECTED)
+        GlobalNames globalNames();
+
+        @Binding(BindingKind.INJECTED)
+        Types types();
+
+        default Entity entity(Instance instance) {
+            return globalNames().entityDecl(instance.getEntityName(), true).getEntity();
+        }
+
+        default long work(Instance instance) {
+            return work(entity(instance));
+        }
+
+        default long work(Entity entity) {
+            return 1;
+        }
+
+        default long work(ActorMachine actorMachine) {
+            long work = 0;
+            for (Transition transition : actorMachine.getTransitions()) {
+                work += 1;
+                work += transition.getInputRates().values().stream().mapToInt(Integer::intValue).sum();
+                work += transition.getOutputRates().values().stream().mapToInt(Integer::intValue).sum();
+            }
+            return Math.max(work, 1);
+        }
+
+        default long outputRate(Instance instance, String port) {
+            return outputRate(entity(instance), port);
+        }
+
+        default long outputRate(Entity entity, String port) {
+            return 1;
+        }
+
+        default long outputRate(ActorMachine actorMachine, String port) {
+            int rate = 1;
+            for (Transition transition : actorMachine.getTransitions()) {
+                for (Map.Entry<Port, Integer> output : transition.getOutputRates().entrySet()) {
+                    if (output.getKey().getName().equals(port)) {
+                        rate = Math.max(rate, output.getValue());
+                    }
+                }
+            }
+            return rate;
+        }
+
+        /**
+         * Size in bytes of a token in the generated code, references for the types that are not passed by value
+         */
+        default long tokenBytes(Type type) {
+            return 8;
+        }
+
+        default long tokenBytes(BoolType type) {
+            return 1;
+        }
+
+        default long tokenBytes(CharType type) {
+            return 1;
+        }
+
+        default long tokenBytes(IntType type) {
+            if (type.getSize().isPresent()) {
+                int size = 8;
+                while (type.getSize().getAsInt() > size && size < 64) {
+                    size = size * 2;
+                }
+                return size / 8;
+            } else {
+                return 4;
+            }
+        }
+
+        default long tokenBytes(RealType type) {
+            return type.getSize() / 8;
+        }
+
+        default long tokenBytes(ListType type) {
+            if (type.getSize().isPresent()) {
+                return type.getSize().getAsInt() * tokenBytes(type.getElementType());
+            } else {
+                return 8;
+            }
+        }
+
+        default long tokenBytes(AliasType type) {
+            return tokenBytes(type.getType());
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package ch.epfl.vlsc.sw.platform;
 
 import ch.epfl.vlsc.phases.*;
+import ch.epfl.vlsc.sw.phase.ActorFusionPhase;
 import ch.epfl.vlsc.sw.phase.CreatePartitionLinkPhase;
 import ch.epfl.vlsc.sw.phase.MultiCoreBackendPhase;
+import ch.epfl.vlsc.sw.phase.SdfSchedulePhase;
+import ch.epfl.vlsc.sw.phase.ThreadPartitioningPhase;
 import se.lth.cs.tycho.compiler.Compiler;
 import se.lth.cs.tycho.ir.util.ImmutableList;
 import se.lth.cs.tycho.phase.*;
@@ -39,6 +42,9 @@ public class Multicore implements Platform {
             .add(new ExprOutputToAssignment())
             .add(new ExprToStmtAssignment())
             .add(new ListComprehensionToStmtWhile())
+            .add(new ThreadPartitioningPhase())
+            .add(new ActorFusionPhase())
+            .add(new SdfSchedulePhase())
             .add(new MultiCoreBackendPhase())
             .build();
 
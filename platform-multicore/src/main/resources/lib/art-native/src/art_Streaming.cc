@@ -6,7 +6,6 @@
 #include <errno.h>
 #include <sys/socket.h>
 #include <unistd.h>
-#include <semaphore.h>
 #include <netinet/in.h>
 #include <arpa/inet.h>
 #include <stdlib.h>
@@ -23,19 +22,6 @@ typedef struct {
     int size;
 } ActorInstance_art_Streaming;
 
-typedef struct cpu_runtime_data {
-    struct cpu_runtime_data *cpu; /* Pointer to first element in this list */
-    int cpu_count;
-    int cpu_index;
-
-    void *(*main)(struct cpu_runtime_data *, int);
-
-    pthread_t thread;
-    int physical_id; /* physical index of this cpu */
-    sem_t *sem;
-    int *sleep; // Odd value indicates thread sleeping
-} cpu_runtime_data_t;
-
 static const int exitcode_block_Out_1[] = {
         EXITCODE_BLOCK(1), 0, 1
 };
@@ -84,10 +70,8 @@ ART_ACTION_SCHEDULER(art_Streaming_action_scheduler) {
 static void wakeup_me(void *instance) {
     if (instance) {
         ActorInstance_art_Streaming *thisActor = (ActorInstance_art_Streaming *) instance;
-        cpu_runtime_data_t *cpu = (cpu_runtime_data_t *) thisActor->base.cpu;
         // wake me up if I'm sleeping
-        if (*cpu->sleep & 1)
-            sem_post(cpu->sem);
+        wakeupActorThread(&thisActor->base);
     }
 }
 
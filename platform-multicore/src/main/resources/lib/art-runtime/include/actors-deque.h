@@ -0,0 +1,114 @@
+#ifndef _ACTORS_DEQUE_H
+#define _ACTORS_DEQUE_H
+
+#include <stdlib.h>
+#include <stdatomic.h>
+#include "actors-rts.h"
+
+/*
+ * Work-stealing deque of ready actors (Chase-Lev, with the C11 memory
+ * orderings from Le et al., "Correct and Efficient Work-Stealing for Weak
+ * Memory Models", PPoPP 2013).
+ *
+ * The owner thread pushes and takes at the bottom, thieves steal from the
+ * top. An actor is queued at most once in the whole runtime (see the ready
+ * state in AbstractActorInstance), so a capacity equal to the number of
+ * actors is sufficient and the buffer never has to grow.
+ *
+ * The slots are written with release and read with acquire semantics, so
+ * that the state of an actor is handed over together with the actor.
+ */
+
+typedef struct art_deque {
+    atomic_long top;
+    char pad0[CACHE_LINE_SIZE - sizeof(atomic_long)];
+    atomic_long bottom;
+    char pad1[CACHE_LINE_SIZE - sizeof(atomic_long)];
+    long mask;
+    _Atomic(AbstractActorInstance *) *buffer;
+} art_deque_t;
+
+static inline art_deque_t *art_deque_create(int capacity) {
+    art_deque_t *q;
+    long size = 1;
+
+    while (size < capacity) {
+        size <<= 1;
+    }
+    if (posix_memalign((void **) &q, CACHE_LINE_SIZE, sizeof(*q)) != 0) {
+        return NULL;
+    }
+    atomic_init(&q->top, 0);
+    atomic_init(&q->bottom, 0);
+    q->mask = size - 1;
+    q->buffer = calloc(size, sizeof(*q->buffer));
+    return q;
+}
+
+static inline void art_deque_destroy(art_deque_t *q) {
+    free(q->buffer);
+    free(q);
+}
+
+/* Owner only */
+static inline void art_deque_push(art_deque_t *q, AbstractActorInstance *actor) {
+    long b = atomic_load_explicit(&q->bottom, memory_order_relaxed);
+
+    atomic_store_explicit(&q->buffer[b & q->mask], actor, memory_order_release);
+    atomic_thread_fence(memory_order_release);
+    atomic_store_explicit(&q->bottom, b + 1, memory_order_relaxed);
+}
+
+/* Owner only, returns NULL when empty */
+static inline AbstractActorInstance *art_deque_take(art_deque_t *q) {
+    long b = atomic_load_explicit(&q->bottom, memory_order_relaxed) - 1;
+    long t;
+    AbstractActorInstance *actor = NULL;
+
+    atomic_store_explicit(&q->bottom, b, memory_order_relaxed);
+    atomic_thread_fence(memory_order_seq_cst);
+    t = atomic_load_explicit(&q->top, memory_order_relaxed);
+    if (t <= b) {
+        actor = atomic_load_explicit(&q->buffer[b & q->mask], memory_order_acquire);
+        if (t == b) {
+            // Last element, race against thieves
+            if (!atomic_compare_exchange_strong_explicit(&q->top, &t, t + 1,
+                                                         memory_order_seq_cst,
+                                                         memory_order_relaxed)) {
+                actor = NULL;
+            }
+            atomic_store_explicit(&q->bottom, b + 1, memory_order_relaxed);
+        }
+    } else {
+        atomic_store_explicit(&q->bottom, b + 1, memory_order_relaxed);
+    }
+    return actor;
+}
+
+/* Any thread, returns NULL when empty or when losing a race */
+static inline AbstractActorInstance *art_deque_steal(art_deque_t *q) {
+    long t = atomic_load_explicit(&q->top, memory_order_acquire);
+    long b;
+    AbstractActorInstance *actor = NULL;
+
+    atomic_thread_fence(memory_order_seq_cst);
+    b = atomic_load_explicit(&q->bottom, memory_order_acquire);
+    if (t < b) {
+        actor = atomic_load_explicit(&q->buffer[t & q->mask], memory_order_acquire);
+        if (!atomic_compare_exchange_strong_explicit(&q->top, &t, t + 1,
+                                                     memory_order_seq_cst,
+                                                     memory_order_relaxed)) {
+            actor = NULL;
+        }
+    }
+    return actor;
+}
+
+static inline int art_deque_empty(art_deque_t *q) {
+    long t = atomic_load_explicit(&q->top, memory_order_acquire);
+    long b = atomic_load_explicit(&q->bottom, memory_order_acquire);
+
+    return b <= t;
+}
+
+#endif
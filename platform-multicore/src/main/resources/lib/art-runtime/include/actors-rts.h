@@ -130,6 +130,7 @@ typedef struct LocalContext {
     int pos;
     int count;
     int available;
+    int peak;      // Highest FIFO occupancy seen before firing, see --with-bandwidth
 } LocalContext;
 
 
@@ -161,6 +162,7 @@ struct InputPort {
     void *buffer;
     unsigned capacity;
     const OutputPort *writer;
+    int inner;     // Written by an actor of the same fused chain, see art_fire
 };
 
 struct OutputPort {
@@ -174,6 +176,7 @@ struct OutputPort {
     unsigned capacity;
     int readers;
     InputPort **reader;
+    int inner;     // Only read by actors of the same fused chain
 };
 
 typedef struct {
@@ -194,12 +197,14 @@ struct AbstractActorInstance {
     ActorClass *actor;                    //actor
     char *name;
     int cpu_index;       // The CPU where this actor currently resides
+    int local_index;     // Index in the actor list of that CPU
     int outputs;
     OutputPort *output;
     int inputs;
     InputPort *input;
     int fired;
     int terminated;
+    int loopmax;         // Firing budget of a call to the action scheduler
     long long nloops;
     unsigned long long total;
     int firstActionIndex;
@@ -210,6 +215,10 @@ struct AbstractActorInstance {
     FILE *infoFile;
     int *cpu; // For active actor to wakeup the sleeping thread
     int profiling_factor;
+    atomic_value_t ready; // Ready state, only used by the work-stealing scheduler
+    AbstractActorInstance *fused_head; // First actor of its fused chain, itself when not fused
+    AbstractActorInstance *fused_next; // Fired right after this actor, NULL at the end of a chain
+    int repetitions;     // Firings per iteration of the static schedule of its region, 0 when dynamic
 };
 
 typedef struct {
@@ -295,6 +304,8 @@ struct ActorClass {
     int numStateVariables; //! the number of the state variables
 
     const StateVariableDescription *stateVariableDescription; //! state variable description array
+
+    int (*static_fire)(AbstractActorInstance *, int); //! fires a number of times without the action scheduler, NULL when it cannot
 };
 
 typedef struct{
@@ -334,7 +345,7 @@ typedef struct{
 } OpCounters;
 
 /*!
- * \brief Creates an ActorClass initializer
+ * \brief Fields of an ActorClass initializer, see INIT_ActorClass
  * \param aClassName the actor class name
  * \param instance_t ActorInstance
  * \param ctor constructor
@@ -351,19 +362,18 @@ typedef struct{
  * \param conditionDescr conditions description
  * \param nStateVariables number of state variables
  * \param stateVariableDescr state variable description
- * \return an initilized ActorClass
  */
-#define INIT_ActorClass(aClassName, \
-                        instance_t, \
-                        ctor, \
-                        setParam, \
-                        sched, \
-                        dtor, \
-                        nInputs, inputDescr, \
-                        nOutputs, outputDescr, \
-                        nActions, actionDescr, \
-                        nConditions, conditionDescr, \
-                        nStateVariables, stateVariableDescr) { \
+#define ART_ACTOR_CLASS_FIELDS(aClassName, \
+                               instance_t, \
+                               ctor, \
+                               setParam, \
+                               sched, \
+                               dtor, \
+                               nInputs, inputDescr, \
+                               nOutputs, outputDescr, \
+                               nActions, actionDescr, \
+                               nConditions, conditionDescr, \
+                               nStateVariables, stateVariableDescr) \
     .name=aClassName,                             \
     .numInputPorts=nInputs,                       \
     .numOutputPorts=nOutputs,                     \
@@ -380,7 +390,24 @@ typedef struct{
     .numConditions=nConditions,                   \
     .conditionDescription=conditionDescr,         \
     .numStateVariables=nStateVariables,           \
-    .stateVariableDescription= stateVariableDescr \
+    .stateVariableDescription= stateVariableDescr
+
+/*!
+ * \brief Creates an ActorClass initializer, from the arguments of
+ * ART_ACTOR_CLASS_FIELDS
+ * \return an initilized ActorClass
+ */
+#define INIT_ActorClass(...) { ART_ACTOR_CLASS_FIELDS(__VA_ARGS__) }
+
+/*!
+ * \brief Creates the initializer of an ActorClass that can also fire its
+ * instances without the action scheduler, see ART_STATIC_FIRE
+ * \param staticFire the static fire function
+ * \return an initilized ActorClass
+ */
+#define INIT_StaticActorClass(staticFire, ...) { \
+    ART_ACTOR_CLASS_FIELDS(__VA_ARGS__),         \
+    .static_fire=staticFire                      \
   }
 
 // Action-scheduler exit code (first element of array)
@@ -442,6 +469,8 @@ extern void setParameterBytes(AbstractActorInstance *pInstance,
                               const void *value,
                               int size);
 
+extern void wakeupActorThread(AbstractActorInstance *instance);
+
 extern unsigned int timestamp();
 
 #define ART_INPUT(index) &(context->input[index])
@@ -472,6 +501,14 @@ extern unsigned int timestamp();
   static const int *name(AbstractActorInstance *pBase,        \
              int maxloops)
 
+/*
+ * Fires an actor the given number of times, when its ports allow all of
+ * them, without testing its conditions in between. Returns the number of
+ * firings, 0 when it has not fired and the action scheduler has to run.
+ */
+#define ART_STATIC_FIRE(name)                    \
+  static int name(AbstractActorInstance *pBase, int firings)
+
 #define ART_ACTION_SCHEDULER_ENTER(numInputs, numOutputs)        \
   art_action_context_t theContext;                    \
   art_action_context_t *context = &theContext;                \
@@ -540,6 +577,116 @@ extern unsigned int timestamp();
 #define ART_TEST_CONDITION(name)         \
   name(context, thisActor)
 
+/*
+ * Table-driven controllers, generated for actor machines with many states:
+ * every state has one instruction, a test of a condition, the execution of
+ * a transition, or a wait, and the scopes it initializes first
+ */
+#define ART_CONTROLLER_TEST 0
+#define ART_CONTROLLER_EXEC 1
+#define ART_CONTROLLER_WAIT 2
+
+typedef struct {
+    int kind;             // ART_CONTROLLER_TEST, _EXEC or _WAIT
+    int index;            // condition or transition
+    int target;           // next state, when the condition holds for a test
+    int target_false;     // next state when the condition does not hold,
+                          // for a wait 1 when it terminates the actor
+    int init_first;       // scopes to initialize, in the scope table
+    int init_count;
+    const int *exit_code; // exit code when the condition does not hold
+} art_controller_state_t;
+
+/*
+ * Firings left of a batch while a port condition on n tokens (or places)
+ * still holds, when each firing takes rate of the available ones
+ */
+static inline int art_batch_limit(int batch, int available, int n, int rate) {
+    int fits = available < n ? 0 : (available - n) / rate + 1;
+    return fits < batch ? fits : batch;
+}
+
+/*
+ * Allocator of the values of algebraic types: freed blocks up to
+ * ART_POOL_CLASSES * ART_POOL_GRANULE bytes are kept on a list per size
+ * class and thread, at most ART_POOL_DEPTH per list, and reused before
+ * calling calloc again. A block can be freed by another thread than the
+ * one that allocated it, it then goes to the lists of that thread.
+ */
+#define ART_POOL_GRANULE 16
+#define ART_POOL_CLASSES 16
+#define ART_POOL_DEPTH   256
+
+#if defined(_MSC_VER)
+#define ART_THREAD_LOCAL __declspec(thread)
+#else
+#define ART_THREAD_LOCAL __thread
+#endif
+
+typedef struct art_pool_block {
+    struct art_pool_block *next;
+} art_pool_block_t;
+
+typedef struct {
+    art_pool_block_t *free[ART_POOL_CLASSES];
+    int count[ART_POOL_CLASSES];
+} art_pool_t;
+
+extern ART_THREAD_LOCAL art_pool_t art_pool;
+
+static inline void *art_pool_calloc(size_t size) {
+    size_t c = (size - 1) / ART_POOL_GRANULE;
+    if (size == 0 || c >= ART_POOL_CLASSES) {
+        return calloc(1, size);
+    }
+    art_pool_block_t *block = art_pool.free[c];
+    if (!block) {
+        return calloc(1, (c + 1) * ART_POOL_GRANULE);
+    }
+    art_pool.free[c] = block->next;
+    art_pool.count[c]--;
+    memset(block, 0, size);
+    return block;
+}
+
+static inline void art_pool_free(void *p, size_t size) {
+    size_t c = (size - 1) / ART_POOL_GRANULE;
+    if (!p) {
+        return;
+    }
+    if (size == 0 || c >= ART_POOL_CLASSES || art_pool.count[c] >= ART_POOL_DEPTH) {
+        free(p);
+        return;
+    }
+    art_pool_block_t *block = (art_pool_block_t *) p;
+    block->next = art_pool.free[c];
+    art_pool.free[c] = block;
+    art_pool.count[c]++;
+}
+
+/*
+ * Hash functions of the generated sets and maps: art_hash_mix scrambles
+ * a scalar key, art_hash_bytes is FNV-1a over a serialized one.
+ */
+static inline uint32_t art_hash_mix(uint64_t x) {
+    x ^= x >> 33;
+    x *= 0xff51afd7ed558ccdULL;
+    x ^= x >> 33;
+    x *= 0xc4ceb9fe1a85ec53ULL;
+    x ^= x >> 33;
+    return (uint32_t) x;
+}
+
+static inline uint32_t art_hash_bytes(const void *data, size_t length) {
+    const unsigned char *bytes = (const unsigned char *) data;
+    uint32_t hash = 2166136261u;
+    for (size_t i = 0; i < length; i++) {
+        hash ^= bytes[i];
+        hash *= 16777619u;
+    }
+    return hash;
+}
+
 #ifdef TRACE
 #define ART_ACTION_ENTER(name, index)   \
   context->fired++; \
@@ -209,9 +209,47 @@ static int pthread_setaffinity_np(pthread_t thread, size_t cpu_size,
 #define art_semaphore_destroy(semaphore) sem_destroy(semaphore)
 #define art_semaphore_t sem_t
 
+#ifdef __linux__
+
+#include <linux/futex.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+
+// Futex, sleep on a 32-bit word as long as it holds the expected value
+#define ART_HAVE_FUTEX 1
+#define art_futex_wait(address, value) syscall(SYS_futex, (address), FUTEX_WAIT_PRIVATE, (value), NULL, NULL, 0)
+#define art_futex_wake(address, number) syscall(SYS_futex, (address), FUTEX_WAKE_PRIVATE, (number), NULL, NULL, 0)
+
+#include <linux/mempolicy.h>
+#include <sys/mman.h>
+
+// NUMA, set the memory policy of a page aligned range before its first touch
+#define ART_HAVE_NUMA 1
+#define art_mbind(address, length, mode, nodemask, maxnode) syscall(SYS_mbind, (address), (length), (mode), (nodemask), (maxnode), 0)
+
+// Huge pages, log2size is 21 for 2MB and 30 for 1GB pages
+#ifdef MAP_HUGETLB
+#define ART_HAVE_HUGE_PAGES 1
+#ifndef MAP_HUGE_SHIFT
+#define MAP_HUGE_SHIFT 26
+#endif
+#define art_mmap_huge(length, log2size) mmap(NULL, (length), PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS | MAP_HUGETLB | ((log2size) << MAP_HUGE_SHIFT), -1, 0)
 #endif
 
 #endif
 
+#endif
+
+#endif
+
+// Spin-wait hint, yields the pipeline to the other hardware thread of the core
+#if defined(__x86_64__) || defined(__i386__)
+#define art_cpu_relax() __builtin_ia32_pause()
+#elif defined(__aarch64__) || defined(__arm__)
+#define art_cpu_relax() __asm__ __volatile__("yield" ::: "memory")
+#else
+#define art_cpu_relax() __asm__ __volatile__("" ::: "memory")
+#endif
+
 
 #endif //_ART_THREAD_H
@@ -0,0 +1,220 @@
+#include "actors-rts.h"
+#include "actors-deque.h"
+
+#ifdef TIMING_PROBES
+
+#define DECLARE_TIMEBASE(t) ticks t;
+#define CLEAR_TIMER(timer) *timer = 0;
+#define INIT_TIMEBASE(tb) *tb = getticks();
+#define ADD_TIMER(timer, tb) add_timer(timer, tb);
+
+#else
+
+#define DECLARE_TIMEBASE(t)
+#define CLEAR_TIMER(timer) *timer = 0;
+#define INIT_TIMEBASE(tb)
+#define ADD_TIMER(timer, tb)
+
+#endif
+
+/*
+ * Work-stealing variant of EXECUTE_NETWORK.
+ *
+ * Instead of polling a fixed set of actors, each thread takes ready actors
+ * from its own deque and, when that is empty, steals from the deques of the
+ * other threads. An actor becomes ready when a neighbor commits a change to
+ * one of the FIFOs it reads or writes (see ws_notify_actor), so a thread
+ * only fires actors that may have something to do, wherever they were
+ * initially placed.
+ *
+ * Termination: ws_pending counts the actors that are queued or running. It
+ * can only reach zero when no actor may fire anymore (only a running actor
+ * can make another actor ready), at which point all threads are released.
+ */
+static void *EXECUTE_NETWORK(cpu_runtime_data_t *runtime,
+                             int loopmax) {
+    int i, j, k;
+    cpu_runtime_data_t *cpu = runtime->cpu;
+    int this_cpu = runtime->cpu_index;
+    DECLARE_TIMEBASE(t1);
+    DECLARE_TIMEBASE(t2);
+    DECLARE_TIMEBASE(t3);
+    statistics_t statistics;
+
+    if (cb_register_thread)
+        cb_register_thread(this_cpu);
+
+    CLEAR_TIMER(&statistics.prefire);
+    CLEAR_TIMER(&statistics.read_barrier);
+    CLEAR_TIMER(&statistics.fire);
+    CLEAR_TIMER(&statistics.write_barrier);
+    CLEAR_TIMER(&statistics.postfire);
+    CLEAR_TIMER(&statistics.sync_unblocked);
+    CLEAR_TIMER(&statistics.sync_blocked);
+    CLEAR_TIMER(&statistics.sync_sleep);
+    CLEAR_TIMER(&statistics.total);
+    statistics.nspin = 0;
+    statistics.nyield = 0;
+    statistics.nsleep = 0;
+    statistics.nloops = 0;
+    statistics.nsteal = 0;
+
+    // -- Call actor constructor, and queue the initial actors of this thread,
+    //    a fused chain through its first actor
+    for (i = 0; i < runtime->actors; i++) {
+        runtime->actor[i]->actor->constructor(runtime->actor[i]);
+        if (runtime->actor[i]->fused_head == runtime->actor[i]) {
+            art_deque_push(runtime->deque, runtime->actor[i]);
+        }
+    }
+
+    // -- Actors may be stolen as soon as other threads start, so wait until
+    //    every constructor has run
+    atomic_fetch_add(&ws_started, 1);
+    while (atomic_load(&ws_started) < runtime->cpu_count) {
+        sched_yield();
+    }
+
+    INIT_TIMEBASE(&t1);
+    INIT_TIMEBASE(&t2);
+
+    while (!atomic_load_explicit(&ws_terminate, memory_order_relaxed)) {
+        AbstractActorInstance *actor, *head, *a;
+        const int *result;
+        int iteration, progress, fired, terminated, active;
+
+        actor = art_deque_take(runtime->deque);
+        if (!actor) {
+            actor = ws_steal(runtime);
+            if (actor) {
+                statistics.nsteal++;
+            }
+        }
+        ADD_TIMER(&statistics.sync_unblocked, &t1);
+
+        if (!actor) {
+            // Nothing to do anywhere, park until some thread queues an actor
+            ws_park(runtime, &statistics);
+            ADD_TIMER(&statistics.sync_sleep, &t1);
+            continue;
+        }
+
+        statistics.nloops++;
+        atomic_store(&actor->ready.value, ACTOR_RUNNING);
+
+        // Fire the actor, or its chain: one pass, or iterations of the
+        // static schedule of the chain, see actors_execute_network.h
+        head = actor;
+        iteration = 0;
+        fired = 0;
+        do {
+
+            progress = 0;
+            // Determine how much data can be read/written
+            art_prefire_chain(head);
+            ADD_TIMER(&statistics.prefire, &t1);
+            READ_BARRIER();
+            ADD_TIMER(&statistics.read_barrier, &t1);
+
+            for (a = head; a; a = a->fused_next) {
+                if (a->terminated) {
+                    continue;
+                }
+                INIT_TIMEBASE(&t3);
+                result = art_fire(a, head);
+                ADD_TIMER(&a->total, &t3);
+                a->nloops++;
+                if (arg_loopmin && !head->repetitions) {
+                    adapt_loopmax(a);
+                }
+                if (result == EXITCODE_TERMINATE) {
+                    a->terminated = 1;
+                    if (a->actor->actorExecMode == 1)
+                        numActiveActors--;
+                }
+            }
+            ADD_TIMER(&statistics.fire, &t1);
+
+            // Make all buffer writes visible before the counts
+            WRITE_BARRIER();
+            ADD_TIMER(&statistics.write_barrier, &t1);
+
+            for (a = head; a; a = a->fused_next) {
+                if (!a->fired) {
+                    continue;
+                }
+                fired = 1;
+                progress = 1;
+                for (j = 0; j < a->inputs; j++) {
+                    InputPort *input = &a->input[j];
+                    int count = input->local->count;
+
+                    if (!count) {
+                        continue;
+                    }
+                    atomic_set(&input->shared->count,
+                               atomic_get(&input->shared->count) + count);
+                    // Space was freed for the writer
+                    ws_notify_actor(runtime, input->writer->actor);
+                }
+                for (j = 0; j < a->outputs; j++) {
+                    OutputPort *output = &a->output[j];
+                    int count = output->local->count;
+
+                    if (!count) {
+                        continue;
+                    }
+                    output->local->count = 0;
+                    atomic_set(&output->shared->count,
+                               atomic_get(&output->shared->count) + count);
+                    // Tokens were produced for the readers
+                    for (k = 0; k < output->readers; k++) {
+                        ws_notify_actor(runtime, output->reader[k]->actor);
+                    }
+                }
+            }
+            iteration++;
+        } while (head->repetitions && progress &&
+                 iteration < head->loopmax / head->repetitions);
+
+        // The chain is done when all its actors are, and may fire again
+        // when one of them has fired or is active
+        terminated = 1;
+        active = 0;
+        for (a = head; a; a = a->fused_next) {
+            terminated = terminated && a->terminated;
+            active = active || (!a->terminated && a->actor->actorExecMode == 1);
+        }
+
+        if (terminated) {
+            atomic_store(&actor->ready.value, ACTOR_TERMINATED);
+            ws_retire(runtime);
+        } else if (fired || active) {
+            // May fire again (yield or loopmax reached), active actors are
+            // always polled since they are fed from outside the network
+            atomic_store(&actor->ready.value, ACTOR_QUEUED);
+            ws_queue(runtime, actor);
+        } else {
+            int expected = ACTOR_RUNNING;
+
+            if (atomic_compare_exchange_strong(&actor->ready.value, &expected, ACTOR_IDLE)) {
+                ws_retire(runtime);
+            } else {
+                // A neighbor changed one of our FIFOs while firing
+                atomic_store(&actor->ready.value, ACTOR_QUEUED);
+                ws_queue(runtime, actor);
+            }
+        }
+        ADD_TIMER(&statistics.postfire, &t1);
+    }
+
+    ADD_TIMER(&statistics.total, &t2);
+    cpu[this_cpu].statistics = statistics;
+
+    return NULL;
+}
+
+#undef CLEAR_TIMER
+#undef DECLARE_TIMEBASE
+#undef INIT_TIMEBASE
+#undef ADD_TIMER
@@ -40,6 +40,7 @@
 #define _INTERNAL_H
 
 #include <stdio.h>
+#include <stdatomic.h>
 #include "actors-thread.h"
 #include "cycle.h"
 #include <zlib.h>
@@ -76,10 +77,27 @@ typedef struct {
     art_timer_t sync_blocked;
     art_timer_t sync_sleep;
     art_timer_t total;
+    long long nspin;  // woken while spinning, see --idle-spin
+    long long nyield; // woken while yielding, see --idle-yield
     long long nsleep;
     long long nloops;
+    long long nsteal;
 } statistics_t;
 
+/*
+ * Ready state of an actor, work-stealing scheduler:
+ *   IDLE       not queued, waits for a neighbor to change one of its FIFOs
+ *   QUEUED     in exactly one of the per-thread deques
+ *   RUNNING    popped by a thread, being fired
+ *   DIRTY      running, and a neighbor changed one of its FIFOs meanwhile
+ *   TERMINATED the actor scheduler returned EXITCODE_TERMINATE
+ */
+#define ACTOR_IDLE          0
+#define ACTOR_QUEUED        1
+#define ACTOR_RUNNING       2
+#define ACTOR_DIRTY         3
+#define ACTOR_TERMINATED    4
+
 
 typedef struct cpu_runtime_data {
     struct cpu_runtime_data *cpu; /* Pointer to first element in this list */
@@ -94,13 +112,15 @@ typedef struct cpu_runtime_data {
     art_semaphore_t *sem;
 
     int *sleep; // Odd value indicates thread sleeping
-    int quiescent_at; // Does this need to be cache_aligned?
+    atomic_uint *event; // Event count, see art_event_prepare in actors-rts.c
     struct SharedContext *shared;
     struct LocalContext *local;
     int actors;
     struct AbstractActorInstance **actor; /* Pointer to actors for this cpu */
     void *actor_data;
-    int *has_affected;
+    int *has_affected; // Written and read by this cpu only
+    atomic_ulong *ready; /* Actors with changed FIFOs, data-driven scheduler only */
+    struct art_deque *deque; /* Ready actors, work-stealing scheduler only */
     statistics_t statistics;
     FILE *traceFile;
     gzFile *traceTurnusFile;
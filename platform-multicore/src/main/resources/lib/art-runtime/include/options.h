@@ -6,11 +6,22 @@
 extern "C" {
 #endif
 
+// -- Actor scheduling strategies of the multi-threaded runtime
+#define ART_SCHEDULER_ROUND_ROBIN   0
+#define ART_SCHEDULER_WORK_STEALING 1
+#define ART_SCHEDULER_DATA_DRIVEN   2
+
+// -- Pages backing the FIFO buffers
+#define ART_HUGE_PAGES_OFF 0
+#define ART_HUGE_PAGES_2M  1
+#define ART_HUGE_PAGES_1G  2
+
 typedef struct{
     int flags;
     int show_timing;
     int show_statistics;
     int arg_loopmax;
+    int arg_loopmin;
     char *generateFileName;
     char *configFilename;
     int with_complexity;
@@ -31,6 +42,14 @@ typedef struct{
     // -- buffer related
     int buffer_depth;
     int no_cfile_connections;
+    int huge_pages;
+    // -- scheduler related
+    int scheduler;
+    int num_threads;
+    int rebalance_period;
+    // -- idle policy
+    int idle_spin;
+    int idle_yield;
 } RuntimeOptions;
 
 void show_usage(char *name);
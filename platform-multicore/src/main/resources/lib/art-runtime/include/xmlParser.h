@@ -41,6 +41,7 @@
 
 #define MAX_NUM_SERVICE_LEVELS     10
 #define MAX_NUM_BMDISTRIBUTIONS    32
+#define MAX_PARTITIONS             1024
 
 typedef struct _affinityID {
     char *name;
@@ -63,6 +64,7 @@ typedef struct _scheduleID {
 extern AffinityID instanceAfinity[];
 extern ConnectID connects[];
 extern int numPartitions;
+extern int partitionNode[];  // NUMA node of each partition, -1 when not given
 
 extern int xmlParser(char *, int);
 
@@ -16,12 +16,14 @@
 #include "xmlParser.h"
 #include "jsonTrace.h"
 #include "internal.h"
+#include "actors-deque.h"
 #include <time.h>
 #include <sys/time.h>
 
 #define DEFAULT_FIFO_LENGTH    4096
 
 static int arg_loopmax = INT_MAX;
+static int arg_loopmin;         // zero for a fixed budget, see adapt_loopmax
 /*
  * Memory organization for runtime:
  *
@@ -66,12 +68,16 @@ static struct {
     int local_bytes;
     int shared_bytes;
     int buffer_bytes;
+    int numa_nodes;
+    int huge_page_bytes;
 } memory_statistics;
 
 
 const int exit_code_terminate[1] = {-1};
 const int exit_code_yield[1] = {-2};
 
+ART_THREAD_LOCAL art_pool_t art_pool;
+
 /*
  * Error reporting
  */
@@ -213,70 +219,809 @@ void enable_turnus_tracing(cpu_runtime_data_t *runtime,
  * Create runtime instances for all needed special cases
  */
 
-static pthread_mutex_t mutex;
-static int sleepers;
-static int curr_sleep_event;
-static int terminate;
+static atomic_int sleepers;     // threads committed to sleep and not yet woken
+static atomic_int terminate;
+static int scheduler_ws;        // the work-stealing scheduler is running
+
+/*
+ * Per-cpu event counts, the sleep/wake protocol of the round-robin scheduler.
+ *
+ * Bit 0 of the event count is the waiter flag, the remaining bits count the
+ * wake-ups. A thread that did not fire any actor prepares to sleep by setting
+ * the waiter flag, then polls its actors once more and either cancels (some
+ * actor fired) or commits and sleeps until the count changes. A thread that
+ * has changed a FIFO connected to another cpu notifies that cpu: if its
+ * waiter flag is set the count is bumped, which also clears the flag, and
+ * the sleeper is woken. No lock is taken and only the affected cpus are
+ * looked at.
+ *
+ * Termination: sleepers counts the committed threads, the notifier removes
+ * a woken thread from the count on its behalf before it can commit itself.
+ * Hence the count can only reach the number of cpus when every thread has
+ * polled all of its actors after the last FIFO change it could see, i.e.
+ * when the network is quiescent.
+ */
+
+#define ART_EVENT_WAITER 1u
+
+static unsigned art_event_prepare(cpu_runtime_data_t *runtime) {
+    return atomic_fetch_or(runtime->event, ART_EVENT_WAITER) | ART_EVENT_WAITER;
+}
+
+static void art_event_cancel(cpu_runtime_data_t *runtime, unsigned key) {
+    unsigned expected = key;
+
+    if (!atomic_compare_exchange_strong(runtime->event, &expected, key & ~ART_EVENT_WAITER)) {
+        // Notified meanwhile, and removed from sleepers by the notifier
+        atomic_fetch_add(&sleepers, 1);
+#ifndef ART_HAVE_FUTEX
+        art_semaphore_wait(runtime->sem);
+#endif
+    }
+}
+
+static void art_event_notify(cpu_runtime_data_t *cpu) {
+    unsigned value = atomic_load_explicit(cpu->event, memory_order_relaxed);
+
+    if ((value & ART_EVENT_WAITER) &&
+        atomic_compare_exchange_strong(cpu->event, &value,
+                                       (value + 2) & ~ART_EVENT_WAITER)) {
+        atomic_fetch_sub(&sleepers, 1);
+#ifdef ART_HAVE_FUTEX
+        art_futex_wake(cpu->event, 1);
+#else
+        art_semaphore_set(cpu->sem);
+#endif
+    }
+}
+
+static void art_event_terminate(cpu_runtime_data_t *runtime) {
+    int i;
+
+    atomic_store(&terminate, 1);
+    for (i = 0; i < runtime->cpu_count; i++) {
+        cpu_runtime_data_t *cpu = &runtime->cpu[i];
+
+        atomic_fetch_add(cpu->event, 2);
+#ifdef ART_HAVE_FUTEX
+        art_futex_wake(cpu->event, INT_MAX);
+#else
+        art_semaphore_set(cpu->sem);
+#endif
+    }
+}
+
+/*
+ * Idle policy of a thread without work: poll its event count idle_spin times
+ * with a spin-wait hint, then idle_yield times giving up the processor, and
+ * only then park in the kernel. Spinning trades processor time (and power)
+ * for a lower wake-up latency, the default is to park right away.
+ */
+
+static int idle_spin;           // --idle-spin
+static int idle_yield;          // --idle-yield
+
+/* Returns non-zero when the network has terminated */
+static int art_event_wait(cpu_runtime_data_t *runtime, unsigned key,
+                          statistics_t *statistics) {
+    int i;
+
+    if (atomic_fetch_add(&sleepers, 1) + 1 == runtime->cpu_count &&
+        numActiveActors == 0) {
+        art_event_terminate(runtime);
+        return 1;
+    }
+    for (i = 0; i < idle_spin && atomic_load(runtime->event) == key; i++) {
+        art_cpu_relax();
+    }
+    if (i < idle_spin) {
+        statistics->nspin++;
+    } else {
+        for (i = 0; i < idle_yield && atomic_load(runtime->event) == key; i++) {
+            sched_yield();
+        }
+        if (i < idle_yield) {
+            statistics->nyield++;
+        } else {
+            statistics->nsleep++;
+        }
+    }
+#ifdef ART_HAVE_FUTEX
+    while (atomic_load(runtime->event) == key) {
+        art_futex_wait(runtime->event, key);
+    }
+#else
+    // Also taken when woken while spinning, the notifier posts it
+    art_semaphore_wait(runtime->sem);
+#endif
+    return atomic_load(&terminate);
+}
+
+/*
+ * Ready set of the data-driven scheduler, one bit per actor of a cpu.
+ *
+ * Committing a FIFO count sets the bit of the actor at the other end, and
+ * an actor that fired sets its own bit. Each round a thread takes (and
+ * clears) its ready set and only checks and fires those actors. Marks are
+ * set after the count is published and taken before the counts are read,
+ * so a change is either seen in this round or marked for the next one.
+ */
+
+#define ART_READY_BITS (8 * (int) sizeof(unsigned long))
+
+static void art_ready_mark(AbstractActorInstance *actor) {
+    cpu_runtime_data_t *cpu;
+
+    // A fused chain is checked and fired through its first actor
+    actor = actor->fused_head;
+    cpu = (cpu_runtime_data_t *) actor->cpu;
+
+    atomic_fetch_or(&cpu->ready[actor->local_index / ART_READY_BITS],
+                    1UL << (actor->local_index % ART_READY_BITS));
+}
+
+/* Fills index with the ready actors of this cpu, returns their number */
+static int art_ready_take(cpu_runtime_data_t *runtime, int *index) {
+    int words = (runtime->actors + ART_READY_BITS - 1) / ART_READY_BITS;
+    int i, n = 0;
+
+    for (i = 0; i < words; i++) {
+        unsigned long bits;
+
+        if (!atomic_load_explicit(&runtime->ready[i], memory_order_relaxed)) {
+            continue;
+        }
+        bits = atomic_exchange(&runtime->ready[i], 0);
+        while (bits) {
+            index[n++] = i * ART_READY_BITS + __builtin_ctzl(bits);
+            bits &= bits - 1;
+        }
+    }
+    return n;
+}
+
+/*
+ * Work-stealing scheduler state
+ */
+
+static atomic_int ws_pending;   // actors queued or running
+static atomic_int ws_started;   // threads done with their constructors
+static atomic_int ws_num_parked;
+static atomic_int ws_terminate;
+static atomic_int *ws_parked;   // per cpu, set while parked on its semaphore
+
+static void ws_wake_one(cpu_runtime_data_t *runtime) {
+    cpu_runtime_data_t *cpu = runtime->cpu;
+    int i;
+
+    atomic_thread_fence(memory_order_seq_cst);
+    if (atomic_load_explicit(&ws_num_parked, memory_order_relaxed) == 0) {
+        return;
+    }
+    for (i = 1; i <= runtime->cpu_count; i++) {
+        int c = (runtime->cpu_index + i) % runtime->cpu_count;
+        int expected = 1;
+
+        if (atomic_load_explicit(&ws_parked[c], memory_order_relaxed) &&
+            atomic_compare_exchange_strong(&ws_parked[c], &expected, 0)) {
+            atomic_fetch_sub(&ws_num_parked, 1);
+            art_semaphore_set(cpu[c].sem);
+            return;
+        }
+    }
+}
+
+static void ws_queue(cpu_runtime_data_t *runtime, AbstractActorInstance *actor) {
+    int others = !art_deque_empty(runtime->deque);
+
+    art_deque_push(runtime->deque, actor);
+    // This thread takes the actor next, only wake some other thread when
+    // there is more work queued than this thread can take at once
+    if (others) {
+        ws_wake_one(runtime);
+    }
+}
+
+static void ws_notify_actor(cpu_runtime_data_t *runtime, AbstractActorInstance *actor) {
+    int state;
+
+    // A fused chain is queued and fired through its first actor
+    actor = actor->fused_head;
+    state = atomic_load(&actor->ready.value);
+
+    while (1) {
+        if (state == ACTOR_IDLE) {
+            if (atomic_compare_exchange_weak(&actor->ready.value, &state, ACTOR_QUEUED)) {
+                atomic_fetch_add(&ws_pending, 1);
+                ws_queue(runtime, actor);
+                return;
+            }
+        } else if (state == ACTOR_RUNNING) {
+            if (atomic_compare_exchange_weak(&actor->ready.value, &state, ACTOR_DIRTY)) {
+                return;
+            }
+        } else {
+            // Already queued, already marked dirty or terminated
+            return;
+        }
+    }
+}
+
+static void ws_retire(cpu_runtime_data_t *runtime) {
+    int i;
+
+    if (atomic_fetch_sub(&ws_pending, 1) == 1) {
+        // No actor queued or running: nobody can make an actor ready again
+        atomic_store(&ws_terminate, 1);
+        for (i = 0; i < runtime->cpu_count; i++) {
+            if (i != runtime->cpu_index) {
+                art_semaphore_set(runtime->cpu[i].sem);
+            }
+        }
+    }
+}
+
+static AbstractActorInstance *ws_steal(cpu_runtime_data_t *runtime) {
+    cpu_runtime_data_t *cpu = runtime->cpu;
+    int i;
+
+    for (i = 1; i < runtime->cpu_count; i++) {
+        int victim = (runtime->cpu_index + i) % runtime->cpu_count;
+        AbstractActorInstance *actor = art_deque_steal(cpu[victim].deque);
+
+        if (actor) {
+            return actor;
+        }
+    }
+    return NULL;
+}
+
+static void ws_park(cpu_runtime_data_t *runtime, statistics_t *statistics) {
+    cpu_runtime_data_t *cpu = runtime->cpu;
+    int this_cpu = runtime->cpu_index;
+    int i, expected, found = 0;
+    int spin, yield;
+
+    atomic_store(&ws_parked[this_cpu], 1);
+    atomic_fetch_add(&ws_num_parked, 1);
+
+    // Look again now that wakers can see us, to not miss a concurrent push
+    for (i = 0; i < runtime->cpu_count && !found; i++) {
+        found = !art_deque_empty(cpu[i].deque);
+    }
+    if (found || atomic_load(&ws_terminate)) {
+        expected = 1;
+        if (atomic_compare_exchange_strong(&ws_parked[this_cpu], &expected, 0)) {
+            atomic_fetch_sub(&ws_num_parked, 1);
+        }
+        return;
+    }
+
+    (*cpu[this_cpu].sleep)++;
+    if (cpu[this_cpu].traceFile) {
+        xmlTraceStatus(cpu[this_cpu].traceFile, 0);
+    }
+    // Idle policy, see art_event_wait: ws_wake_one clears the flag
+    for (spin = 0; spin < idle_spin && atomic_load(&ws_parked[this_cpu]); spin++) {
+        art_cpu_relax();
+    }
+    for (yield = 0; spin == idle_spin && yield < idle_yield && atomic_load(&ws_parked[this_cpu]); yield++) {
+        sched_yield();
+    }
+    if (spin < idle_spin) {
+        statistics->nspin++;
+    } else if (yield < idle_yield) {
+        statistics->nyield++;
+    } else {
+        statistics->nsleep++;
+    }
+    art_semaphore_wait(cpu[this_cpu].sem);
+    (*cpu[this_cpu].sleep)++;
+    if (cpu[this_cpu].traceFile) {
+        xmlTraceStatus(cpu[this_cpu].traceFile, 1);
+    }
+
+    // Woken up by something else than ws_wake_one (e.g. an active actor)
+    expected = 1;
+    if (atomic_compare_exchange_strong(&ws_parked[this_cpu], &expected, 0)) {
+        atomic_fetch_sub(&ws_num_parked, 1);
+    }
+}
+
+static void ws_prepare(cpu_runtime_data_t *runtime, int numInstances) {
+    int i, j, heads = 0;
+
+    ws_parked = calloc(runtime->cpu_count, sizeof(*ws_parked));
+    atomic_store(&ws_started, 0);
+    atomic_store(&ws_num_parked, 0);
+    atomic_store(&ws_terminate, 0);
+    for (i = 0; i < runtime->cpu_count; i++) {
+        runtime[i].deque = art_deque_create(numInstances);
+        for (j = 0; j < runtime[i].actors; j++) {
+            AbstractActorInstance *actor = runtime[i].actor[j];
+
+            atomic_set(&actor->ready, ACTOR_QUEUED);
+            if (actor->fused_head == actor) {
+                heads++;
+            }
+            // Actors move between threads, never take the same-cpu
+            // shortcut in ART_ACTION_SCHEDULER_ENTER
+            actor->cpu_index = -1;
+        }
+    }
+    atomic_store(&ws_pending, heads);
+}
+
+static void ws_release(cpu_runtime_data_t *runtime) {
+    int i;
+
+    for (i = 0; i < runtime->cpu_count; i++) {
+        art_deque_destroy(runtime[i].deque);
+        runtime[i].deque = NULL;
+    }
+    free(ws_parked);
+    ws_parked = NULL;
+}
+
+/*
+ * Wake up the thread of an active actor, called from outside of the network
+ * (e.g. by a receiving thread) when there is new data for the actor.
+ */
+void wakeupActorThread(AbstractActorInstance *instance) {
+    cpu_runtime_data_t *cpu = (cpu_runtime_data_t *) instance->cpu;
+
+    if (!cpu) {
+        return;
+    }
+    if (scheduler_ws) {
+        ws_wake_one(cpu);
+    } else {
+        if (cpu->ready) {
+            art_ready_mark(instance);
+        }
+        atomic_thread_fence(memory_order_seq_cst);
+        art_event_notify(cpu);
+    }
+}
+
+/*
+ * Load-based rebalancing of the round-robin and data-driven schedulers.
+ *
+ * Every rebalance_period ms, the first thread to notice asks all threads to
+ * stop at the top of their loop (sleeping threads are notified). This is a
+ * quiescent point: no actor is firing and every FIFO count is published.
+ * The last thread to arrive measures the load of each actor since the
+ * previous rebalance, i.e. the ticks spent in its action scheduler, and
+ * moves actors from the most to the least loaded thread as long as that
+ * reduces the imbalance. Among the actors that reduce it about equally, the
+ * one with the most FIFO traffic towards the destination thread (and the
+ * least towards the thread it leaves) is moved, so chatty actors stay
+ * together.
+ */
+
+#define REBALANCE_MIN_GAIN 0.05   // stop when the imbalance is below 5% of the load
+#define REBALANCE_TIE      0.9    // candidates within 90% of the best gain are ties
+
+static int rebalance_period;                 // ms, zero when disabled
+static atomic_int rebalance_requested;
+static atomic_int rebalance_arrived;
+static atomic_int rebalance_generation;
+static atomic_llong rebalance_next;          // ms, time of the next rebalance
+static int rebalance_count;
+static int rebalance_moves;
+static int rebalance_num_actors;
+static AbstractActorInstance **rebalance_actor;
+static unsigned long long *rebalance_total;  // actor->total at the previous rebalance
+
+static long long rebalance_now() {
+    struct timespec ts;
+
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (long long) ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
+
+static void rebalance_prepare(cpu_runtime_data_t *runtime, int period) {
+    int i, j, k = 0;
+
+    rebalance_period = period;
+    rebalance_num_actors = 0;
+    for (i = 0; i < runtime->cpu_count; i++) {
+        rebalance_num_actors += runtime[i].actors;
+    }
+    rebalance_actor = malloc(rebalance_num_actors * sizeof(*rebalance_actor));
+    rebalance_total = calloc(rebalance_num_actors, sizeof(*rebalance_total));
+    for (i = 0; i < runtime->cpu_count; i++) {
+        for (j = 0; j < runtime[i].actors; j++) {
+            rebalance_actor[k++] = runtime[i].actor[j];
+        }
+    }
+    atomic_store(&rebalance_requested, 0);
+    atomic_store(&rebalance_arrived, 0);
+    atomic_store(&rebalance_generation, 0);
+    atomic_store(&rebalance_next, rebalance_now() + period);
+}
+
+static void rebalance_release() {
+    rebalance_period = 0;
+    free(rebalance_actor);
+    free(rebalance_total);
+    rebalance_actor = NULL;
+    rebalance_total = NULL;
+}
+
+/* Tokens exchanged between actor and the actors of cpu */
+static unsigned long long rebalance_volume(AbstractActorInstance *actor,
+                                           cpu_runtime_data_t *cpu,
+                                           AbstractActorInstance *except) {
+    unsigned long long volume = 0;
+    int i, k;
+
+    for (i = 0; i < actor->inputs; i++) {
+        AbstractActorInstance *writer = actor->input[i].writer->actor;
+
+        if (writer != except && writer->cpu == (int *) cpu) {
+            volume += (unsigned) atomic_get(&actor->input[i].shared->count);
+        }
+    }
+    for (i = 0; i < actor->outputs; i++) {
+        for (k = 0; k < actor->output[i].readers; k++) {
+            InputPort *input = actor->output[i].reader[k];
+
+            if (input->actor != except && input->actor->cpu == (int *) cpu) {
+                volume += (unsigned) atomic_get(&input->shared->count);
+            }
+        }
+    }
+    return volume;
+}
+
+/* The actors of a fused chain stay on the thread of the chain */
+static int rebalance_fused(AbstractActorInstance *actor) {
+    return actor->fused_head != actor || actor->fused_next != NULL;
+}
+
+static void rebalance_move(AbstractActorInstance *actor, cpu_runtime_data_t *to) {
+    cpu_runtime_data_t *from = (cpu_runtime_data_t *) actor->cpu;
+    int i;
+
+    // Keep the actor order of both threads, the index is the ready bit
+    for (i = actor->local_index; i < from->actors - 1; i++) {
+        from->actor[i] = from->actor[i + 1];
+        from->actor[i]->local_index = i;
+    }
+    from->actors--;
+    actor->local_index = to->actors;
+    to->actor[to->actors++] = actor;
+
+    actor->cpu = (int *) to;
+    actor->cpu_index = to->cpu_index;
+    actor->traceFile = to->traceFile;
+    for (i = 0; i < actor->inputs; i++) {
+        actor->input[i].cpu = to->cpu_index;
+    }
+    for (i = 0; i < actor->outputs; i++) {
+        actor->output[i].cpu = to->cpu_index;
+    }
+}
+
+static void rebalance(cpu_runtime_data_t *runtime) {
+    cpu_runtime_data_t *cpu = runtime->cpu;
+    int cpu_count = runtime->cpu_count;
+    unsigned long long *actor_load = malloc(rebalance_num_actors * sizeof(*actor_load));
+    unsigned long long *cpu_load = calloc(cpu_count, sizeof(*cpu_load));
+    unsigned long long load = 0;
+    int i, moves;
+
+    for (i = 0; i < rebalance_num_actors; i++) {
+        AbstractActorInstance *actor = rebalance_actor[i];
+
+        actor_load[i] = actor->terminated ? 0 : actor->total - rebalance_total[i];
+        rebalance_total[i] = actor->total;
+        cpu_load[actor->cpu_index] += actor_load[i];
+        load += actor_load[i];
+    }
+
+    for (moves = 0; moves < rebalance_num_actors; moves++) {
+        int max = 0, min = 0, best = -1;
+        unsigned long long gap, best_gain = 0;
+        long long best_volume = 0;
+
+        for (i = 1; i < cpu_count; i++) {
+            if (cpu_load[i] > cpu_load[max]) { max = i; }
+            if (cpu_load[i] < cpu_load[min]) { min = i; }
+        }
+        gap = cpu_load[max] - cpu_load[min];
+        if (gap <= REBALANCE_MIN_GAIN * load) {
+            break;
+        }
+
+        // Moving l ticks reduces the imbalance of the pair by min(l, gap - l)
+        for (i = 0; i < rebalance_num_actors; i++) {
+            if (rebalance_actor[i]->cpu_index == max && actor_load[i] && actor_load[i] < gap &&
+                !rebalance_fused(rebalance_actor[i])) {
+                unsigned long long l = actor_load[i];
+                unsigned long long gain = l < gap - l ? l : gap - l;
+
+                if (gain > best_gain) {
+                    best_gain = gain;
+                }
+            }
+        }
+        for (i = 0; i < rebalance_num_actors; i++) {
+            AbstractActorInstance *actor = rebalance_actor[i];
+
+            if (actor->cpu_index == max && actor_load[i] && actor_load[i] < gap &&
+                !rebalance_fused(actor)) {
+                unsigned long long l = actor_load[i];
+                unsigned long long gain = l < gap - l ? l : gap - l;
+
+                if (gain >= REBALANCE_TIE * best_gain) {
+                    long long volume =
+                            (long long) rebalance_volume(actor, &cpu[min], actor) -
+                            (long long) rebalance_volume(actor, &cpu[max], actor);
+
+                    if (best < 0 || volume > best_volume) {
+                        best = i;
+                        best_volume = volume;
+                    }
+                }
+            }
+        }
+        if (best < 0) {
+            break;
+        }
+        rebalance_move(rebalance_actor[best], &cpu[min]);
+        cpu_load[max] -= actor_load[best];
+        cpu_load[min] += actor_load[best];
+        rebalance_moves++;
+    }
+    rebalance_count++;
+
+    if (cpu[0].ready) {
+        // The bits now belong to other actors, check them all again
+        for (i = 0; i < cpu_count; i++) {
+            int w;
+
+            for (w = 0; w * ART_READY_BITS < rebalance_num_actors; w++) {
+                atomic_store(&cpu[i].ready[w], 0);
+            }
+        }
+        for (i = 0; i < rebalance_num_actors; i++) {
+            art_ready_mark(rebalance_actor[i]);
+        }
+    }
+    free(actor_load);
+    free(cpu_load);
+}
+
+/* Called by every thread on top of its loop, non-zero when it has to stop */
+static int rebalance_due(cpu_runtime_data_t *runtime) {
+    int expected = 0, i;
+
+    if (atomic_load_explicit(&rebalance_requested, memory_order_relaxed)) {
+        return 1;
+    }
+    if (rebalance_now() < atomic_load_explicit(&rebalance_next, memory_order_relaxed) ||
+        !atomic_compare_exchange_strong(&rebalance_requested, &expected, 1)) {
+        return 0;
+    }
+    // Stop the other threads, sleeping ones are woken up
+    atomic_thread_fence(memory_order_seq_cst);
+    for (i = 0; i < runtime->cpu_count; i++) {
+        if (i != runtime->cpu_index) {
+            art_event_notify(&runtime->cpu[i]);
+        }
+    }
+    return 1;
+}
+
+/* Waits for all threads, the last one to arrive rebalances */
+static void rebalance_wait(cpu_runtime_data_t *runtime) {
+    int generation = atomic_load(&rebalance_generation);
+
+    if (atomic_fetch_add(&rebalance_arrived, 1) + 1 == runtime->cpu_count) {
+        rebalance(runtime);
+        atomic_store(&rebalance_arrived, 0);
+        atomic_store(&rebalance_next, rebalance_now() + rebalance_period);
+        atomic_store(&rebalance_requested, 0);
+        atomic_fetch_add(&rebalance_generation, 1);
+    } else {
+        while (atomic_load(&rebalance_generation) == generation) {
+            sched_yield();
+        }
+    }
+}
+
+/*
+ * Adaptive firing budget, enabled with --loopmin. Each actor starts with a
+ * budget of arg_loopmin firings per call. An actor that used its whole budget
+ * could have fired more: its budget doubles, up to arg_loopmax, to save
+ * round-trips through the scheduler, unless one of its output FIFOs is more
+ * than half full, then it halves so that the readers get to run sooner.
+ */
+static void adapt_loopmax(AbstractActorInstance *actor) {
+    int budget = actor->loopmax;
+    int j;
+
+    if (actor->fired < budget) {
+        return;
+    }
+    for (j = 0; j < actor->outputs; j++) {
+        const OutputPort *output = &actor->output[j];
+
+        if (2 * ((int) output->capacity - output->local->available) > (int) output->capacity) {
+            actor->loopmax = budget / 2 > arg_loopmin ? budget / 2 : arg_loopmin;
+            return;
+        }
+    }
+    actor->loopmax = budget < arg_loopmax / 2 ? 2 * budget : arg_loopmax;
+}
+
+/* Caches how much data the actor can read and write before it fires */
+static void art_prefire(AbstractActorInstance *actor) {
+    int j, k;
+
+    actor->fired = 0;
+    if (actor->terminated) {
+        return;
+    }
+    for (j = 0; j < actor->inputs; j++) {
+        int available = (
+                atomic_get(&actor->input[j].writer->shared->count) -
+                atomic_get(&actor->input[j].shared->count));
+        actor->input[j].local->available = available;
+        actor->input[j].local->count = 0;
+        if (available > actor->input[j].local->peak) {
+            actor->input[j].local->peak = available;
+        }
+    }
+    for (j = 0; j < actor->outputs; j++) {
+        int max_unconsumed = 0;
+        int available;
+        for (k = 0; k < actor->output[j].readers; k++) {
+            int unconsumed = (
+                    atomic_get(&actor->output[j].shared->count) -
+                    atomic_get(&actor->output[j].reader[k]->shared->count));
+            if (unconsumed > max_unconsumed) { max_unconsumed = unconsumed; }
+        }
+        available = actor->output[j].capacity - max_unconsumed;
+        actor->output[j].local->available = available;
+        actor->output[j].local->count = 0;
+        if (max_unconsumed > actor->output[j].local->peak) {
+            actor->output[j].local->peak = max_unconsumed;
+        }
+    }
+}
+
+/*
+ * A pass over a fused chain prepares all its actors at once, fires them in
+ * order and then publishes the counts of the FIFOs it shares with other
+ * actors. The FIFOs inside the chain are only used by the thread firing the
+ * chain: their counts are published right after each firing, without
+ * ordering and without notifying anybody, and the next actor reads them
+ * right before it fires (see art_fire).
+ */
+static void art_prefire_chain(AbstractActorInstance *head) {
+    AbstractActorInstance *actor;
+
+    for (actor = head; actor; actor = actor->fused_next) {
+        art_prefire(actor);
+    }
+}
+
+static inline int art_count_inner(const SharedContext *shared) {
+    return atomic_load_explicit(&shared->count.value, memory_order_relaxed);
+}
+
+static inline void art_publish_inner(SharedContext *shared, int count) {
+    atomic_store_explicit(&shared->count.value, art_count_inner(shared) + count,
+                          memory_order_relaxed);
+}
+
+/* Fires an actor of a chain: its firings of an iteration of the static
+ * schedule of the chain, without the action scheduler when it can, or up
+ * to its budget */
+static const int *art_fire(AbstractActorInstance *actor, AbstractActorInstance *head) {
+    const int *result = EXIT_CODE_YIELD;
+    int j;
+
+    // Sees what the previous actors of the chain have produced in this pass
+    for (j = 0; j < actor->inputs; j++) {
+        InputPort *input = &actor->input[j];
+
+        if (input->inner) {
+            input->local->available = art_count_inner(input->writer->shared) -
+                                      art_count_inner(input->shared);
+        }
+    }
+    if (!head->repetitions || !actor->actor->static_fire ||
+        !actor->actor->static_fire(actor, actor->repetitions)) {
+        result = actor->actor->action_scheduler(actor, head->repetitions ? actor->repetitions : actor->loopmax);
+    }
+    if (actor->fired) {
+        for (j = 0; j < actor->inputs; j++) {
+            InputPort *input = &actor->input[j];
+
+            if (input->inner && input->local->count) {
+                art_publish_inner(input->shared, input->local->count);
+                input->local->count = 0;
+            }
+        }
+        for (j = 0; j < actor->outputs; j++) {
+            OutputPort *output = &actor->output[j];
+
+            if (output->inner && output->local->count) {
+                art_publish_inner(output->shared, output->local->count);
+                output->local->count = 0;
+            }
+        }
+    }
+    return result;
+}
 
 #define TIMING_PROBES
 
 #define EXECUTE_NETWORK single_cpu_timed_execute_network
 #define READ_BARRIER()
 #define WRITE_BARRIER()
-#define MUTEX_LOCK()
-#define MUTEX_UNLOCK()
 
 #include "actors_execute_network.h"
 
 #undef EXECUTE_NETWORK
 #undef READ_BARRIER
 #undef WRITE_BARRIER
-#undef MUTEX_LOCK
-#undef MUTEX_UNLOCK
 
 #define EXECUTE_NETWORK multi_cpu_timed_execute_network
 #define READ_BARRIER() rmb()
 #define WRITE_BARRIER() wmb()
-#define MUTEX_LOCK() pthread_mutex_lock(&mutex)
-#define MUTEX_UNLOCK() pthread_mutex_unlock(&mutex)
 
 #include "actors_execute_network.h"
 
 #undef EXECUTE_NETWORK
 #undef READ_BARRIER
 #undef WRITE_BARRIER
-#undef MUTEX_LOCK
-#undef MUTEX_UNLOCK
+
+#define EXECUTE_NETWORK multi_cpu_timed_ws_execute_network
+#define READ_BARRIER() rmb()
+#define WRITE_BARRIER() wmb()
+
+#include "actors_execute_network_ws.h"
+
+#undef EXECUTE_NETWORK
+#undef READ_BARRIER
+#undef WRITE_BARRIER
 
 #undef TIMING_PROBES
 
 #define EXECUTE_NETWORK single_cpu_execute_network
 #define READ_BARRIER()
 #define WRITE_BARRIER()
-#define MUTEX_LOCK()
-#define MUTEX_UNLOCK()
 
 #include "actors_execute_network.h"
 
 #undef EXECUTE_NETWORK
 #undef READ_BARRIER
 #undef WRITE_BARRIER
-#undef MUTEX_LOCK
-#undef MUTEX_UNLOCK
 
 #define EXECUTE_NETWORK multi_cpu_execute_network
 #define READ_BARRIER() rmb()
 #define WRITE_BARRIER() wmb()
-#define MUTEX_LOCK() pthread_mutex_lock(&mutex)
-#define MUTEX_UNLOCK() pthread_mutex_unlock(&mutex)
 
 #include "actors_execute_network.h"
 
 #undef EXECUTE_NETWORK
 #undef READ_BARRIER
 #undef WRITE_BARRIER
-#undef MUTEX_LOCK
-#undef MUTEX_UNLOCK
+
+#define EXECUTE_NETWORK multi_cpu_ws_execute_network
+#define READ_BARRIER() rmb()
+#define WRITE_BARRIER() wmb()
+
+#include "actors_execute_network_ws.h"
+
+#undef EXECUTE_NETWORK
+#undef READ_BARRIER
+#undef WRITE_BARRIER
 
 /*
  * We need to know processor affinity, etc before we allocate the true
@@ -298,6 +1043,8 @@ typedef struct OutputPort_1 {
     int capacity;
     int buffer_bytes;
     int numberOfReaders;
+    int node;      // NUMA node of the buffer, -1 when not placed
+    int offset;    // of the buffer in the buffers of its node
     OutputPort *output;
 } OutputPort_1_t;
 
@@ -316,6 +1063,10 @@ typedef struct AbstractActorInstance_1 {
     OutputPort_1_t *output;
     Parameter_1_t *parameter;
     int affinity;
+    int partition; // thread partition computed by the compiler, -1 when none
+    int fusion;    // fused chain, -1 when not fused
+    int repetitions; // static schedule of its region, 0 when dynamic
+    AbstractActorInstance *actor;
 } ActorInstance_1_t;
 
 AbstractActorInstance *createActorInstance(ActorClass *actorClass) {
@@ -329,6 +1080,10 @@ AbstractActorInstance *createActorInstance(ActorClass *actorClass) {
                                                sizeof(*result->output));
     result->parameter = NULL;
     result->affinity = -1;
+    result->partition = -1;
+    result->fusion = -1;
+    result->repetitions = 0;
+    result->actor = NULL;
     return (AbstractActorInstance *) result;
 }
 
@@ -388,8 +1143,14 @@ void setParameter(AbstractActorInstance *pInstance,
 
     if (strcmp(key, "affinity") == 0) {
         instance->affinity = atoi(value);
+    } else if (strcmp(key, "partition") == 0) {
+        instance->partition = atoi(value);
     } else if (strcmp(key, "activeMode") == 0) {
         instance->actorClass->actorExecMode = atoi(value);
+    } else if (strcmp(key, "fusion") == 0) {
+        instance->fusion = atoi(value);
+    } else if (strcmp(key, "repetitions") == 0) {
+        instance->repetitions = atoi(value);
     } else {
         Parameter_1_t *parameter = malloc(sizeof(*parameter));
 
@@ -443,6 +1204,147 @@ static int nr_of_cpus(cpu_set_t *cpu_set) {
     return result;
 }
 
+/*
+ * NUMA placement.
+ *
+ * The node of every cpu is read from sysfs. When the threads of a network
+ * span several nodes, allocate_network places each FIFO buffer on the node of
+ * its (first) reader, and the shared counters and local data (actor states)
+ * of each thread on the node of that thread. Each range is page aligned and
+ * bound to its node before anything is written to it, so the pages do not
+ * all end up on the node of the thread that runs the allocation.
+ *
+ * A partition of the --cfile configuration may name a node instead of a cpu,
+ * <partition id="0" node="1">, its instances then run on a cpu of that node:
+ * the partitions of a node take the cpus of that node in ascending order.
+ */
+#define ART_NUMA_MAX_NODES 64
+#define ART_NUMA_MASK_BITS (8 * sizeof(unsigned long))
+
+static int numa_node[CPU_SETSIZE];  // -1 when unknown
+static int numa_discovered;
+
+static void numa_discover() {
+    int cpu;
+
+    if (numa_discovered) {
+        return;
+    }
+    numa_discovered = 1;
+    for (cpu = 0; cpu < CPU_SETSIZE; cpu++) {
+        numa_node[cpu] = -1;
+    }
+#ifdef ART_HAVE_NUMA
+    {
+        int node;
+
+        for (node = 0; node < ART_NUMA_MAX_NODES; node++) {
+            char path[64];
+            int first, last, separator;
+            FILE *f;
+
+            // The cpulist is a list of ranges, e.g. 0-7,16-23
+            snprintf(path, sizeof(path), "/sys/devices/system/node/node%d/cpulist", node);
+            f = fopen(path, "r");
+            if (!f) {
+                continue;
+            }
+            while (fscanf(f, "%d", &first) == 1) {
+                last = first;
+                separator = fgetc(f);
+                if (separator == '-') {
+                    if (fscanf(f, "%d", &last) != 1) {
+                        break;
+                    }
+                    separator = fgetc(f);
+                }
+                for (cpu = first; cpu <= last && cpu < CPU_SETSIZE; cpu++) {
+                    numa_node[cpu] = node;
+                }
+                if (separator != ',') {
+                    break;
+                }
+            }
+            fclose(f);
+        }
+    }
+#endif
+}
+
+static int numa_node_of(int cpu) {
+    numa_discover();
+    return (cpu >= 0 && cpu < CPU_SETSIZE) ? numa_node[cpu] : -1;
+}
+
+static int numa_nodes_used(cpu_set_t *used_cpus) {
+    unsigned long used[ART_NUMA_MAX_NODES / ART_NUMA_MASK_BITS] = {0};
+    int i, nodes = 0;
+
+    for (i = 0; i < CPU_SETSIZE; i++) {
+        int node = art_isset_cpu_set(i, used_cpus) ? numa_node_of(i) : -1;
+
+        if (node >= 0 && !(used[node / ART_NUMA_MASK_BITS] & (1UL << (node % ART_NUMA_MASK_BITS)))) {
+            used[node / ART_NUMA_MASK_BITS] |= 1UL << (node % ART_NUMA_MASK_BITS);
+            nodes++;
+        }
+    }
+    return nodes;
+}
+
+/* Binds the pages of a range to a node, when NUMA is not supported the
+ * pages are placed on first touch as before */
+static void numa_bind(void *address, size_t bytes, int node) {
+#ifdef ART_HAVE_NUMA
+    unsigned long mask[ART_NUMA_MAX_NODES / ART_NUMA_MASK_BITS] = {0};
+
+    if (node < 0 || bytes == 0) {
+        return;
+    }
+    mask[node / ART_NUMA_MASK_BITS] = 1UL << (node % ART_NUMA_MASK_BITS);
+    if (art_mbind(address, bytes, MPOL_PREFERRED, mask, ART_NUMA_MAX_NODES + 1) != 0) {
+        // Not fatal, the range is placed on first touch
+    }
+#endif
+}
+
+/* Moves the instances of the partitions that name a node to the cpus of
+ * that node */
+static void numa_map_partitions(ActorInstance_1_t **instance, int numInstances) {
+    int *physical = malloc(MAX_PARTITIONS * sizeof(*physical));
+    int taken[ART_NUMA_MAX_NODES] = {0};
+    int p, i;
+
+    for (p = 0; p < MAX_PARTITIONS; p++) {
+        int node = partitionNode[p];
+        int cpus = 0, rank, cpu;
+
+        physical[p] = p;
+        if (node < 0) {
+            continue;
+        }
+        for (cpu = 0; cpu < CPU_SETSIZE; cpu++) {
+            cpus += numa_node_of(cpu) == node;
+        }
+        if (node >= ART_NUMA_MAX_NODES || cpus == 0) {
+            printf("No cpu on node %d, partition %d runs on cpu %d\n", node, p, p);
+            continue;
+        }
+        rank = taken[node]++ % cpus;
+        for (cpu = 0; cpu < CPU_SETSIZE; cpu++) {
+            if (numa_node_of(cpu) == node && rank-- == 0) {
+                physical[p] = cpu;
+                break;
+            }
+        }
+    }
+    for (i = 0; i < numInstances; i++) {
+        if (instance[i]->affinity >= 0 && instance[i]->affinity < MAX_PARTITIONS) {
+            instance[i]->affinity = physical[instance[i]->affinity];
+        }
+    }
+    free(physical);
+}
+
 static int index_nodes(ActorInstance_1_t **instance,
                        int numInstances) {
     int i;
@@ -498,6 +1400,193 @@ static int set_affinity(ActorInstance_1_t **instance,
     return result;
 }
 
+/*
+ * The processors this process may run on, at least one
+ */
+static int available_cpus(int *physical) {
+    cpu_set_t available;
+    int i, n = 0;
+
+    art_clear_cpu_set(&available);
+    if (art_get_affinity(0, available) == 0) {
+        for (i = 0; i < CPU_SETSIZE; i++) {
+            if (art_isset_cpu_set(i, &available)) {
+                physical[n++] = i;
+            }
+        }
+    }
+    if (n == 0) {
+        physical[n++] = 0;
+    }
+    return n;
+}
+
+/*
+ * Places the instances on the thread partitions computed by the compiler, the
+ * partitions are numbered from 0 and go to the processors this process may run
+ * on, in order. Returns 1 if the instances had partitions.
+ */
+static int partition_affinity(ActorInstance_1_t **instance,
+                              int numInstances) {
+    int physical[CPU_SETSIZE];
+    int i, n, found = 0;
+
+    for (i = 0; i < numInstances; i++) {
+        found |= instance[i]->partition >= 0;
+    }
+    if (!found) {
+        return 0;
+    }
+    n = available_cpus(physical);
+    for (i = 0; i < numInstances; i++) {
+        int partition = instance[i]->partition >= 0 ? instance[i]->partition : 0;
+
+        instance[i]->affinity = physical[partition % n];
+    }
+    return 1;
+}
+
+/*
+ * Distribute the instances round-robin over the processors this process may
+ * run on. Used by the work-stealing scheduler when no affinity is given, the
+ * initial placement then only matters until the first steal.
+ */
+static void spread_affinity(ActorInstance_1_t **instance,
+                            int numInstances,
+                            int threads) {
+    int physical[CPU_SETSIZE];
+    int i, n;
+
+    n = available_cpus(physical);
+    if (threads <= 0 || threads > n) {
+        threads = n;
+    }
+    for (i = 0; i < numInstances; i++) {
+        instance[i]->affinity = physical[i % threads];
+    }
+}
+
+/*
+ * Fused chains: instances with the same fusion parameter, set by the compiler,
+ * form a chain of single connections. Every scheduler only schedules the
+ * first one, the chain runs on the thread that fires it: firing it fires the
+ * whole chain in order, and each actor sees the tokens that the previous one
+ * has just produced, see art_fire. Rebalancing leaves chains in place.
+ *
+ * When the compiler has found a static (SDF) schedule for a region of the
+ * network, every actor of the region has a repetitions parameter: the number
+ * of times it fires in one iteration of the schedule. Firing a chain, or an
+ * actor on its own, then runs iterations of the schedule, each actor firing
+ * its repetitions in turn, until no actor can fire. An actor fires its
+ * repetitions without its action scheduler when its ports allow all of them.
+ */
+
+/* The instance feeding this one in its chain, NULL for the first one */
+static ActorInstance_1_t *fused_previous(ActorInstance_1_t *instance) {
+    int i;
+
+    if (instance->fusion < 0) {
+        return NULL;
+    }
+    for (i = 0; i < instance->actorClass->numInputPorts; i++) {
+        OutputPort_1_t *output = instance->input[i].output;
+
+        if (output && output->owner != instance && output->owner->fusion == instance->fusion) {
+            return output->owner;
+        }
+    }
+    return NULL;
+}
+
+/* Places every fused instance on the processor of the first of its chain */
+static void fuse_affinity(ActorInstance_1_t **instance, int numInstances) {
+    int i, steps;
+
+    for (i = 0; i < numInstances; i++) {
+        ActorInstance_1_t *first = instance[i];
+        ActorInstance_1_t *previous;
+
+        // Bounded, a cycle in a hand-written configuration is not a chain
+        for (steps = 0; (previous = fused_previous(first)) && steps < numInstances; steps++) {
+            first = previous;
+        }
+        instance[i]->affinity = first->affinity;
+    }
+}
+
+/* Links the actors of every chain, once the actors are allocated */
+static void fuse_network(ActorInstance_1_t **instance, int numInstances) {
+    int i, steps;
+
+    for (i = 0; i < numInstances; i++) {
+        ActorInstance_1_t *previous = fused_previous(instance[i]);
+
+        if (previous && previous->affinity == instance[i]->affinity &&
+            !previous->actor->fused_next) {
+            previous->actor->fused_next = instance[i]->actor;
+        }
+    }
+    for (i = 0; i < numInstances; i++) {
+        if (instance[i]->fusion >= 0 && !fused_previous(instance[i])) {
+            AbstractActorInstance *actor = instance[i]->actor->fused_next;
+
+            for (steps = 0; actor && steps < numInstances; steps++) {
+                actor->fused_head = instance[i]->actor;
+                actor = actor->fused_next;
+            }
+        }
+    }
+    // Actors not reached from the first one of a chain run on their own
+    for (i = 0; i < numInstances; i++) {
+        AbstractActorInstance *actor = instance[i]->actor;
+
+        if (actor->fused_head == actor && fused_previous(instance[i])) {
+            actor->fused_next = NULL;
+        }
+    }
+    // A static schedule applies to a whole chain, or to an actor on its own
+    for (i = 0; i < numInstances; i++) {
+        AbstractActorInstance *head = instance[i]->actor;
+        AbstractActorInstance *actor;
+        int schedule = 1;
+
+        if (head->fused_head != head) {
+            continue;
+        }
+        for (actor = head; actor; actor = actor->fused_next) {
+            schedule = schedule && actor->repetitions > 0;
+        }
+        for (actor = head; actor; actor = actor->fused_next) {
+            actor->repetitions = schedule ? actor->repetitions : 0;
+        }
+    }
+    // FIFOs inside a chain are not synchronized
+    for (i = 0; i < numInstances; i++) {
+        AbstractActorInstance *actor = instance[i]->actor;
+        int j, k;
+
+        if (actor->fused_head == actor && !actor->fused_next) {
+            continue;
+        }
+        for (j = 0; j < actor->outputs; j++) {
+            OutputPort *output = &actor->output[j];
+
+            output->inner = output->readers > 0;
+            for (k = 0; k < output->readers; k++) {
+                output->inner = output->inner && output->reader[k]->actor->fused_head == actor->fused_head;
+            }
+        }
+    }
+    for (i = 0; i < numInstances; i++) {
+        AbstractActorInstance *actor = instance[i]->actor;
+        int j;
+
+        for (j = 0; j < actor->inputs; j++) {
+            actor->input[j].inner = actor->input[j].writer->inner;
+        }
+    }
+}
+
 static int set_instance_affinity(ActorInstance_1_t *instance,
                                  AffinityID *config,
                                  int numInstances) {
@@ -585,6 +1674,7 @@ static ActorInstance_1_t **set_config(ActorInstance_1_t **instances,
         // Set actor instance infinity
         sortedInstances =
                 sort_instances(instances, instanceAfinity, numInstances);
+        numa_map_partitions(sortedInstances, numInstances);
         if (ignore_connections == 1) {
             printf("Ignoring buffer config from file\n");
         } else {
@@ -732,11 +1822,105 @@ static int cache_bytes(int n) {
     return ((n + CACHE_LINE_SIZE - 1) / CACHE_LINE_SIZE) * CACHE_LINE_SIZE;
 }
 
+static int page_bytes(int n, int page_size) {
+    return ((n + page_size - 1) / page_size) * page_size;
+}
+
+/* Zeroed memory whose pages are not touched yet when numa is set, so that
+ * they can still be bound to a node */
+static void *numa_calloc(size_t size, int numa) {
+#ifdef ART_HAVE_NUMA
+    if (numa) {
+        void *result = mmap(NULL, size, PROT_READ | PROT_WRITE,
+                            MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
+
+        if (result != MAP_FAILED) {
+            return result;
+        }
+    }
+#endif
+    return cache_aligned_calloc(size);
+}
+
+/* Buffers in the huge page arena start on successive cache line colors, so
+ * that the heads of equally sized FIFOs do not compete for the same sets */
+#define ART_ARENA_COLORS 32
+
+/* Zeroed and untouched memory for the FIFO buffers from pages of the
+ * requested huge page size, else from 2MB pages, else from transparent huge
+ * pages. *size is rounded up to the pages used and *huge is set to their
+ * size, zero for transparent huge pages. NULL when nothing could be mapped */
+static void *huge_calloc(size_t *size, int huge_pages, int *huge) {
+#ifdef ART_HAVE_HUGE_PAGES
+    int log2size = huge_pages == ART_HUGE_PAGES_1G ? 30 : 21;
+    size_t page, length;
+    void *result;
+
+    for (; log2size >= 21; log2size -= 9) {
+        page = (size_t) 1 << log2size;
+        length = (*size + page - 1) & ~(page - 1);
+        result = art_mmap_huge(length, log2size);
+        if (result != MAP_FAILED) {
+            *size = length;
+            *huge = (int) page;
+            return result;
+        }
+    }
+#ifdef MADV_HUGEPAGE
+    // Over-allocate by a page to align the range, the kernel may then back it
+    page = (size_t) 1 << 21;
+    length = (*size + page - 1) & ~(page - 1);
+    result = mmap(NULL, length + page, PROT_READ | PROT_WRITE,
+                  MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
+    if (result != MAP_FAILED) {
+        char *aligned = (char *) (((uintptr_t) result + page - 1) & ~(page - 1));
+
+        if (aligned > (char *) result) {
+            munmap(result, aligned - (char *) result);
+        }
+        munmap(aligned + length, (char *) result + page - aligned);
+        madvise(aligned, length, MADV_HUGEPAGE);
+        *size = length;
+        *huge = 0;
+        return aligned;
+    }
+#endif
+#endif
+    return NULL;
+}
+
+static void ready_prepare(cpu_runtime_data_t *runtime, int numInstances) {
+    // Room for all actors, they may move between the cpus when rebalancing
+    int words = (numInstances + ART_READY_BITS - 1) / ART_READY_BITS;
+    int i, j;
+
+    for (i = 0; i < runtime->cpu_count; i++) {
+
+        // Written by other cpus, keep it off the cache lines of other data
+        runtime[i].ready = cache_aligned_calloc(
+                cache_bytes((words ? words : 1) * sizeof(*runtime[i].ready)));
+        // Every actor is checked at least once
+        for (j = 0; j < runtime[i].actors; j++) {
+            art_ready_mark(runtime[i].actor[j]);
+        }
+    }
+}
+
+static void ready_release(cpu_runtime_data_t *runtime) {
+    int i;
+
+    for (i = 0; i < runtime->cpu_count; i++) {
+        free(runtime[i].ready);
+        runtime[i].ready = NULL;
+    }
+}
+
 static cpu_runtime_data_t *allocate_network(
         ActorInstance_1_t **instance,
         int numInstances,
         cpu_set_t *used_cpus,
-        int fifo_size) {
+        int fifo_size,
+        int huge_pages) {
     cpu_runtime_data_t *result;
     int num_outputs, num_inputs, buffer_bytes, index;
     int cpu, shared_bytes, local_bytes, actor_bytes, global_bytes;
@@ -745,6 +1929,13 @@ static cpu_runtime_data_t *allocate_network(
     OutputPort *output_p;
     int i, j, k;
     int profiling_factor = 1;
+    int numa = numa_nodes_used(used_cpus) > 1;
+    int page_size = numa ? (int) sysconf(_SC_PAGESIZE) : 1;
+    int node_bytes[ART_NUMA_MAX_NODES];
+    int node_buffers[ART_NUMA_MAX_NODES];
+    void *node_p[ART_NUMA_MAX_NODES];
+    int arena = huge_pages != ART_HUGE_PAGES_OFF;
+    size_t arena_bytes = 0;
 
 #if defined(__aarch64__)
     profiling_factor = aarch64_estimated_frequency();
@@ -815,21 +2006,86 @@ static cpu_runtime_data_t *allocate_network(
         }
     }
 
+    /* Place each buffer on the node of its first reader (of its writer when
+     * unread), all buffers are in the same group without NUMA */
+    for (i = 0; i < numInstances; i++) {
+        for (j = 0; j < instance[i]->actorClass->numOutputPorts; j++) {
+            instance[i]->output[j].node = -1;
+        }
+    }
+    for (i = 0; numa && i < numInstances; i++) {
+        for (j = 0; j < instance[i]->actorClass->numInputPorts; j++) {
+            if (instance[i]->input[j].output->node < 0) {
+                instance[i]->input[j].output->node = numa_node_of(instance[i]->affinity);
+            }
+        }
+    }
+    for (i = 0; i < numInstances; i++) {
+        for (j = 0; j < instance[i]->actorClass->numOutputPorts; j++) {
+            if (instance[i]->output[j].node < 0) {
+                instance[i]->output[j].node = numa ? numa_node_of(instance[i]->affinity) : 0;
+            }
+            if (instance[i]->output[j].node < 0) {
+                instance[i]->output[j].node = 0;
+            }
+        }
+    }
+
     /* Count number of inputs and outputs and needed buffer space */
     num_outputs = 0;
     num_inputs = 0;
     buffer_bytes = 0;
     actor_bytes = 0;
+    memset(node_bytes, 0, sizeof(node_bytes));
+    memset(node_buffers, 0, sizeof(node_buffers));
     for (i = 0; i < numInstances; i++) {
         actor_bytes += instance[i]->actorClass->sizeActorInstance;
         num_outputs += instance[i]->actorClass->numOutputPorts;
         num_inputs += instance[i]->actorClass->numInputPorts;
         for (j = 0; j < instance[i]->actorClass->numOutputPorts; j++) {
+            int node = instance[i]->output[j].node;
+
             instance[i]->output[j].buffer_bytes = cache_bytes(
                     instance[i]->output[j].capacity *
                     (instance[i]->actorClass->outputPortDescriptions[j].isBytes ? 1
                                                                                 : instance[i]->actorClass->outputPortDescriptions[j].tokenSize));
-            buffer_bytes += instance[i]->output[j].buffer_bytes;
+            if (arena) {
+                int span = ART_ARENA_COLORS * CACHE_LINE_SIZE;
+                int color = (node_buffers[node] % ART_ARENA_COLORS) * CACHE_LINE_SIZE;
+
+                node_bytes[node] += (color - node_bytes[node] % span + span) % span;
+            }
+            node_buffers[node]++;
+            instance[i]->output[j].offset = node_bytes[node];
+            node_bytes[node] += instance[i]->output[j].buffer_bytes;
+        }
+    }
+    for (i = 0; i < ART_NUMA_MAX_NODES; i++) {
+        node_bytes[i] = page_bytes(node_bytes[i], page_size);
+        buffer_bytes += node_bytes[i];
+    }
+
+    /* The huge page arena holds the buffers of each node in its own mapping,
+     * falling back to the pages of the rest of the network memory */
+    memory_statistics.huge_page_bytes = 0;
+    for (i = 0; i < ART_NUMA_MAX_NODES; i++) {
+        node_p[i] = NULL;
+        if (arena && node_bytes[i]) {
+            size_t size = node_bytes[i];
+            int huge = 0;
+
+            node_p[i] = huge_calloc(&size, huge_pages, &huge);
+            if (node_p[i]) {
+                arena_bytes += size;
+                if (numa) {
+                    numa_bind(node_p[i], size, i);
+                }
+                if (huge > memory_statistics.huge_page_bytes) {
+                    memory_statistics.huge_page_bytes = huge;
+                }
+                buffer_bytes -= node_bytes[i];
+                node_bytes[i] = 0;
+            }
         }
     }
     /* Global data: (semi-)constant (may only be changed in such a way that
@@ -852,20 +2108,36 @@ static cpu_runtime_data_t *allocate_network(
             nr_of_cpus(used_cpus) * sizeof(*result[0].has_affected));
     shared_bytes =
             cache_bytes(sizeof(*result[0].sleep)) +
+            cache_bytes(sizeof(*result[0].event)) +
             cache_bytes((num_outputs + num_inputs) * sizeof(SharedContext));
+    // Page aligned ranges with NUMA, so that every range can be bound
+    global_bytes = page_bytes(global_bytes, page_size);
+    local_bytes = page_bytes(local_bytes, page_size);
+    shared_bytes = page_bytes(shared_bytes, page_size);
     memory_statistics.num_outputs = num_outputs;
     memory_statistics.num_inputs = num_inputs;
     memory_statistics.global_bytes = global_bytes;
     memory_statistics.local_bytes = local_bytes * nr_of_cpus(used_cpus);
     memory_statistics.shared_bytes = shared_bytes * nr_of_cpus(used_cpus);
-    memory_statistics.buffer_bytes = buffer_bytes;
+    memory_statistics.buffer_bytes = buffer_bytes + arena_bytes;
+    memory_statistics.numa_nodes = numa ? numa_nodes_used(used_cpus) : 1;
     result = malloc(sizeof(*result) * nr_of_cpus(used_cpus));
-    buffer_p = cache_aligned_calloc(
+    buffer_p = numa_calloc(
             buffer_bytes +
             global_bytes +
             shared_bytes * nr_of_cpus(used_cpus) +
-            local_bytes * nr_of_cpus(used_cpus));
-    global_p = buffer_p + buffer_bytes;
+            local_bytes * nr_of_cpus(used_cpus), numa);
+    for (i = 0; i < ART_NUMA_MAX_NODES; i++) {
+        if (node_p[i]) {
+            continue;
+        }
+        node_p[i] = buffer_p;
+        if (numa) {
+            numa_bind(buffer_p, node_bytes[i], i);
+        }
+        buffer_p += node_bytes[i];
+    }
+    global_p = buffer_p;
     shared_p = global_p + global_bytes;
     local_p = shared_p + shared_bytes * nr_of_cpus(used_cpus);
 
@@ -899,10 +2171,11 @@ static cpu_runtime_data_t *allocate_network(
              * buffer points to end of buffer to avoid compare with capacity on
              * each erad/write (compare with 0 assumed cheap)
              */
-            buffer_p += instance[i]->output[j].buffer_bytes;
-            output->buffer = buffer_p;
+            output->buffer = node_p[instance[i]->output[j].node] +
+                             instance[i]->output[j].offset + instance[i]->output[j].buffer_bytes;
             output->capacity = instance[i]->output[j].capacity;
             output->readers = 0;
+            output->inner = 0;
             output->reader = reader_p;
             reader_p += instance[i]->output[j].numberOfReaders;
         }
@@ -912,6 +2185,7 @@ static cpu_runtime_data_t *allocate_network(
             instance[i]->input[j].input = input;
             input->index = index++;
             input->capacity = instance[i]->input[j].capacity;
+            input->inner = 0;
         }
     }
     /* Connect the newly assigned ports */
@@ -938,6 +2212,10 @@ static cpu_runtime_data_t *allocate_network(
             shared_p += shared_bytes;
             cpu_local_p = local_p;
             local_p += local_bytes;
+            if (numa) {
+                numa_bind(cpu_shared_p, shared_bytes, numa_node_of(i));
+                numa_bind(cpu_local_p, local_bytes, numa_node_of(i));
+            }
 
             result[cpu].cpu = result;
             result[cpu].cpu_count = nr_of_cpus(used_cpus);
@@ -950,6 +2228,8 @@ static cpu_runtime_data_t *allocate_network(
 
             result[cpu].sleep = cpu_shared_p;
             cpu_shared_p += cache_bytes(sizeof(*result[cpu].sleep));
+            result[cpu].event = cpu_shared_p;
+            cpu_shared_p += cache_bytes(sizeof(*result[cpu].event));
             result[cpu].shared = cpu_shared_p;
 
             // Data accessed from this cpu only
@@ -963,6 +2243,7 @@ static cpu_runtime_data_t *allocate_network(
             result[cpu].actor_data = cpu_actor_data;
             result[cpu].has_affected = cpu_local_p;
             cpu_local_p += (nr_of_cpus(used_cpus) * sizeof(*result[0].has_affected));
+            result[cpu].ready = NULL;
             result[cpu].traceFile = 0;
             result[cpu].traceTurnusFile = 0;
             result[cpu].infoFile = 0;
@@ -973,6 +2254,7 @@ static cpu_runtime_data_t *allocate_network(
                     char buf[1024];
 
                     actor = cpu_actor_data;
+                    actor->local_index = result[cpu].actors;
                     result[cpu].actor[result[cpu].actors] = cpu_actor_data;
                     result[cpu].actors++;
                     cpu_actor_data += instance[j]->actorClass->sizeActorInstance;
@@ -996,6 +2278,11 @@ static cpu_runtime_data_t *allocate_network(
                     actor->input = instance[j]->input_list;
                     actor->fired = 0;
                     actor->terminated = 0;
+                    actor->loopmax = arg_loopmin ? arg_loopmin : arg_loopmax;
+                    actor->fused_head = actor;
+                    actor->fused_next = NULL;
+                    actor->repetitions = instance[j]->repetitions;
+                    instance[j]->actor = actor;
                     actor->nloops = 0;
                     actor->total = 0;
                     actor->firstActionIndex = 0;
@@ -1112,7 +2399,8 @@ static void run_threads(cpu_runtime_data_t *runtime,
 
 static void show_result(cpu_runtime_data_t *cpu,
                         int show_statistics,
-                        int show_timing) {
+                        int show_timing,
+                        int work_stealing) {
     int i;
 
     if (show_statistics || show_timing) {
@@ -1127,6 +2415,8 @@ static void show_result(cpu_runtime_data_t *cpu,
             printf("Buffers:       %12u\n", memory_statistics.buffer_bytes);
             printf("  #outputs:    %12u\n", memory_statistics.num_outputs);
             printf("  #inputs:     %12u\n", memory_statistics.num_inputs);
+            printf("NUMA nodes:    %12u\n", memory_statistics.numa_nodes);
+            printf("Huge pages:    %12u\n", memory_statistics.huge_page_bytes);
         }
 
         for (i = 0; i < cpu->cpu_count; i++) {
@@ -1144,9 +2434,15 @@ static void show_result(cpu_runtime_data_t *cpu,
                 printf("sync_sleep:    %12llu\n", cpu[i].statistics.sync_sleep);
                 printf("total:         %12llu\n", cpu[i].statistics.total);
             }
+            if (show_timing) {
+                printf("nspin:         %12llu times\n", cpu[i].statistics.nspin);
+                printf("nyield:        %12llu times\n", cpu[i].statistics.nyield);
+            }
             // subtract one from nsleep not to count the last time (termination)
             printf("nsleep:        %12llu times\n", cpu[i].statistics.nsleep);
             printf("nloops:        %12llu\n", cpu[i].statistics.nloops);
+            if (work_stealing)
+                printf("nsteal:        %12llu\n", cpu[i].statistics.nsteal);
 
             if (show_timing)
                 printf("%-64s  nloops timing (cycles)\n", "actor");
@@ -1207,8 +2503,14 @@ static void generate_config(FILE *f,
                     const char *inputPortName = 0;
                     unsigned inputCapacity = input->capacity;
                     unsigned inputBandwidth = atomic_get(&input->shared->count);
+                    unsigned inputPeak = input->local->peak;
                     int s;
 
+                    // The writer may have seen more unconsumed tokens than the
+                    // reader, with a single reader they are the same FIFO
+                    if (output->readers == 1 && output->local->peak > (int) inputPeak) {
+                        inputPeak = output->local->peak;
+                    }
                     for (s = 0; s < consumer->inputs; ++s)
                         if (consumer->input + s == input) {
                             inputPortName = consumer->actor->inputPortDescriptions[s].name;
@@ -1226,9 +2528,10 @@ static void generate_config(FILE *f,
 
                         inputCapacity /= tokenSize;
                         inputBandwidth /= tokenSize;
+                        inputPeak /= tokenSize;
                     }
 
-                    fprintf(f, "\t\t<fifo-connection source=\"%s\" source-port=\"%s\" "
+                    fprintf(f, "\t\t<connection source=\"%s\" source-port=\"%s\" "
                                "target=\"%s\" target-port=\"%s\" size=\"%u\" "
                                "token-size=\"%u\"",
                             producer->name, outputPortName,
@@ -1236,7 +2539,8 @@ static void generate_config(FILE *f,
                             inputCapacity, tokenSize);
 
                     if (with_bandwidth) {
-                        fprintf(f, " bandwidth=\"%u\"/>\n", inputBandwidth);
+                        fprintf(f, " bandwidth=\"%u\" peak=\"%u\"/>\n",
+                                inputBandwidth, inputPeak);
                     } else {
                         fprintf(f, "/>\n");
                     }
@@ -1275,7 +2579,18 @@ int executeNetwork(int argc,
     int with_complexity = options->with_complexity;
     int with_bandwidth = options->with_bandwidth;
     int terminationReport = options->terminationReport;
-
+    int work_stealing = options->scheduler == ART_SCHEDULER_WORK_STEALING;
+    int data_driven = options->scheduler == ART_SCHEDULER_DATA_DRIVEN;
+    int rebalance = options->rebalance_period;
+
+    idle_spin = options->idle_spin;
+    idle_yield = options->idle_yield;
+    if (options->arg_loopmax > 0) {
+        arg_loopmax = options->arg_loopmax;
+    }
+    if (options->arg_loopmin > 0) {
+        arg_loopmin = options->arg_loopmin < arg_loopmax ? options->arg_loopmin : arg_loopmax;
+    }
     if (options->no_cfile_connections == 1) {
         printf("Using buffer depth %d on all connections\n", arg_fifo_size);
     }
@@ -1306,6 +2621,21 @@ int executeNetwork(int argc,
         }
     }
 
+    if (result == 0 && !affinity_is_set) {
+        // Thread partitions computed by the compiler
+        affinity_is_set = partition_affinity(instance_1, numInstances);
+    }
+
+    if (result == 0 && work_stealing && !affinity_is_set) {
+        // No affinity given, let the scheduler balance the load
+        spread_affinity(instance_1, numInstances, options->num_threads);
+        affinity_is_set = 1;
+    }
+
+    if (result == 0) {
+        fuse_affinity(instance_1, numInstances);
+    }
+
     if (result == 0 && generateFileName) {
         generateFile = fopen(generateFileName, "w");
         if (!generateFile) {
@@ -1327,7 +2657,7 @@ int executeNetwork(int argc,
     }
     if (result == 0) {
         runtime_data = allocate_network(instance_1, numInstances, &used_cpus,
-                                        arg_fifo_size);
+                                        arg_fifo_size, options->huge_pages);
     }
     if (result == 0) {
         if (generate_trace)
@@ -1343,9 +2673,27 @@ int executeNetwork(int argc,
             if (cb_add_threads)
                 cb_add_threads(0);
         }
+        if (flags & FLAG_SINGLE_CPU) {
+            // Nothing to steal from with a single thread
+            work_stealing = 0;
+        }
+        fuse_network(instance_1, numInstances);
+        if (work_stealing) {
+            ws_prepare(runtime_data, numInstances);
+        }
+        scheduler_ws = work_stealing;
+        if (data_driven) {
+            ready_prepare(runtime_data, numInstances);
+        }
+        if (rebalance && !work_stealing && !(flags & FLAG_SINGLE_CPU)) {
+            rebalance_prepare(runtime_data, rebalance);
+            // The load of the actors is measured by the timing probes
+            flags |= FLAG_TIMING;
+        }
         switch (flags) {
             case 0: {
-                run_threads(runtime_data, multi_cpu_execute_network);
+                run_threads(runtime_data, work_stealing ? multi_cpu_ws_execute_network
+                                                        : multi_cpu_execute_network);
             }
                 break;
             case FLAG_SINGLE_CPU: {
@@ -1353,7 +2701,8 @@ int executeNetwork(int argc,
             }
                 break;
             case FLAG_TIMING: {
-                run_threads(runtime_data, multi_cpu_timed_execute_network);
+                run_threads(runtime_data, work_stealing ? multi_cpu_timed_ws_execute_network
+                                                        : multi_cpu_timed_execute_network);
             }
                 break;
             case FLAG_TIMING | FLAG_SINGLE_CPU: {
@@ -1361,13 +2710,26 @@ int executeNetwork(int argc,
             }
                 break;
         }
+        if (work_stealing) {
+            ws_release(runtime_data);
+        }
+        if (data_driven) {
+            ready_release(runtime_data);
+        }
+        if (rebalance_period) {
+            if (show_statistics || show_timing) {
+                printf("Rebalanced %d times, %d actor moves\n",
+                       rebalance_count, rebalance_moves);
+            }
+            rebalance_release();
+        }
     }
     if (result == 0) {
         buffer_report(runtime_data);
         if (buffer_report(runtime_data) || terminationReport)
             deadlock_report(runtime_data, numInstances, terminationReport);
         run_destructors(runtime_data);
-        show_result(runtime_data, show_statistics, show_timing);
+        show_result(runtime_data, show_statistics, show_timing, work_stealing);
     }
 
     if (result == 0 && generateFile) {
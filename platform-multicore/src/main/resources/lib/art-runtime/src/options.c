@@ -19,6 +19,9 @@ void show_usage(char *name) {
            "--help                  Display this help list\n"
            "--loopmax=N             Restrict the maximum number of action\n"
            "                        firings per actor\n"
+           "--loopmin=N             Adapt the number of firings per actor\n"
+           "                        between N and loopmax, from how often it\n"
+           "                        uses its budget and its output FIFOs\n"
            "--statistics            Display run-time statistics\n"
            "--timing                Collect and display timing statistics\n"
            "--trace                 Generate execution trace:\n"
@@ -29,8 +32,9 @@ void show_usage(char *name) {
            "                        compiled with CFLAGS=-DTRACE_TURNUS\n"
            "--with-complexity       Output per-actor complexity (cycles) in\n"
            "                        configuration file (see --generate)\n"
-           "--with-bandwidth        Output per-connection bandwidth (#tokens)\n"
-           "                        in configuration file (see --generate).\n"
+           "--with-bandwidth        Output per-connection bandwidth and peak\n"
+           "                        occupancy (#tokens) in configuration file\n"
+           "                        (see --generate).\n"
            "                        Note: wraps around at 4G tokens\n"
            "--termination-report    Describe network state at termination\n"
            "--hardware-profile=FILE Generate hardware profiling info if \n"
@@ -58,6 +62,32 @@ void show_usage(char *name) {
            "--use-default-depth     Ignores the buffer size configurations   \n"
            "                        provided in using the cfile option and",
            DEFAULT_FIFO_LENGTH);
+    printf("\n"
+           "--huge-pages=P          Allocate all FIFO buffers from one arena \n"
+           "                        of huge pages, P is 2M, 1G or off. Falls \n"
+           "                        back to smaller pages when unavailable");
+    printf("\n"
+           "--scheduler=S           Actor scheduling strategy:               \n"
+           "                           round-robin: each thread polls its own\n"
+           "                                        actors (default)         \n"
+           "                           work-stealing: ready actors are queued\n"
+           "                                        per thread, idle threads \n"
+           "                                        steal from the others    \n"
+           "                           data-driven: like round-robin, but only\n"
+           "                                        actors whose FIFOs changed\n"
+           "                                        are checked and fired    \n"
+           "--threads=N             Number of threads used by work-stealing  \n"
+           "                        when no affinity is configured, default  \n"
+           "                        is one per available processor\n"
+           "--rebalance=MS          Every MS milliseconds, move actors from\n"
+           "                        the most to the least loaded threads     \n"
+           "                        (round-robin and data-driven schedulers),\n"
+           "                        see --generate for the final placement\n"
+           "--idle-spin=N           When idle, poll N times with a spin-wait \n"
+           "                        hint before yielding (default 0)         \n"
+           "--idle-yield=N          Then yield the processor N times before  \n"
+           "                        sleeping (default 0), see --timing for   \n"
+           "                        how often each stage ended the wait\n");
 
 }
 
@@ -79,6 +109,8 @@ void pre_parse_args(int argc, char *argv[], RuntimeOptions *options) {
             options->show_statistics = 1;
         } else if (strncmp(argv[i], "--loopmax=", 10) == 0) {
             options->arg_loopmax = atoi(&argv[i][10]);
+        } else if (strncmp(argv[i], "--loopmin=", 10) == 0) {
+            options->arg_loopmin = atoi(&argv[i][10]);
         } else if (strncmp(argv[i], "--cfile=", 8) == 0) {
             options->configFilename = &argv[i][8];
         } else if (strncmp(argv[i], "--generate=", 11) == 0) {
@@ -110,6 +142,26 @@ void pre_parse_args(int argc, char *argv[], RuntimeOptions *options) {
             options->buffer_depth = atoi(&argv[i][4]);
         } else if (strcmp(argv[i], "--use-default-depth") == 0) {
             options->no_cfile_connections = 1;
+        } else if (strcmp(argv[i], "--huge-pages=off") == 0) {
+            options->huge_pages = ART_HUGE_PAGES_OFF;
+        } else if (strcmp(argv[i], "--huge-pages=2M") == 0) {
+            options->huge_pages = ART_HUGE_PAGES_2M;
+        } else if (strcmp(argv[i], "--huge-pages=1G") == 0) {
+            options->huge_pages = ART_HUGE_PAGES_1G;
+        } else if (strcmp(argv[i], "--scheduler=round-robin") == 0) {
+            options->scheduler = ART_SCHEDULER_ROUND_ROBIN;
+        } else if (strcmp(argv[i], "--scheduler=work-stealing") == 0) {
+            options->scheduler = ART_SCHEDULER_WORK_STEALING;
+        } else if (strcmp(argv[i], "--scheduler=data-driven") == 0) {
+            options->scheduler = ART_SCHEDULER_DATA_DRIVEN;
+        } else if (strncmp(argv[i], "--threads=", 10) == 0) {
+            options->num_threads = atoi(&argv[i][10]);
+        } else if (strncmp(argv[i], "--rebalance=", 12) == 0) {
+            options->rebalance_period = atoi(&argv[i][12]);
+        } else if (strncmp(argv[i], "--idle-spin=", 12) == 0) {
+            options->idle_spin = atoi(&argv[i][12]);
+        } else if (strncmp(argv[i], "--idle-yield=", 13) == 0) {
+            options->idle_yield = atoi(&argv[i][13]);
         }  else if (strcmp(argv[i], "--help") == 0) {
             show_usage(argv[0]);
             exit(0);
@@ -56,6 +56,7 @@
 #define INSTANCE_NAME                       (const xmlChar*)"id"
 #define PARTITION_ID                        (const xmlChar*)"id"
 #define SCHEDULING_TYPE                     (const xmlChar*)"scheduling"
+#define PARTITION_NODE                      (const xmlChar*)"node"
 
 
 void parsePartitioning(xmlNode *node);
@@ -93,6 +94,7 @@ AffinityID instanceAfinity[MAX_ACTOR_NUM];
 ConnectID connects[MAX_CONNECTS];
 ScheduleID schedule;
 int numPartitions = 1;
+int partitionNode[MAX_PARTITIONS];
 
 static int _numInstances;
 static int _numConnects;
@@ -106,6 +108,9 @@ void printout_config() {
     for (i = 0; i < _numInstances; i++)
         printf("%d  %s\n", instanceAfinity[i].affinity,
                instanceAfinity[i].name);
+    for (i = 0; i < MAX_PARTITIONS; i++)
+        if (partitionNode[i] >= 0)
+            printf("partition %d on node %d\n", i, partitionNode[i]);
     printf("source source_port target target_port size\n");
     for (i = 0; i < _numConnects; i++)
         printf("%s %s %s %s %d\n", connects[i].src,
@@ -163,9 +168,15 @@ void parseConnection(xmlNode *cur_node) {
 void parsePartition(xmlNode *node) {
     xmlNode *child_node;
     char *id;
+    char *numa;
 
     id = (char *) xmlGetProp(node, PARTITION_ID);
     schedule.type = (char *) xmlGetProp(node, SCHEDULING_TYPE);
+    numa = (char *) xmlGetProp(node, PARTITION_NODE);
+    if (id && numa && atoi(id) >= 0 && atoi(id) < MAX_PARTITIONS) {
+        partitionNode[atoi(id)] = atoi(numa);
+    }
+    xmlFree(numa);
 
     for (child_node = node->children; child_node != NULL; child_node = child_node->next) {
         if (child_node->type == XML_ELEMENT_NODE &&
@@ -206,6 +217,11 @@ void xmlCleanup(xmlDocPtr doc) {
 
 int xmlParser(char *filename, int numInstances) {
     xmlDocPtr doc;
+    int i;
+
+    for (i = 0; i < MAX_PARTITIONS; i++) {
+        partitionNode[i] = -1;
+    }
 
     if (!filename) {
         printf("error: missing config filename\n");
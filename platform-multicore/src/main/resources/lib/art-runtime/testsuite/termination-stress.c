@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) EPFL, 2019
+ * Author: Endri Bezati (endri.bezati@epfl.ch)
+ * All rights reserved.
+ *
+ * License terms:
+ *
+ * Redistribution and use in source and binary forms,
+ * with or without modification, are permitted provided
+ * that the following conditions are met:
+ *     * Redistributions of source code must retain the above
+ *       copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *     * Redistributions in binary form must reproduce the
+ *       above copyright notice, this list of conditions and
+ *       the following disclaimer in the documentation and/or
+ *       other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names
+ *       of its contributors may be used to endorse or promote
+ *       products derived from this software without specific
+ *       prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/*
+ * Sleep/wake and termination stress test of the ART runtime.
+ *
+ * Builds a number of source -> filter* -> sink pipelines, with FIFO depths
+ * and actor placements drawn from ART_STRESS_SEED, so that threads keep
+ * going to sleep and waking each other up. The test fails when the network
+ * terminates before every token reached the sinks (a missed wake-up) and
+ * hangs when the termination is missed, which the test driver reports as
+ * a timeout.
+ *
+ * Environment: ART_STRESS_SEED, ART_STRESS_TOKENS, ART_STRESS_PIPES,
+ * ART_STRESS_STAGES, ART_STRESS_THREADS, ART_STRESS_PARTITION (placements
+ * given as thread partitions instead of processors). Runtime options (--timing,
+ * --scheduler=...) are passed on the command line as usual.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include "actors-rts.h"
+
+typedef struct {
+    AbstractActorInstance base;
+    int tokens;
+    int next;
+} ActorInstance_Source;
+
+typedef struct {
+    AbstractActorInstance base;
+} ActorInstance_Filter;
+
+typedef struct {
+    AbstractActorInstance base;
+    int tokens;
+    int count;
+    long long sum;
+} ActorInstance_Sink;
+
+static int tokens = 20000;
+static int stages = 4;
+static int schedule; // static schedule for all actors when set
+static int partitions; // placements as compiler thread partitions when set
+
+static const int exitcode_block_Out_1[] = {
+        EXITCODE_BLOCK(1), 0, 1
+};
+
+static const int exitcode_block_In_1[] = {
+        EXITCODE_BLOCK(1), 0, 1
+};
+
+ART_ACTION_CONTEXT(1, 1);
+
+ART_ACTION_SCHEDULER(Source_action_scheduler) {
+    const int *result = EXIT_CODE_YIELD;
+    ActorInstance_Source *thisActor = (ActorInstance_Source *) pBase;
+    ART_ACTION_SCHEDULER_ENTER(0, 1);
+    ART_ACTION_SCHEDULER_LOOP {
+        ART_ACTION_SCHEDULER_LOOP_TOP;
+        if (thisActor->next == thisActor->tokens) {
+            result = EXITCODE_TERMINATE;
+            goto out;
+        }
+        if (pinAvailOut_int32_t(ART_OUTPUT(0)) > 0) {
+            ART_ACTION_ENTER(emit, 0);
+            pinWrite_int32_t(ART_OUTPUT(0), thisActor->next++);
+            ART_ACTION_EXIT(emit, 0);
+        } else {
+            result = exitcode_block_Out_1;
+            goto out;
+        }
+        ART_ACTION_SCHEDULER_LOOP_BOTTOM;
+    }
+    out:
+    ART_ACTION_SCHEDULER_EXIT(0, 1);
+    return result;
+}
+
+ART_ACTION_SCHEDULER(Filter_action_scheduler) {
+    const int *result = EXIT_CODE_YIELD;
+    ART_ACTION_SCHEDULER_ENTER(1, 1);
+    ART_ACTION_SCHEDULER_LOOP {
+        ART_ACTION_SCHEDULER_LOOP_TOP;
+        if (pinAvailIn_int32_t(ART_INPUT(0)) > 0 &&
+            pinAvailOut_int32_t(ART_OUTPUT(0)) > 0) {
+            ART_ACTION_ENTER(increment, 0);
+            pinWrite_int32_t(ART_OUTPUT(0), pinRead_int32_t(ART_INPUT(0)) + 1);
+            ART_ACTION_EXIT(increment, 0);
+        } else {
+            result = exitcode_block_In_1;
+            goto out;
+        }
+        ART_ACTION_SCHEDULER_LOOP_BOTTOM;
+    }
+    out:
+    ART_ACTION_SCHEDULER_EXIT(1, 1);
+    return result;
+}
+
+ART_ACTION_SCHEDULER(Sink_action_scheduler) {
+    const int *result = EXIT_CODE_YIELD;
+    ActorInstance_Sink *thisActor = (ActorInstance_Sink *) pBase;
+    ART_ACTION_SCHEDULER_ENTER(1, 0);
+    ART_ACTION_SCHEDULER_LOOP {
+        ART_ACTION_SCHEDULER_LOOP_TOP;
+        if (pinAvailIn_int32_t(ART_INPUT(0)) > 0) {
+            ART_ACTION_ENTER(consume, 0);
+            thisActor->sum += pinRead_int32_t(ART_INPUT(0));
+            thisActor->count++;
+            ART_ACTION_EXIT(consume, 0);
+        } else {
+            result = exitcode_block_In_1;
+            goto out;
+        }
+        ART_ACTION_SCHEDULER_LOOP_BOTTOM;
+    }
+    out:
+    ART_ACTION_SCHEDULER_EXIT(1, 0);
+    return result;
+}
+
+/*
+ * Firings of the static schedule, all of them or none, as generated for the
+ * synchronous actors of a chain
+ */
+ART_STATIC_FIRE(Source_static_fire) {
+    ActorInstance_Source *thisActor = (ActorInstance_Source *) pBase;
+    ART_ACTION_SCHEDULER_ENTER(0, 1);
+    int batch = firings;
+    if (thisActor->tokens - thisActor->next < batch) {
+        // Terminates through the action scheduler
+        return 0;
+    }
+    batch = art_batch_limit(batch, pinAvailOut_int32_t(ART_OUTPUT(0)), 1, 1);
+    if (batch < firings) {
+        return 0;
+    }
+    while (batch-- > 0) {
+        ART_ACTION_ENTER(emit, 0);
+        pinWrite_int32_t(ART_OUTPUT(0), thisActor->next++);
+        ART_ACTION_EXIT(emit, 0);
+    }
+    ART_ACTION_SCHEDULER_EXIT(0, 1);
+    return firings;
+}
+
+ART_STATIC_FIRE(Filter_static_fire) {
+    ART_ACTION_SCHEDULER_ENTER(1, 1);
+    int batch = firings;
+    batch = art_batch_limit(batch, pinAvailIn_int32_t(ART_INPUT(0)), 1, 1);
+    batch = art_batch_limit(batch, pinAvailOut_int32_t(ART_OUTPUT(0)), 1, 1);
+    if (batch < firings) {
+        return 0;
+    }
+    while (batch-- > 0) {
+        ART_ACTION_ENTER(increment, 0);
+        pinWrite_int32_t(ART_OUTPUT(0), pinRead_int32_t(ART_INPUT(0)) + 1);
+        ART_ACTION_EXIT(increment, 0);
+    }
+    ART_ACTION_SCHEDULER_EXIT(1, 1);
+    return firings;
+}
+
+ART_STATIC_FIRE(Sink_static_fire) {
+    ActorInstance_Sink *thisActor = (ActorInstance_Sink *) pBase;
+    ART_ACTION_SCHEDULER_ENTER(1, 0);
+    int batch = firings;
+    batch = art_batch_limit(batch, pinAvailIn_int32_t(ART_INPUT(0)), 1, 1);
+    if (batch < firings) {
+        return 0;
+    }
+    while (batch-- > 0) {
+        ART_ACTION_ENTER(consume, 0);
+        thisActor->sum += pinRead_int32_t(ART_INPUT(0));
+        thisActor->count++;
+        ART_ACTION_EXIT(consume, 0);
+    }
+    ART_ACTION_SCHEDULER_EXIT(1, 0);
+    return firings;
+}
+
+static void Source_constructor(AbstractActorInstance *pBase) {
+    ActorInstance_Source *thisActor = (ActorInstance_Source *) pBase;
+    thisActor->tokens = tokens;
+    thisActor->next = 0;
+}
+
+static void Filter_constructor(AbstractActorInstance *pBase) {
+}
+
+static void Sink_constructor(AbstractActorInstance *pBase) {
+    ActorInstance_Sink *thisActor = (ActorInstance_Sink *) pBase;
+    thisActor->tokens = tokens;
+    thisActor->count = 0;
+    thisActor->sum = 0;
+}
+
+static void Sink_destructor(AbstractActorInstance *pBase) {
+    ActorInstance_Sink *thisActor = (ActorInstance_Sink *) pBase;
+    long long expected = (long long) thisActor->tokens * (thisActor->tokens - 1) / 2 +
+                         (long long) thisActor->tokens * stages;
+
+    if (thisActor->count != thisActor->tokens || thisActor->sum != expected) {
+        printf("%s: received %d of %d tokens, sum %lld expected %lld\n",
+               pBase->name, thisActor->count, thisActor->tokens,
+               thisActor->sum, expected);
+        // executeNetwork exits with its own result, fail from here
+        exit(1);
+    }
+}
+
+static const PortDescription inputPortDescriptions[] = {
+        {0, "In", sizeof(int32_t)}
+};
+
+static const PortDescription outputPortDescriptions[] = {
+        {0, "Out", sizeof(int32_t)}
+};
+
+static const ActionDescription actionDescriptions[] = {
+        {"action", 0, 0}
+};
+
+ActorClass ActorClass_Source = INIT_StaticActorClass(
+        Source_static_fire, "Source", ActorInstance_Source, Source_constructor, 0,
+        Source_action_scheduler, 0,
+        0, 0, 1, outputPortDescriptions,
+        1, actionDescriptions, 0, 0, 0, 0);
+
+ActorClass ActorClass_Filter = INIT_StaticActorClass(
+        Filter_static_fire, "Filter", ActorInstance_Filter, Filter_constructor, 0,
+        Filter_action_scheduler, 0,
+        1, inputPortDescriptions, 1, outputPortDescriptions,
+        1, actionDescriptions, 0, 0, 0, 0);
+
+ActorClass ActorClass_Sink = INIT_StaticActorClass(
+        Sink_static_fire, "Sink", ActorInstance_Sink, Sink_constructor, 0,
+        Sink_action_scheduler, Sink_destructor,
+        1, inputPortDescriptions, 0, 0,
+        1, actionDescriptions, 0, 0, 0, 0);
+
+static int env_int(const char *name, int value) {
+    const char *s = getenv(name);
+    return s ? atoi(s) : value;
+}
+
+static AbstractActorInstance *create(ActorClass *actorClass, const char *kind,
+                                     int pipe, int stage, int threads, int chain) {
+    AbstractActorInstance *instance = createActorInstance(actorClass);
+    char name[64];
+    char affinity[16];
+    char fusion[16];
+    char repetitions[16];
+
+    snprintf(name, sizeof(name), "%s_%d_%d", kind, pipe, stage);
+    instance->name = strdup(name);
+    snprintf(affinity, sizeof(affinity), "%d", rand() % threads);
+    setParameter(instance, partitions ? "partition" : "affinity", strdup(affinity));
+    if (chain >= 0) {
+        snprintf(fusion, sizeof(fusion), "%d", chain);
+        setParameter(instance, "fusion", strdup(fusion));
+    }
+    if (schedule) {
+        // Any positive value is a valid schedule for the runtime
+        snprintf(repetitions, sizeof(repetitions), "%d", 1 + rand() % 4);
+        setParameter(instance, "repetitions", strdup(repetitions));
+    }
+    return instance;
+}
+
+int main(int argc, char *argv[]) {
+    RuntimeOptions *options = (RuntimeOptions *) calloc(1, sizeof(RuntimeOptions));
+    int pipes = env_int("ART_STRESS_PIPES", 3);
+    int threads = env_int("ART_STRESS_THREADS", 4);
+    // Fuse random chains of neighboring actors when set
+    int fuse = env_int("ART_STRESS_FUSE", 0);
+    int chain = 0;
+    int numInstances, i, j, k = 0;
+    AbstractActorInstance **instances;
+
+    srand(env_int("ART_STRESS_SEED", 1));
+    tokens = env_int("ART_STRESS_TOKENS", tokens);
+    schedule = env_int("ART_STRESS_SCHEDULE", 0);
+    partitions = env_int("ART_STRESS_PARTITION", 0);
+    stages = env_int("ART_STRESS_STAGES", stages);
+    pre_parse_args(argc, argv, options);
+
+    numInstances = pipes * (stages + 2);
+    instances = malloc(numInstances * sizeof(*instances));
+    for (i = 0; i < pipes; i++) {
+        OutputPort *output;
+
+        instances[k] = create(&ActorClass_Source, "source", i, 0, threads,
+                              fuse ? ++chain : -1);
+        output = createOutputPort(instances[k++], "Out", 1);
+        for (j = 0; j <= stages; j++) {
+            // Shallow FIFOs make the threads block, and sleep, often
+            int depth = 1 + rand() % 8;
+            int last = j == stages;
+            InputPort *input;
+
+            if (fuse && rand() % 2) {
+                chain++;
+            }
+            instances[k] = create(last ? &ActorClass_Sink : &ActorClass_Filter,
+                                  last ? "sink" : "filter", i, j + 1, threads,
+                                  fuse ? chain : -1);
+            input = createInputPort(instances[k], "In", depth);
+            connectPorts(output, input);
+            if (!last) {
+                output = createOutputPort(instances[k], "Out", 1);
+            }
+            k++;
+        }
+    }
+
+    return executeNetwork(argc, argv, options, instances, numInstances);
+}